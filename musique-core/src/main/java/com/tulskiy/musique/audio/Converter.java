@@ -14,7 +14,6 @@
  * You should have received a copy of the GNU Lesser General Public License
  * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.tulskiy.musique.audio;
 
 import com.tulskiy.musique.playlist.Track;
@@ -30,105 +29,148 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Author: Denis Tulskiy
  * Date: Jul 27, 2010
  */
 public class Converter {
+    private static final int BLOCK_SIZE = TranscodePipeline.BLOCK_SIZE;
+
     private Logger logger = LoggerFactory.getLogger(getClass().getName());
     private Configuration config = Application.getInstance().getConfiguration();
     private Expression fileNameFormat;
-    private Encoder encoder;
-    private Decoder decoder;
-    private Track track;
-    private boolean stop;
-    private long cueTotalBytes;
-    private long currentByte;
-    private long currentSample;
+    private ExecutorService executor;
+    // serializes output file naming, overwrite prompts and tag writing
+    private final Object lock = new Object();
+    private volatile Track track;
+    private volatile File output;
+    // outputs written during current run, guarded by lock
+    private Set<File> outputs = new HashSet<File>();
+    private volatile boolean stop;
+    private AtomicLong currentSample = new AtomicLong();
+    // amount of audio converted by all jobs, in microseconds
+    private AtomicLong convertedMicros = new AtomicLong();
     private long totalSamples;
     private long startTime;
-    private long elapsed;
-    private double speed;
-    private double estimated;
-    private File output;
+    private volatile long elapsed;
+    private volatile double speed;
+    private volatile double estimated;
 
     public Converter() {
         String fileName = config.getString("converter.fileNameFormat", "%fileName%");
         fileNameFormat = Parser.parse(fileName);
     }
 
+    /**
+     * Set executor to run conversion jobs on. If not set, a pool
+     * of <code>converter.threads</code> threads is created for
+     * every {@link #convert(List)} call
+     *
+     * @param executor executor service
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     public void convert(List<Track> tracks) {
         stop = false;
         totalSamples = 0;
-        currentSample = 0;
+        currentSample.set(0);
+        convertedMicros.set(0);
         startTime = System.currentTimeMillis();
         boolean merge = config.getBoolean("converter.merge", false);
         for (Track track : tracks) {
             totalSamples += track.getTrackData().getTotalSamples();
         }
-        byte[] buf = new byte[65536];
+        synchronized (lock) {
+            outputs.clear();
+        }
+        if (!tracks.isEmpty())
+            track = tracks.get(0);
+
+        if (merge) {
+            convertMerged(tracks);
+            return;
+        }
+
+        ExecutorService service = executor;
+        if (service == null) {
+            int threads = config.getInt("converter.threads", Runtime.getRuntime().availableProcessors());
+            service = Executors.newFixedThreadPool(Math.max(1, threads));
+        }
+        try {
+            List<Future<?>> jobs = new ArrayList<Future<?>>();
+            for (Track track : tracks) {
+                jobs.add(service.submit(new Job(track)));
+            }
+            for (Future<?> job : jobs) {
+                try {
+                    job.get();
+                } catch (ExecutionException e) {
+                    logger.warn("Error converting track", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            stop();
+        } finally {
+            if (service != executor)
+                service.shutdown();
+        }
+    }
+
+    /**
+     * Merged output has to keep track order, so tracks
+     * are converted one by one into the same encoder
+     */
+    private void convertMerged(List<Track> tracks) {
+        Encoder encoder = null;
         for (Track track : tracks) {
             if (stop)
                 break;
-            this.track = track;
-            if (!openDecoder()) {
-                currentSample += track.getTrackData().getTotalSamples();
+            Job job = new Job(track);
+            if (!job.openDecoder()) {
+                skip(track);
                 continue;
             }
-            if (!merge || encoder == null) {
-                if (!openEncoder()) {
-                    currentSample += track.getTrackData().getTotalSamples();
+            if (encoder == null) {
+                if (!job.openEncoder()) {
+                    job.closeDecoder();
+                    skip(track);
                     continue;
                 }
+                encoder = job.encoder;
+            } else {
+                job.encoder = encoder;
             }
-            int len;
-            boolean cueFinished = false;
-            while (!stop && !cueFinished) {
-                len = decoder.decode(buf);
-
-                if (len == -1)
-                    break;
-
-                if (track.getTrackData().isCue()) {
-                    if (cueTotalBytes <= currentByte + len) {
-                        len = (int) (cueTotalBytes - currentByte);
-                        cueFinished = true;
-                    }
-                }
-
-                currentByte += len;
-                currentSample += AudioMath.bytesToSamples(len, decoder.getAudioFormat().getFrameSize());
-                updateStats();
-                if (len != 0)
-                    encoder.encode(buf, len);
-            }
-
-            if (!merge) {
-                Track newTrack = track.copy();
-                newTrack.getTrackData().setLocation(output.toURI().toString());
-                encoder.close();
-                encoder = null;
-
-                TrackIO.write(newTrack);
-            }
-            decoder.close();
-            decoder = null;
+            job.transcode();
+            job.closeDecoder();
         }
 
-        if (merge) {
+        if (encoder != null) {
             encoder.close();
-            encoder = null;
         }
     }
 
+    private void skip(Track track) {
+        currentSample.addAndGet(track.getTrackData().getTotalSamples());
+    }
+
     private void updateStats() {
         elapsed = System.currentTimeMillis() - startTime;
-        speed = AudioMath.samplesToMillis(currentSample,
-                (int) decoder.getAudioFormat().getSampleRate()) /
-                elapsed;
-        estimated = totalSamples / speed;
+        if (elapsed > 0) {
+            speed = convertedMicros.get() / 1000d / elapsed;
+            estimated = totalSamples / speed;
+        }
     }
 
     public double getEstimated() {
@@ -143,12 +185,15 @@ public class Converter {
         return speed;
     }
 
+    /**
+     * @return last track that started converting
+     */
     public Track getTrack() {
         return track;
     }
 
     public long getCurrentSample() {
-        return currentSample;
+        return currentSample.get();
     }
 
     public long getTotalSamples() {
@@ -159,90 +204,221 @@ public class Converter {
         stop = true;
     }
 
-    public boolean openDecoder() {
-        decoder = Codecs.getNewDecoder(track);
+    /**
+     * @return output file of the last track that started converting
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * Conversion of one track with its own decoder/encoder pair
+     */
+    private class Job implements Runnable {
+        private Track track;
+        private Decoder decoder;
+        private Encoder encoder;
+        private File output;
+        private long cueTotalBytes;
+        private long currentByte;
+        private boolean cueFinished;
+        private int frameSize;
+        private long sampleRate;
+
+        Job(Track track) {
+            this.track = track;
+        }
+
+        @Override
+        public void run() {
+            if (stop)
+                return;
+            if (!openDecoder()) {
+                skip(track);
+                return;
+            }
+            try {
+                if (!openEncoder()) {
+                    skip(track);
+                    return;
+                }
+                transcode();
+
+                Track newTrack = track.copy();
+                newTrack.getTrackData().setLocation(output.toURI().toString());
+                encoder.close();
 
-        if (decoder == null || !decoder.open(track)) {
-            logger.info("Couldn't initialize decoder for track: " + track.getTrackData().getLocation());
-            return false;
+                synchronized (lock) {
+                    TrackIO.write(newTrack);
+                }
+            } finally {
+                closeDecoder();
+            }
         }
 
-        cueTotalBytes = 0;
-        currentByte = 0;
-        if (track.getTrackData().isCue()) {
-            decoder.seekSample(track.getTrackData().getStartPosition());
-            cueTotalBytes = AudioMath.samplesToBytes(track.getTrackData().getTotalSamples(), decoder.getAudioFormat().getFrameSize());
+        void transcode() {
+            if (config.getBoolean("converter.pipeline", true)) {
+                transcodePipelined();
+            } else {
+                byte[] buf = new byte[BLOCK_SIZE];
+                int len;
+                while (!stop && (len = decodeChunk(buf)) != -1) {
+                    encodeChunk(buf, len);
+                }
+            }
         }
-        return true;
-    }
 
-    public boolean openEncoder() {
-        if (decoder == null) {
-            logger.error("Need to initialize decoder before encoder!");
+        private void transcodePipelined() {
+            TranscodePipeline pipeline = new TranscodePipeline() {
+                @Override
+                int decode(byte[] buf) {
+                    return decodeChunk(buf);
+                }
+
+                @Override
+                void encode(byte[] buf, int len) {
+                    encodeChunk(buf, len);
+                }
+
+                @Override
+                boolean isStopped() {
+                    return stop;
+                }
+            };
+            try {
+                pipeline.run();
+            } catch (InterruptedException e) {
+                stop();
+            }
         }
 
-        logger.info("Converting track: " + track.getTrackData().getLocation());
-        File parent = null;
-        if (config.getBoolean("converter.saveToSourceFolder", true)) {
-            if (track.getTrackData().isFile()) {
-                parent = track.getTrackData().getFile().getParentFile();
+        private int decodeChunk(byte[] buf) {
+            if (cueFinished)
+                return -1;
+            int len = decoder.decode(buf);
+
+            if (len == -1)
+                return -1;
+
+            if (track.getTrackData().isCue()) {
+                if (cueTotalBytes <= currentByte + len) {
+                    len = (int) (cueTotalBytes - currentByte);
+                    cueFinished = true;
+                }
             }
-        } else {
-            String path = config.getString("converter.path", "");
-            parent = new File(path);
+
+            currentByte += len;
+            return len;
         }
 
-        if (parent == null || !parent.isDirectory()) {
-            logger.warn("Don't know where to save track: " + track.getTrackData().getLocation());
-            return false;
+        private void encodeChunk(byte[] buf, int len) {
+            long samples = AudioMath.bytesToSamples(len, frameSize);
+            currentSample.addAndGet(samples);
+            convertedMicros.addAndGet(samples * 1000000 / sampleRate);
+            updateStats();
+            if (len != 0)
+                encoder.encode(buf, len);
         }
 
-        if (!parent.canWrite()) {
-            logger.warn("Cannot write to folder: " + parent);
-            return false;
+        boolean openDecoder() {
+            Converter.this.track = track;
+            decoder = Codecs.getDecoder(track);
+
+            if (decoder == null || !decoder.open(track)) {
+                logger.info("Couldn't initialize decoder for track: " + track.getTrackData().getLocation());
+                closeDecoder();
+                return false;
+            }
+
+            cueTotalBytes = 0;
+            currentByte = 0;
+            cueFinished = false;
+            frameSize = decoder.getAudioFormat().getFrameSize();
+            sampleRate = (long) decoder.getAudioFormat().getSampleRate();
+            if (track.getTrackData().isCue()) {
+                decoder.seekSample(track.getTrackData().getStartPosition());
+                cueTotalBytes = AudioMath.samplesToBytes(track.getTrackData().getTotalSamples(), decoder.getAudioFormat().getFrameSize());
+            }
+            return true;
         }
-        //noinspection ResultOfMethodCallIgnored
-        parent.mkdirs();
 
-        String format = config.getString("converter.encoder", "wav");
-        String fileName = String.valueOf(fileNameFormat.eval(track)) +
-                "." + format;
-        output = new File(parent, fileName);
+        void closeDecoder() {
+            if (decoder != null) {
+                decoder.close();
+                Codecs.releaseDecoder(decoder);
+                decoder = null;
+            }
+        }
 
-        if (output.exists()) {
-            String action = config.getString("converter.actionWhenExists", "Ask");
-            if (action.equals("Ask")) {
-                int ret = JOptionPane.showConfirmDialog(null,
-                        "File " + output.getAbsolutePath() + " exists, overwrite?",
-                        "File exists, overwrite",
-                        JOptionPane.YES_NO_CANCEL_OPTION);
+        boolean openEncoder() {
+            synchronized (lock) {
+                logger.info("Converting track: " + track.getTrackData().getLocation());
+                File parent = null;
+                if (config.getBoolean("converter.saveToSourceFolder", true)) {
+                    if (track.getTrackData().isFile()) {
+                        parent = track.getTrackData().getFile().getParentFile();
+                    }
+                } else {
+                    String path = config.getString("converter.path", "");
+                    parent = new File(path);
+                }
 
-                if (ret == JOptionPane.YES_OPTION) {
-                    //noinspection ResultOfMethodCallIgnored
-                    output.delete();
-                } else if (ret == JOptionPane.NO_OPTION) {
+                if (parent == null || !parent.isDirectory()) {
+                    logger.warn("Don't know where to save track: " + track.getTrackData().getLocation());
                     return false;
-                } else if (ret == JOptionPane.CANCEL_OPTION) {
-                    stop();
+                }
+
+                if (!parent.canWrite()) {
+                    logger.warn("Cannot write to folder: " + parent);
                     return false;
                 }
-            } else if (action.equals("Overwrite")) {
                 //noinspection ResultOfMethodCallIgnored
-                output.delete();
-            } else if (action.equals("Skip")) {
-                return false;
+                parent.mkdirs();
+
+                String format = config.getString("converter.encoder", "wav");
+                String fileName = String.valueOf(fileNameFormat.eval(track)) +
+                        "." + format;
+                output = new File(parent, fileName);
+
+                if (!outputs.add(output)) {
+                    // jobs run in parallel, so we can't let two of them write to the same file
+                    logger.warn("File " + output.getAbsolutePath() + " is already written by another track, skipping");
+                    return false;
+                }
+
+                if (output.exists()) {
+                    String action = config.getString("converter.actionWhenExists", "Ask");
+                    if (action.equals("Ask")) {
+                        int ret = JOptionPane.showConfirmDialog(null,
+                                "File " + output.getAbsolutePath() + " exists, overwrite?",
+                                "File exists, overwrite",
+                                JOptionPane.YES_NO_CANCEL_OPTION);
+
+                        if (ret == JOptionPane.YES_OPTION) {
+                            //noinspection ResultOfMethodCallIgnored
+                            output.delete();
+                        } else if (ret == JOptionPane.NO_OPTION) {
+                            return false;
+                        } else if (ret == JOptionPane.CANCEL_OPTION) {
+                            stop();
+                            return false;
+                        }
+                    } else if (action.equals("Overwrite")) {
+                        //noinspection ResultOfMethodCallIgnored
+                        output.delete();
+                    } else if (action.equals("Skip")) {
+                        return false;
+                    }
+                }
+                logger.info("Saving track to file: " + output.getAbsolutePath());
+                Converter.this.output = output;
+                encoder = Codecs.getEncoder(format);
+                if (encoder == null || !encoder.open(output, decoder.getAudioFormat(), config)) {
+                    logger.warn("Couldn't initialize encoder for track: " + track.getTrackData().getLocation());
+                    return false;
+                }
+                return true;
             }
         }
-        logger.info("Saving track to file: " + output.getAbsolutePath());
-        encoder = Codecs.getEncoder(format);
-        if (!encoder.open(output, decoder.getAudioFormat(), config)) {
-            logger.warn("Couldn't initialize encoder for track: " + track.getTrackData().getLocation());
-            return false;
-        }
-        return true;
-    }
-
-    public File getOutput() {
-        return output;
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.audio;
+
+/**
+ * Optional contract for decoders that can output samples
+ * without packing them to PCM bytes first. Used when samples
+ * have to go through DSP anyway.
+ */
+public interface FloatDecoder extends Decoder {
+    /**
+     * Decode chunk of interleaved samples normalized to [-1, 1)
+     *
+     * @param samples buffer for samples
+     * @return number of samples decoded or -1 if end of stream
+     */
+    public int decode(float[] samples);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decodes on a separate thread so that decoder and encoder work at
+ * the same time. Blocks circulate between two queues, so the decoder
+ * can't get more than {@link #BLOCKS} blocks ahead.
+ * <p/>
+ * {@link #run()} does not return before the decoder thread has finished,
+ * so the caller may close the decoder right after it. Exceptions of
+ * either side are thrown from {@link #run()}.
+ */
+abstract class TranscodePipeline {
+    static final int BLOCK_SIZE = 65536;
+    // number of PCM blocks in flight between decoder and encoder threads
+    static final int BLOCKS = 4;
+
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(BLOCKS);
+    private final BlockingQueue<Block> filled = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+    private volatile boolean finished;
+    private volatile Throwable error;
+
+    /**
+     * @return number of bytes decoded or -1 at the end
+     */
+    abstract int decode(byte[] buf);
+
+    abstract void encode(byte[] buf, int len);
+
+    /**
+     * @return true if conversion was stopped by user
+     */
+    abstract boolean isStopped();
+
+    /**
+     * @throws InterruptedException if the encoding thread was interrupted
+     */
+    void run() throws InterruptedException {
+        for (int i = 0; i < BLOCKS; i++) {
+            free.add(new Block());
+        }
+
+        Thread decoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!finished) {
+                        Block block = free.take();
+                        block.len = finished || isStopped() ? -1 : decode(block.data);
+                        filled.put(block);
+                        if (block.len == -1)
+                            break;
+                    }
+                } catch (InterruptedException ignored) {
+                } catch (Throwable e) {
+                    if (!finished)
+                        error = e;
+                    filled.offer(Block.END);
+                }
+            }
+        }, "Converter Decoder");
+        decoderThread.setDaemon(true);
+        decoderThread.start();
+
+        try {
+            while (true) {
+                Block block = filled.take();
+                if (block.len == -1)
+                    break;
+                encode(block.data, block.len);
+                free.put(block);
+            }
+        } finally {
+            finished = true;
+            decoderThread.interrupt();
+            join(decoderThread);
+        }
+
+        Throwable e = error;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e != null)
+            throw new RuntimeException(e);
+    }
+
+    /**
+     * Waits for the thread even if interrupted, the decoder
+     * must not be in use when the caller closes it
+     */
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static class Block {
+        static final Block END = new Block(0, -1);
+
+        final byte[] data;
+        volatile int len;
+
+        Block() {
+            this(BLOCK_SIZE, 0);
+        }
+
+        Block(int size, int len) {
+            data = new byte[size];
+            this.len = len;
+        }
+    }
+}
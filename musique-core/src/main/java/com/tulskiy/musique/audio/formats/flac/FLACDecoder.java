@@ -17,8 +17,10 @@
 
 package com.tulskiy.musique.audio.formats.flac;
 
-import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.FloatDecoder;
 import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.util.AudioMath;
+import org.kc7bfi.jflac.ChannelData;
 import org.kc7bfi.jflac.frame.Frame;
 import org.kc7bfi.jflac.io.RandomFileInputStream;
 import org.kc7bfi.jflac.metadata.Metadata;
@@ -34,7 +36,7 @@ import java.io.RandomAccessFile;
  * @Author: Denis Tulskiy
  * @Date: 12.06.2009
  */
-public class FLACDecoder implements Decoder {
+public class FLACDecoder implements FloatDecoder {
     private RandomAccessFile inputFile;
     private StreamInfo streamInfo;
     private SeekTable seekTable;
@@ -45,6 +47,7 @@ public class FLACDecoder implements Decoder {
     public synchronized boolean open(Track track) {
         try {
             logger.info("Opening file: " + track.getTrackData().getFile());
+            offset = -1;
             inputFile = new RandomAccessFile(track.getTrackData().getFile(), "r");
 //            ogg = iFile.getAudioHeader().getCodec().equals("Ogg FLAC");
 //            if (ogg) {
@@ -115,6 +118,34 @@ public class FLACDecoder implements Decoder {
         return -1;
     }
 
+    public int decode(float[] samples) {
+        try {
+            if (offset != -1) {
+                int off = offset;
+                offset = -1;
+                return AudioMath.toFloat(byteData.getData(), off, byteData.getLen() - off, samples, getAudioFormat());
+            }
+            Frame readFrame = decoder.readNextFrame();
+            if (readFrame == null) {
+                return -1;
+            }
+            ChannelData[] channelData = decoder.getChannelData();
+            int channels = readFrame.header.channels;
+            int blockSize = readFrame.header.blockSize;
+            float scale = 1f / (1L << (streamInfo.getBitsPerSample() - 1));
+            int j = 0;
+            for (int i = 0; i < blockSize; i++) {
+                for (int channel = 0; channel < channels; channel++) {
+                    samples[j++] = channelData[channel].getOutput()[i] * scale;
+                }
+            }
+            return j;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
     public void close() {
         try {
             if (inputFile != null)
@@ -39,6 +39,7 @@ public class FLACEncoder implements Encoder {
     private int[] buffer = new int[65536];
     private AudioFormat fmt;
     private int unencodedSamples;
+    private boolean threaded;
 
     @Override
     public boolean open(File outputFile, AudioFormat fmt, Configuration options) {
@@ -53,6 +54,8 @@ public class FLACEncoder implements Encoder {
 
             EncodingConfiguration encodingConfiguration = new EncodingConfiguration();
             encoder.setEncodingConfiguration(encodingConfiguration);
+            // encode frames on javaFlacEncoder's own thread pool
+            threaded = options.getBoolean("encoder.flac.threaded", false);
 
             outputStream = new FLACFileOutputStream(outputFile.getAbsolutePath());
             encoder.setOutputStream(outputStream);
@@ -72,16 +75,23 @@ public class FLACEncoder implements Encoder {
             int samples = length / fmt.getChannels();
             encoder.addSamples(buffer, samples);
             unencodedSamples += samples;
-            unencodedSamples -= encoder.encodeSamples(unencodedSamples, false);
+            unencodedSamples -= encodeSamples(false);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private int encodeSamples(boolean end) throws IOException {
+        if (threaded)
+            return encoder.t_encodeSamples(unencodedSamples, end);
+        else
+            return encoder.encodeSamples(unencodedSamples, end);
+    }
+
     @Override
     public void close() {
         try {
-            encoder.encodeSamples(unencodedSamples, true);
+            encodeSamples(true);
             outputStream.close();
         } catch (IOException e) {
             e.printStackTrace();
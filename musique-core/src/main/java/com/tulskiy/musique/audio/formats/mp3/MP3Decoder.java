@@ -20,6 +20,7 @@ package com.tulskiy.musique.audio.formats.mp3;
 import com.tulskiy.musique.audio.IcyInputStream;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.TrackData;
+import com.tulskiy.musique.system.Application;
 import com.tulskiy.musique.util.AudioMath;
 import javazoom.jl.decoder.*;
 
@@ -30,8 +31,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URLDecoder;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 /**
  * @Author: Denis Tulskiy
@@ -39,12 +38,9 @@ import java.util.Map;
  */
 public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
     private static final int DECODE_AFTER_SEEK = 9;
-    private LinkedHashMap<File, SeekTable> seekTableCache = new LinkedHashMap<File, SeekTable>(10, 0.7f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<File, SeekTable> eldest) {
-            return size() > 10;
-        }
-    };
+    private static final int SEEK_TABLE_MINUTES = 10;
+    // shared by all decoder instances
+    private static SeekTableCache seekTableCache;
 
     private Bitstream bitstream;
     private javazoom.jl.decoder.Decoder decoder;
@@ -60,6 +56,7 @@ public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
     private long currentSample;
     private boolean streaming = false;
     private int oldBitrate;
+    private int expectedFrames;
 
     private Header skipFrame() throws BitstreamException {
         readFrame = bitstream.readFrame();
@@ -75,6 +72,14 @@ public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
         return (int) (samples / track.getTrackData().getSampleRate() / 60f);
     }
 
+    private static synchronized SeekTableCache getSeekTableCache() {
+        if (seekTableCache == null) {
+            File home = Application.getInstance().CONFIG_HOME;
+            seekTableCache = new SeekTableCache(home != null ? new File(home, "seektables") : null);
+        }
+        return seekTableCache;
+    }
+
     @SuppressWarnings({"ResultOfMethodCallIgnored"})
     private boolean createBitstream(long targetSample) {
         if (bitstream != null)
@@ -89,20 +94,20 @@ public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
             int targetFrame = (int) ((double) targetSample / samplesPerFrame);
             sampleOffset = (int) (targetSample - targetFrame * samplesPerFrame) * audioFormat.getFrameSize();
 
-            //then we get the seek table or create it if needed
-            SeekTable seekTable = seekTableCache.get(file);
-            if (seekTable == null &&
-                    samplesToMinutes(totalSamples) > 10) {
-                seekTable = new SeekTable();
-                seekTableCache.put(file, seekTable);
-            }
+            //long files get a table of frame offsets, it is built in
+            //the background, frames it does not have yet are skipped
+            SeekTable seekTable = null;
+            if (samplesToMinutes(totalSamples) > SEEK_TABLE_MINUTES)
+                seekTable = getSeekTableCache().get(file, expectedFrames);
 
+            int seekFrame = Math.max(0, targetFrame - DECODE_AFTER_SEEK);
             int currentFrame = 0;
-            //if we have a point, use it
             if (seekTable != null) {
-                SeekTable.SeekPoint seekPoint = seekTable.get(targetFrame - DECODE_AFTER_SEEK);
-                fis.skip(seekPoint.offset);
-                currentFrame = seekPoint.frame;
+                int frame = Math.min(seekFrame, seekTable.getFrameCount() - 1);
+                if (frame > 0) {
+                    fis.skip(seekTable.getOffset(frame));
+                    currentFrame = frame;
+                }
             }
 
             //then we create the bitstream
@@ -110,16 +115,12 @@ public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
             decoder = new javazoom.jl.decoder.Decoder();
 
             readFrame = null;
-            for (int i = currentFrame; i < targetFrame - DECODE_AFTER_SEEK; i++) {
+            for (int i = currentFrame; i < seekFrame; i++) {
                 skipFrame();
-                //store frame's position
-                if (seekTable != null && i % 10000 == 0) {
-                    seekTable.add(i, streamSize - bitstream.getPosition());
-                }
             }
 
             //decode some frames to warm up the decoder
-            int framesToDecode = targetFrame < DECODE_AFTER_SEEK ? targetFrame : DECODE_AFTER_SEEK;
+            int framesToDecode = targetFrame - seekFrame;
             for (int i = 0; i < framesToDecode; i++) {
                 readFrame = bitstream.readFrame();
                 if (readFrame != null)
@@ -170,6 +171,7 @@ public class MP3Decoder implements com.tulskiy.musique.audio.Decoder {
             audioFormat = new AudioFormat(sampleRate, 16, channels, true, false);
 
             if (!streaming) {
+                expectedFrames = header.max_number_of_frames(streamSize);
                 totalSamples = samplesPerFrame * (header.max_number_of_frames(streamSize) + header.min_number_of_frames(streamSize)) / 2;
                 if (encPadding < totalSamples) {
                     totalSamples -= encPadding;
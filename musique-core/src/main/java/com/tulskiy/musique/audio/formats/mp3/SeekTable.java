@@ -17,37 +17,183 @@
 
 package com.tulskiy.musique.audio.formats.mp3;
 
-import java.util.TreeSet;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Header;
 
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Byte offset of every frame of an mp3 file. Offsets are stored as
+ * distances between consecutive frames, two bytes per frame, with
+ * absolute offsets every {@link #CHECKPOINT} frames.
+ * <p/>
+ * Frame numbers are the same the decoder counts, so the Xing/VBRI frame
+ * is not counted, and an offset is where the stream was before the frame
+ * was read. Opening a {@link Bitstream} at it reads that frame next.
+ */
 class SeekTable {
-    private TreeSet<SeekPoint> points = new TreeSet<SeekPoint>();
+    private static final int MAGIC = 0x4d534b54; // "MSKT"
+    private static final int VERSION = 1;
+    private static final int CHECKPOINT_BITS = 8;
+    static final int CHECKPOINT = 1 << CHECKPOINT_BITS;
+
+    private final String path;
+    private final long size;
+    private final long lastModified;
 
-    SeekTable() {
-        points.add(new SeekPoint(0, 0));
+    private char[] lengths;
+    private long[] checkpoints;
+    private long last;
+    private int count;
+    private volatile boolean complete;
+
+    /**
+     * @param file           mp3 file
+     * @param expectedFrames frame count from the header, used to size the table
+     */
+    SeekTable(File file, int expectedFrames) {
+        this.path = file.getAbsolutePath();
+        this.size = file.length();
+        this.lastModified = file.lastModified();
+        int capacity = Math.max(CHECKPOINT, expectedFrames + 16);
+        lengths = new char[capacity];
+        checkpoints = new long[(capacity >> CHECKPOINT_BITS) + 1];
     }
 
-    public void add(int frame, long offset) {
-        points.add(new SeekPoint(frame, offset));
+    /**
+     * @param file mp3 file
+     * @return true if the table was built for this version of the file
+     */
+    boolean matches(File file) {
+        return path.equals(file.getAbsolutePath()) &&
+                size == file.length() && lastModified == file.lastModified();
     }
 
-    public SeekPoint get(int frame) {
-        if (frame < 0)
-            frame = 0;
-        return points.floor(new SeekPoint(frame, 0));
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return number of frames with known offsets
+     */
+    synchronized int getFrameCount() {
+        return count;
+    }
+
+    /**
+     * @param frame frame number, less than frame count
+     * @return byte offset of the frame in the file
+     */
+    synchronized long getOffset(int frame) {
+        long offset = checkpoints[frame >> CHECKPOINT_BITS];
+        for (int i = (frame & ~(CHECKPOINT - 1)) + 1; i <= frame; i++) {
+            offset += lengths[i];
+        }
+        return offset;
     }
 
-    public class SeekPoint implements Comparable<SeekPoint> {
-        public int frame;
-        public long offset;
+    /**
+     * Appends offset of the next frame
+     *
+     * @return false if the frame is too far from the previous one to be stored
+     */
+    synchronized boolean add(long offset) {
+        long length = offset - last;
+        if (count > 0 && (length < 0 || length > Character.MAX_VALUE))
+            return false;
 
-        SeekPoint(int frame, long offset) {
-            this.frame = frame;
-            this.offset = offset;
+        if (count == lengths.length) {
+            lengths = Arrays.copyOf(lengths, count * 3 / 2);
+            checkpoints = Arrays.copyOf(checkpoints, (lengths.length >> CHECKPOINT_BITS) + 1);
         }
+        if ((count & (CHECKPOINT - 1)) == 0)
+            checkpoints[count >> CHECKPOINT_BITS] = offset;
+        else
+            lengths[count] = (char) length;
+        last = offset;
+        count++;
+        return true;
+    }
+
+    /**
+     * Reads frame headers of the whole file. Frames can be used for seeking
+     * while they are added.
+     *
+     * @throws IOException if the file could not be read
+     */
+    void build() throws IOException {
+        File file = new File(path);
+        FileInputStream fis = new FileInputStream(file);
+        Bitstream bitstream = new Bitstream(fis);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long offset = size - bitstream.getPosition();
+                Header header = bitstream.readFrame();
+                if (header == null || !add(offset))
+                    break;
+                bitstream.closeFrame();
+            }
+        } catch (BitstreamException e) {
+            throw new IOException(e);
+        } finally {
+            bitstream.close();
+        }
+        complete = !Thread.currentThread().isInterrupted();
+    }
+
+    synchronized void save(File file) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(path);
+            dos.writeLong(size);
+            dos.writeLong(lastModified);
+            dos.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                if ((i & (CHECKPOINT - 1)) == 0)
+                    dos.writeLong(checkpoints[i >> CHECKPOINT_BITS]);
+                else
+                    dos.writeChar(lengths[i]);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * @param index saved table
+     * @param file  mp3 file the table is for
+     * @return complete table or null if it was saved for a different
+     *         file or a different version of it
+     * @throws IOException if the table could not be read
+     */
+    static SeekTable load(File index, File file) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+                return null;
+            String path = dis.readUTF();
+            long size = dis.readLong();
+            long lastModified = dis.readLong();
+            if (!path.equals(file.getAbsolutePath()) ||
+                    size != file.length() || lastModified != file.lastModified())
+                return null;
 
-        @Override
-        public int compareTo(SeekPoint seekPoint) {
-            return ((Integer) frame).compareTo(seekPoint.frame);
+            int count = dis.readInt();
+            SeekTable table = new SeekTable(file, count);
+            for (int i = 0; i < count; i++) {
+                if ((i & (CHECKPOINT - 1)) == 0)
+                    table.add(dis.readLong());
+                else
+                    table.add(table.last + dis.readChar());
+            }
+            table.complete = true;
+            return table;
+        } finally {
+            dis.close();
         }
     }
 }
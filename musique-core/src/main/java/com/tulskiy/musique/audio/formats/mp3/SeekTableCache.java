@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.formats.mp3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Seek tables of recently played files. A table is loaded from disk if
+ * it was saved for the same path, size and modification time, otherwise
+ * it is built in the background and saved when it is complete, so the
+ * file is read only once across sessions.
+ */
+class SeekTableCache {
+    private static final Logger logger = LoggerFactory.getLogger(SeekTableCache.class);
+    private static final int MEMORY_SIZE = 10;
+    private static final int DISK_SIZE = 200;
+
+    private final File dir;
+    private final Map<File, SeekTable> tables = new LinkedHashMap<File, SeekTable>(MEMORY_SIZE, 0.7f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, SeekTable> eldest) {
+            return size() > MEMORY_SIZE;
+        }
+    };
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "MP3 Seek Table Builder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * @param dir directory for saved tables, null to keep them in memory only
+     */
+    SeekTableCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param file           mp3 file
+     * @param expectedFrames frame count from the header
+     * @return seek table of the file, it may still be being built
+     */
+    synchronized SeekTable get(File file, int expectedFrames) {
+        SeekTable table = tables.get(file);
+        if (table != null && table.matches(file))
+            return table;
+
+        table = load(file);
+        if (table == null) {
+            table = new SeekTable(file, expectedFrames);
+            final SeekTable newTable = table;
+            final File source = file;
+            builder.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long time = System.currentTimeMillis();
+                    try {
+                        newTable.build();
+                        logger.debug("Built seek table of " + newTable.getFrameCount() + " frames for " +
+                                source.getName() + " in " + (System.currentTimeMillis() - time) + " ms");
+                        save(source, newTable);
+                    } catch (IOException e) {
+                        logger.warn("Could not build seek table for " + source + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        tables.put(file, table);
+        return table;
+    }
+
+    private File getIndexFile(File file) {
+        String path = file.getAbsolutePath();
+        return new File(dir, Integer.toHexString(path.hashCode()) + "_" + Long.toHexString(file.length()) + ".idx");
+    }
+
+    private SeekTable load(File file) {
+        if (dir == null)
+            return null;
+        File index = getIndexFile(file);
+        if (!index.exists())
+            return null;
+        try {
+            SeekTable table = SeekTable.load(index, file);
+            if (table != null) {
+                //noinspection ResultOfMethodCallIgnored
+                index.setLastModified(System.currentTimeMillis());
+            }
+            return table;
+        } catch (IOException e) {
+            logger.warn("Could not read seek table " + index + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(File file, SeekTable table) {
+        if (dir == null || !table.isComplete())
+            return;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        try {
+            table.save(getIndexFile(file));
+        } catch (IOException e) {
+            logger.warn("Could not save seek table for " + file + ": " + e.getMessage());
+        }
+
+        File[] files = dir.listFiles();
+        if (files != null && files.length > DISK_SIZE) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+                }
+            });
+            for (int i = 0; i < files.length - DISK_SIZE; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+    }
+}
@@ -17,72 +17,178 @@
 
 package com.tulskiy.musique.audio.formats.uncompressed;
 
-import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.FloatDecoder;
 import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.util.AudioMath;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
+ * Reads samples of WAV, AIFF and AU files from their byte position with
+ * positional reads, so seeking does not have to read the file.
+ * <p/>
+ * Integer samples are output as signed little-endian PCM of the same size,
+ * floating point samples as 24 bit PCM.
+ *
  * @Author: Denis Tulskiy
  * @Date: 30.06.2009
  */
-public class PCMDecoder implements Decoder {
-    private AudioInputStream audioInputStream;
-    private Track inputFile;
+public class PCMDecoder implements FloatDecoder {
+    private static final int FLOAT_OUTPUT_BITS = 24;
+
+    private FileChannel channel;
+    private PCMFile file;
+    private AudioFormat audioFormat;
+    private AudioFormat sourceFormat;
+    private long position;
+    private ByteBuffer raw = ByteBuffer.allocate(0);
+    private float[] floats = new float[0];
 
     public boolean open(Track track) {
+        close();
         try {
             logger.info("Opening file: " + track.getTrackData().getFile());
-            this.inputFile = track;
-            audioInputStream = AudioSystem.getAudioInputStream(track.getTrackData().getFile());
-            audioInputStream = AudioSystem.getAudioInputStream(new AudioFormat(audioInputStream.getFormat().getSampleRate(), audioInputStream.getFormat().getSampleSizeInBits(), audioInputStream.getFormat().getChannels(), true, false), audioInputStream);
+            channel = FileChannel.open(track.getTrackData().getFile().toPath(), StandardOpenOption.READ);
+            file = new PCMFile(channel);
+            sourceFormat = file.getSourceFormat();
+            int bits = file.isFloatingPoint() ? FLOAT_OUTPUT_BITS : file.getBytesPerSample() * 8;
+            audioFormat = new AudioFormat(file.getSampleRate(), bits, file.getChannels(), true, false);
+            position = 0;
             return true;
-        } catch (UnsupportedAudioFileException e) {
-            e.printStackTrace();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.warn("Could not open " + track.getTrackData().getFile() + ": " + e.getMessage());
+            close();
         }
         return false;
     }
 
     public AudioFormat getAudioFormat() {
-        return audioInputStream.getFormat();
+        return audioFormat;
     }
 
     public void seekSample(long sample) {
-        open(inputFile);
-        try {
-            long toSkip = sample * audioInputStream.getFormat().getFrameSize();
-            long skipped = 0;
-            while (skipped < toSkip) {
-                long b = audioInputStream.skip(toSkip - skipped);
-                if (b == 0) break;
-                skipped += b;
+        position = Math.max(0, Math.min(sample * file.getFrameSize(), file.getDataLength()));
+    }
+
+    public int decode(byte[] buf) {
+        int frames = buf.length / audioFormat.getFrameSize();
+        if (isDirect()) {
+            int len = read(ByteBuffer.wrap(buf, 0, frames * file.getFrameSize()));
+            return len == 0 ? -1 : len;
+        }
+
+        int len = readRaw(frames);
+        if (len == 0)
+            return -1;
+        if (file.isFloatingPoint()) {
+            int count = unpackFloats(len, floats = ensureCapacity(floats, len / file.getBytesPerSample()));
+            return AudioMath.toPCM(floats, count, buf, 0, audioFormat);
+        }
+
+        byte[] data = raw.array();
+        int bps = file.getBytesPerSample();
+        int sign = file.isUnsigned() ? 0x80 : 0;
+        for (int i = 0; i < len; i += bps) {
+            if (file.isBigEndian()) {
+                for (int b = 0; b < bps; b++) {
+                    buf[i + b] = data[i + bps - 1 - b];
+                }
+            } else {
+                System.arraycopy(data, i, buf, i, bps);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            buf[i + bps - 1] ^= sign;
         }
+        return len;
     }
 
-    public int decode(byte[] buf) {
+    /**
+     * Decodes as many frames as {@link #decode(byte[])} would for a byte
+     * buffer of the same length
+     */
+    public int decode(float[] samples) {
+        int len = readRaw(samples.length / audioFormat.getFrameSize());
+        if (len == 0)
+            return -1;
+        if (file.isFloatingPoint())
+            return unpackFloats(len, samples);
+        return AudioMath.toFloat(raw.array(), 0, len, samples, sourceFormat);
+    }
+
+    public void close() {
         try {
-            return audioInputStream.read(buf, 0, buf.length);
+            if (channel != null)
+                channel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return -1;
+        channel = null;
     }
 
-    public void close() {
+    /**
+     * @return true if stored samples are already in the output format
+     */
+    private boolean isDirect() {
+        return !file.isFloatingPoint() && !file.isBigEndian() && !file.isUnsigned();
+    }
+
+    private int readRaw(int frames) {
+        int len = frames * file.getFrameSize();
+        if (raw.capacity() < len)
+            raw = ByteBuffer.allocate(len);
+        raw.clear().limit(len);
+        return read(raw);
+    }
+
+    /**
+     * Reads sample data at the current position until the buffer is full
+     * or the data ends
+     *
+     * @return number of bytes read, 0 at the end of data or if it could not be read
+     */
+    private int read(ByteBuffer buffer) {
+        long remaining = file.getDataLength() - position;
+        if (buffer.remaining() > remaining)
+            buffer.limit(buffer.position() + (int) remaining);
+        int start = buffer.position();
         try {
-            if (audioInputStream != null)
-                audioInputStream.close();
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, file.getDataOffset() + position + buffer.position() - start);
+                if (n < 0)
+                    break;
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.warn("Could not read sample data, stopping: " + e);
+            // skip to the end, so that decode reports the end of the stream
+            position = file.getDataLength();
+            return 0;
+        }
+        int len = buffer.position() - start;
+        position += len;
+        return len;
+    }
+
+    private int unpackFloats(int len, float[] samples) {
+        ByteBuffer data = ByteBuffer.wrap(raw.array(), 0, len);
+        data.order(file.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int count = len / file.getBytesPerSample();
+        if (file.getBytesPerSample() == 8) {
+            for (int i = 0; i < count; i++) {
+                samples[i] = (float) data.getDouble();
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                samples[i] = data.getFloat();
+            }
         }
+        return count;
+    }
+
+    private static float[] ensureCapacity(float[] array, int size) {
+        return array.length >= size ? array : new float[size];
     }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.formats.uncompressed;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Layout of an uncompressed WAV, AIFF/AIFC or AU file: where the sample
+ * data starts, how long it is and how samples are stored, so that any
+ * sample can be read from its byte position directly.
+ * <p/>
+ * Integer samples of 8 to 32 bits and 32 and 64 bit floats are supported.
+ */
+class PCMFile {
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private long dataOffset;
+    private long dataLength;
+    private float sampleRate;
+    private int channels;
+    private int bytesPerSample;
+    private boolean floatingPoint;
+    private boolean bigEndian;
+    private boolean unsigned;
+
+    /**
+     * @param channel file to read the header from
+     * @throws IOException if the file is not a supported uncompressed file
+     */
+    PCMFile(FileChannel channel) throws IOException {
+        ByteBuffer id = read(channel, 0, 12, ByteOrder.BIG_ENDIAN);
+        int magic = id.getInt();
+        if (magic == fourCC("RIFF") && id.getInt(8) == fourCC("WAVE")) {
+            readWave(channel);
+        } else if (magic == fourCC("FORM") &&
+                (id.getInt(8) == fourCC("AIFF") || id.getInt(8) == fourCC("AIFC"))) {
+            readAiff(channel);
+        } else if (magic == fourCC(".snd")) {
+            readAu(channel);
+        } else {
+            throw new IOException("Unknown file format");
+        }
+
+        if (channels <= 0 || bytesPerSample <= 0 || sampleRate <= 0)
+            throw new IOException("Unsupported sample format");
+        if (dataOffset < 0)
+            throw new IOException("No sample data");
+        long available = channel.size() - dataOffset;
+        if (dataLength < 0 || dataLength > available)
+            dataLength = available;
+        dataLength -= dataLength % getFrameSize();
+    }
+
+    private void readWave(FileChannel channel) throws IOException {
+        boolean hasFormat = false;
+        dataOffset = -1;
+        long position = 12;
+        while (position + 8 <= channel.size()) {
+            ByteBuffer header = read(channel, position, 8, ByteOrder.LITTLE_ENDIAN);
+            int chunk = Integer.reverseBytes(header.getInt());
+            long size = header.getInt() & 0xFFFFFFFFL;
+            if (chunk == fourCC("fmt ")) {
+                ByteBuffer fmt = read(channel, position + 8, (int) Math.min(size, 40), ByteOrder.LITTLE_ENDIAN);
+                int tag = fmt.getShort(0) & 0xFFFF;
+                channels = fmt.getShort(2);
+                sampleRate = fmt.getInt(4);
+                int blockAlign = fmt.getShort(12) & 0xFFFF;
+                if (tag == WAVE_FORMAT_EXTENSIBLE && size >= 26)
+                    tag = fmt.getShort(24) & 0xFFFF;
+                if (tag != WAVE_FORMAT_PCM && tag != WAVE_FORMAT_IEEE_FLOAT)
+                    throw new IOException("Compressed WAV files are not supported");
+                floatingPoint = tag == WAVE_FORMAT_IEEE_FLOAT;
+                // 24 bit samples in 32 bit containers are left-justified and read as 32 bit
+                bytesPerSample = channels > 0 ? blockAlign / channels : 0;
+                unsigned = bytesPerSample == 1;
+                hasFormat = true;
+            } else if (chunk == fourCC("data")) {
+                dataOffset = position + 8;
+                // streamed files leave the size empty or at maximum
+                dataLength = size == 0 || size == 0xFFFFFFFFL ? -1 : size;
+                if (hasFormat)
+                    break;
+            }
+            position += 8 + size + (size & 1);
+        }
+        if (!hasFormat)
+            throw new IOException("No format chunk");
+    }
+
+    private void readAiff(FileChannel channel) throws IOException {
+        boolean hasFormat = false;
+        dataOffset = -1;
+        bigEndian = true;
+        long position = 12;
+        while (position + 8 <= channel.size()) {
+            ByteBuffer header = read(channel, position, 8, ByteOrder.BIG_ENDIAN);
+            int chunk = header.getInt();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            if (chunk == fourCC("COMM")) {
+                ByteBuffer comm = read(channel, position + 8, (int) Math.min(size, 22), ByteOrder.BIG_ENDIAN);
+                channels = comm.getShort(0);
+                int bits = comm.getShort(6);
+                bytesPerSample = (bits + 7) / 8;
+                sampleRate = (float) readExtended(comm, 8);
+                if (size >= 22) {
+                    int compression = comm.getInt(18);
+                    if (compression == fourCC("sowt")) {
+                        bigEndian = false;
+                    } else if (compression == fourCC("fl32") || compression == fourCC("FL32")) {
+                        floatingPoint = true;
+                        bytesPerSample = 4;
+                    } else if (compression == fourCC("fl64") || compression == fourCC("FL64")) {
+                        floatingPoint = true;
+                        bytesPerSample = 8;
+                    } else if (compression != fourCC("NONE") && compression != fourCC("twos")) {
+                        throw new IOException("Compressed AIFF files are not supported");
+                    }
+                }
+                hasFormat = true;
+            } else if (chunk == fourCC("SSND")) {
+                ByteBuffer ssnd = read(channel, position + 8, 8, ByteOrder.BIG_ENDIAN);
+                long offset = ssnd.getInt(0) & 0xFFFFFFFFL;
+                dataOffset = position + 16 + offset;
+                dataLength = size - 8 - offset;
+            }
+            position += 8 + size + (size & 1);
+        }
+        if (!hasFormat)
+            throw new IOException("No COMM chunk");
+    }
+
+    private void readAu(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 24, ByteOrder.BIG_ENDIAN);
+        dataOffset = header.getInt(4) & 0xFFFFFFFFL;
+        long size = header.getInt(8) & 0xFFFFFFFFL;
+        dataLength = size == 0xFFFFFFFFL ? -1 : size;
+        int encoding = header.getInt(12);
+        sampleRate = header.getInt(16);
+        channels = header.getInt(20);
+        bigEndian = true;
+        switch (encoding) {
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+                bytesPerSample = encoding - 1;
+                break;
+            case 6:
+                floatingPoint = true;
+                bytesPerSample = 4;
+                break;
+            case 7:
+                floatingPoint = true;
+                bytesPerSample = 8;
+                break;
+            default:
+                throw new IOException("Unsupported AU encoding: " + encoding);
+        }
+    }
+
+    /**
+     * IEEE 754 80-bit extended value used for the AIFF sample rate
+     */
+    private static double readExtended(ByteBuffer buffer, int offset) {
+        int exponent = buffer.getShort(offset) & 0x7FFF;
+        long mantissa = buffer.getLong(offset + 2);
+        double value = (mantissa >>> 1) * 2.0 + (mantissa & 1);
+        return Math.scalb(value, exponent - 16383 - 63);
+    }
+
+    private static int fourCC(String id) {
+        return (id.charAt(0) << 24) | (id.charAt(1) << 16) | (id.charAt(2) << 8) | id.charAt(3);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return file offset of the first sample
+     */
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return length of sample data in bytes, a multiple of frame size
+     */
+    long getDataLength() {
+        return dataLength;
+    }
+
+    long getTotalSamples() {
+        return dataLength / getFrameSize();
+    }
+
+    float getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    int getFrameSize() {
+        return bytesPerSample * channels;
+    }
+
+    boolean isFloatingPoint() {
+        return floatingPoint;
+    }
+
+    boolean isBigEndian() {
+        return bigEndian;
+    }
+
+    boolean isUnsigned() {
+        return unsigned;
+    }
+
+    /**
+     * @return format of the stored samples, only meaningful for integer samples
+     */
+    AudioFormat getSourceFormat() {
+        return new AudioFormat(unsigned ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                sampleRate, bytesPerSample * 8, channels, getFrameSize(), sampleRate, bigEndian);
+    }
+}
@@ -24,10 +24,9 @@ import com.tulskiy.musique.playlist.TrackData;
 import com.tulskiy.musique.util.Util;
 import org.jaudiotagger.tag.FieldKey;
 
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
 import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * @Author: Denis Tulskiy
@@ -43,15 +42,18 @@ public class PCMFileReader extends AudioFileReader {
         String title = Util.removeExt(file.getName());
         trackData.setTagFieldValues(FieldKey.TITLE, title);
         try {
-            AudioFileFormat format = AudioSystem.getAudioFileFormat(file);
-            trackData.setStartPosition(0);
-            AudioFormat audioFormat = format.getFormat();
-            trackData.setSampleRate((int) audioFormat.getSampleRate());
-            trackData.setTotalSamples(format.getFrameLength());
-            trackData.setChannels(audioFormat.getChannels());
-            trackData.setCodec(Util.getFileExt(file).toUpperCase());
-            if (format.getFrameLength() > 0)
-            	trackData.setBitrate((int) (format.getByteLength() / format.getFrameLength() * audioFormat.getSampleRate() / 100));
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                PCMFile pcm = new PCMFile(channel);
+                trackData.setStartPosition(0);
+                trackData.setSampleRate((int) pcm.getSampleRate());
+                trackData.setTotalSamples(pcm.getTotalSamples());
+                trackData.setChannels(pcm.getChannels());
+                trackData.setCodec(Util.getFileExt(file).toUpperCase());
+                trackData.setBitrate((int) (pcm.getFrameSize() * 8 * pcm.getSampleRate() / 1000));
+            } finally {
+                channel.close();
+            }
         } catch (Exception e) {
             System.out.println("Couldn't read file: " + trackData.getFile());
         }
@@ -60,7 +62,8 @@ public class PCMFileReader extends AudioFileReader {
 
     public boolean isFileSupported(String ext) {
         return ext.equalsIgnoreCase("wav") || ext.equalsIgnoreCase("au")
-               || ext.equalsIgnoreCase("aiff");
+               || ext.equalsIgnoreCase("aiff") || ext.equalsIgnoreCase("aif")
+               || ext.equalsIgnoreCase("aifc");
     }
 
 }
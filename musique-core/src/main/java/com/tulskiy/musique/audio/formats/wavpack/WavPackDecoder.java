@@ -17,7 +17,7 @@
 
 package com.tulskiy.musique.audio.formats.wavpack;
 
-import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.FloatDecoder;
 import com.tulskiy.musique.playlist.Track;
 import com.wavpack.decoder.Defines;
 import com.wavpack.decoder.WavPackUtils;
@@ -32,7 +32,7 @@ import java.io.RandomAccessFile;
  * @Author: Denis Tulskiy
  * @Date: 01.07.2009
  */
-public class WavPackDecoder implements Decoder {
+public class WavPackDecoder implements FloatDecoder {
     private static final int BUFFER_SIZE = Defines.SAMPLE_BUFFER_SIZE;
 
     private AudioFormat audioFormat;
@@ -81,6 +81,18 @@ public class WavPackDecoder implements Decoder {
         return samplesUnpacked * bps / 8;
     }
 
+    public int decode(float[] samples) {
+        int samplesUnpacked = (int) WavPackUtils.WavpackUnpackSamples(wpc, buffer, BUFFER_SIZE / channels);
+        if (samplesUnpacked <= 0) return -1;
+        samplesUnpacked *= channels;
+        float scale = 1f / (1L << (bps - 1));
+        for (int i = 0; i < samplesUnpacked; i++) {
+            samples[i] = buffer[i] * scale;
+        }
+
+        return samplesUnpacked;
+    }
+
     public void close() {
         try {
             if (ras != null)
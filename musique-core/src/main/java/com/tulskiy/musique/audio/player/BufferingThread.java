@@ -18,7 +18,10 @@
 package com.tulskiy.musique.audio.player;
 
 import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.FloatDecoder;
+import com.tulskiy.musique.audio.player.dsp.DSPBank;
 import com.tulskiy.musique.audio.player.io.Buffer;
+import com.tulskiy.musique.audio.player.io.BufferPolicy;
 import com.tulskiy.musique.playlist.PlaybackOrder;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.TrackData;
@@ -27,12 +30,15 @@ import com.tulskiy.musique.util.AudioMath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
+
 /**
  * Author: Denis Tulskiy
  * Date: 1/15/11
  */
 public class BufferingThread extends Actor implements Runnable {
     private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    private static final int DEFAULT_PRE_ROLL = 5000;
     private PlaybackOrder order;
 
     private final Object lock = new Object();
@@ -45,11 +51,19 @@ public class BufferingThread extends Actor implements Runnable {
 
     private Buffer buffer;
     private PlayingThread playingThread;
+    private DSPBank dspBank;
     private boolean stopAfterCurrent = false;
+    private PreRoll preRoll = new PreRoll();
+    private int preRollMillis = DEFAULT_PRE_ROLL;
+    private Crossfade crossfade = new Crossfade();
+    private PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    private BufferPolicy bufferPolicy = new BufferPolicy();
+    private long underruns;
 
-    public BufferingThread(Buffer buffer, PlayingThread playingThread) {
+    public BufferingThread(Buffer buffer, PlayingThread playingThread, DSPBank dspBank) {
         this.buffer = buffer;
         this.playingThread = playingThread;
+        this.dspBank = dspBank;
     }
 
     @Override
@@ -79,6 +93,7 @@ public class BufferingThread extends Actor implements Runnable {
     @Override
     public void run() {
         byte[] buf = new byte[65536];
+        float[] samples = new float[buf.length];
         int len;
         while (true) {
             synchronized (lock) {
@@ -103,12 +118,16 @@ public class BufferingThread extends Actor implements Runnable {
                             continue;
                         }
 
-                        len = decoder.decode(buf);
+                        if (dspBank.isEmpty() && !crossfade.isActive()) {
+                            long time = metrics.start();
+                            len = decoder.decode(buf);
+                            metrics.decoded(decoder, time, len);
+                        } else
+                            len = decodeWithDSP(buf, samples);
 
                         if (len == -1) {
-                            nextTrack = null;
-                            if (order != null)
-                                nextTrack = order.next(currentTrack);
+                            crossfade.stop();
+                            nextTrack = resolveNext();
                             if (nextTrack == null) {
                                 stop(false);
                             }
@@ -117,9 +136,7 @@ public class BufferingThread extends Actor implements Runnable {
 
                         if (currentTrack.getTrackData().isCue()) {
                             if (cueTotalBytes <= currentByte + len) {
-                                Track s = null;
-                                if (order != null)
-                                    s = order.next(currentTrack);
+                                Track s = resolveNext();
 
                                 len = (int) (cueTotalBytes - currentByte);
                                 if (s != null) {
@@ -133,6 +150,12 @@ public class BufferingThread extends Actor implements Runnable {
                         currentByte += len;
 
                         buffer.write(buf, 0, len);
+                        checkUnderruns();
+
+                        if (nextTrack == null) {
+                            preRoll();
+                            crossfade();
+                        }
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -141,13 +164,147 @@ public class BufferingThread extends Actor implements Runnable {
         }
     }
 
+    /**
+     * Grows the buffer if the playing thread ran out of data
+     */
+    private void checkUnderruns() {
+        long count = buffer.getUnderruns();
+        if (count == underruns)
+            return;
+        underruns = count;
+        if (bufferPolicy.grow()) {
+            int size = bufferPolicy.getSize(decoder.getAudioFormat(), currentTrack.getTrackData().isStream());
+            logger.info("Buffer underrun, growing buffer to " + size + " bytes");
+            buffer.resize(size);
+        }
+    }
+
+    /**
+     * Moves the playback order to the next track. Called only when the
+     * switch really happens, the pre-rolled decoder is used if it was
+     * prepared for the same track.
+     *
+     * @return track that plays after the current one, null if there is none
+     */
+    private Track resolveNext() {
+        return order != null ? order.next(currentTrack) : null;
+    }
+
+    /**
+     * Starts opening the decoder of the next track when the current one
+     * is about to end. The next track is only peeked at, and looked at
+     * again on every chunk, so changes to the queue or the order before
+     * the switch are picked up.
+     */
+    private void preRoll() {
+        int ahead = preRollMillis + crossfade.getLength();
+        if (ahead <= 0 || order == null || stopAfterCurrent)
+            return;
+
+        long remaining = getRemainingBytes();
+        if (remaining >= 0 && AudioMath.bytesToMillis(remaining, decoder.getAudioFormat()) < ahead) {
+            Track next = order.peekNext(currentTrack);
+            if (!preRoll.isResolved() || preRoll.getTrack() != next)
+                preRoll.prepare(next);
+        }
+    }
+
+    /**
+     * Starts mixing the next track in when the current one gets into
+     * the overlap. The next track is opened the same way as in gapless
+     * playback, only the decoder of the current track goes on to fade out.
+     * If the next track is not opened yet, or can not be mixed, it plays
+     * after the current one without crossfade.
+     */
+    private void crossfade() {
+        if (crossfade.getLength() <= 0 || crossfade.isActive() || stopAfterCurrent ||
+                !preRoll.isResolved() || preRoll.getTrack() == null)
+            return;
+
+        AudioFormat format = decoder.getAudioFormat();
+        long remaining = getRemainingBytes();
+        if (remaining <= 0 || AudioMath.bytesToMillis(remaining, format) > crossfade.getLength())
+            return;
+
+        Track next = preRoll.getTrack();
+        Decoder prepared = preRoll.peek();
+        if (prepared == null || !crossfade.canMix(format, prepared.getAudioFormat()))
+            return;
+        TrackData trackData = currentTrack.getTrackData();
+        if (trackData.isCue() && next.getTrackData().isCue() &&
+                trackData.getLocation().equals(next.getTrackData().getLocation()))
+            // parts of one continuous recording
+            return;
+
+        // next was peeked in this iteration, so the order normally agrees
+        // with it, if not, the pre-rolled decoder is discarded when opening
+        next = resolveNext();
+        if (next == null)
+            return;
+        logger.info("Crossfading into track " + next.getTrackData().getLocation());
+        crossfade.start(decoder, AudioMath.bytesToSamples(remaining, format.getFrameSize()));
+        decoder = null;
+        open(next, false);
+    }
+
+    /**
+     * @return bytes left until the end of the current track, -1 if the length is not known
+     */
+    private long getRemainingBytes() {
+        long totalBytes = cueTotalBytes;
+        if (totalBytes <= 0) {
+            long totalSamples = currentTrack.getTrackData().getTotalSamples();
+            if (totalSamples <= 0)
+                return -1;
+            totalBytes = AudioMath.samplesToBytes(totalSamples, decoder.getAudioFormat().getFrameSize());
+        }
+        return totalBytes - currentByte;
+    }
+
+    /**
+     * Decode next chunk as samples, mix in the previous track if it is
+     * fading out, run it through DSP and pack it back to the decoder's PCM format.
+     * Decoders that implement {@link FloatDecoder} skip the unpacking step
+     */
+    private int decodeWithDSP(byte[] buf, float[] samples) {
+        AudioFormat format = decoder.getAudioFormat();
+        int count;
+        long time = metrics.start();
+        if (decoder instanceof FloatDecoder) {
+            count = ((FloatDecoder) decoder).decode(samples);
+            metrics.decoded(decoder, time, count * format.getSampleSizeInBits() / 8);
+        } else {
+            int len = decoder.decode(buf);
+            metrics.decoded(decoder, time, len);
+            if (len == -1)
+                return -1;
+            count = AudioMath.toFloat(buf, 0, len, samples, format);
+        }
+        if (count == -1)
+            return -1;
+
+        crossfade.mix(samples, count);
+        dspBank.process(samples, count);
+        return AudioMath.toPCM(samples, count, buf, 0, format);
+    }
+
     public void stop(boolean flush) {
         logger.info("Stop buffering");
         nextTrack = null;
+        preRoll.cancel();
         pause(flush);
+        crossfade.stop();
+        bufferPolicy.reset();
+        underruns = buffer.getUnderruns();
+        buffer.resize(BufferPolicy.IDLE_SIZE);
         buffer.addNextTrack(null, null, -1, false);
+        closeDecoder();
+    }
+
+    private void closeDecoder() {
         if (decoder != null) {
             decoder.close();
+            Codecs.releaseDecoder(decoder);
         }
         decoder = null;
     }
@@ -170,36 +327,46 @@ public class BufferingThread extends Actor implements Runnable {
     }
 
     public synchronized void open(Track track, boolean forced) {
-        if (decoder != null) {
-            decoder.close();
-        }
+        long time = metrics.start();
+        closeDecoder();
+        if (forced)
+            crossfade.stop();
+        Decoder prepared = preRoll.take(track);
 
         if (track != null) {
             TrackData trackData = track.getTrackData();
-            logger.info("Opening track " + trackData.getLocation());
+            if (prepared != null) {
+                logger.info("Switching to pre-rolled track " + trackData.getLocation());
+                decoder = prepared;
+                currentTrack = track;
+                currentByte = 0;
+            } else {
+                logger.info("Opening track " + trackData.getLocation());
 
-            if (trackData.isFile() && !trackData.getFile().exists()) {
-                //try to get the next one
-                track = order.next(track);
-                if (track == null || (
-                		trackData.isFile() && !trackData.getFile().exists())) {
+                if (trackData.isFile() && !trackData.getFile().exists()) {
+                    //try to get the next one
+                    track = order.next(track);
+                    if (track == null || (
+                            trackData.isFile() && !trackData.getFile().exists())) {
+                        stop(false);
+                        return;
+                    }
+                }
+                decoder = Codecs.getDecoder(track);
+                currentTrack = track;
+                currentByte = 0;
+
+                if (decoder == null || !decoder.open(track)) {
+                    currentTrack = null;
                     stop(false);
                     return;
                 }
             }
-            decoder = Codecs.getDecoder(track);
-            currentTrack = track;
-            currentByte = 0;
-
-            if (decoder == null || !decoder.open(track)) {
-                currentTrack = null;
-                stop(false);
-                return;
-            }
 
+            buffer.resize(bufferPolicy.getSize(decoder.getAudioFormat(), currentTrack.getTrackData().isStream()));
             buffer.addNextTrack(currentTrack, decoder.getAudioFormat(), -1, forced);
 
-            if (trackData.getStartPosition() > 0)
+            if (prepared == null && trackData.getStartPosition() > 0)
                 decoder.seekSample(trackData.getStartPosition());
             if (trackData.getSubsongIndex() > 0) {
                 cueTotalBytes = AudioMath.samplesToBytes(trackData.getTotalSamples(), decoder.getAudioFormat().getFrameSize());
@@ -208,6 +375,7 @@ public class BufferingThread extends Actor implements Runnable {
             }
 
             start();
+            metrics.opened(time);
             logger.info("Finished opening track");
             if (forced)
                 playingThread.send(Message.FLUSH);
@@ -218,9 +386,12 @@ public class BufferingThread extends Actor implements Runnable {
     public void seek(long sample) {
         boolean oldState = active;
         pause(true);
+        crossfade.stop();
 
         if (decoder != null) {
+            long time = metrics.start();
             decoder.seekSample(currentTrack.getTrackData().getStartPosition() + sample);
+            metrics.seeked(time);
             currentByte = AudioMath.samplesToBytes(sample, decoder.getAudioFormat().getFrameSize());
             buffer.addNextTrack(currentTrack, decoder.getAudioFormat(), sample, true);
             if (oldState) {
@@ -241,6 +412,22 @@ public class BufferingThread extends Actor implements Runnable {
         return active;
     }
 
+    /**
+     * @param millis how long before the end of the current track the
+     *               next one is opened, 0 to open it when the current one ends
+     */
+    public void setPreRoll(int millis) {
+        this.preRollMillis = millis;
+    }
+
+    public BufferPolicy getBufferPolicy() {
+        return bufferPolicy;
+    }
+
+    public Crossfade getCrossfade() {
+        return crossfade;
+    }
+
     public void setStopAfterCurrent(boolean stopAfterCurrent) {
         this.stopAfterCurrent = stopAfterCurrent;
     }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.FloatDecoder;
+import com.tulskiy.musique.system.Codecs;
+import com.tulskiy.musique.util.AudioMath;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Fades out the previous track over the start of the next one.
+ * <p/>
+ * The previous track keeps its own decoder while the overlap lasts,
+ * its samples are decoded into a separate buffer and mixed into the
+ * samples of the next track with gain curves. When the overlap is over,
+ * the decoder is closed, so there is never more than one extra decoder
+ * and it only runs during the overlap. Buffers are allocated once.
+ */
+public class Crossfade {
+    public enum Curve {
+        LINEAR, EQUAL_POWER, S_CURVE
+    }
+
+    private static final int CHUNK = 65536;
+
+    private volatile int length;
+    private volatile Curve curve = Curve.EQUAL_POWER;
+
+    private Decoder decoder;
+    private AudioFormat format;
+    private Curve activeCurve;
+    private long frames;
+    private long position;
+    private boolean ended;
+
+    private final PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    private final byte[] buf = new byte[CHUNK];
+    private final float[] chunk = new float[CHUNK];
+    // decoded samples of the previous track that were not mixed yet
+    private final float[] pending = new float[CHUNK * 2];
+    private int pendingStart;
+    private int pendingEnd;
+
+    /**
+     * @return overlap length in milliseconds, 0 if crossfade is off
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @param millis overlap length in milliseconds, 0 to switch tracks without crossfade
+     */
+    public void setLength(int millis) {
+        this.length = Math.max(0, millis);
+    }
+
+    public Curve getCurve() {
+        return curve;
+    }
+
+    public void setCurve(Curve curve) {
+        this.curve = curve;
+    }
+
+    boolean isActive() {
+        return decoder != null;
+    }
+
+    /**
+     * Checks if the next track can be mixed with the previous one
+     */
+    boolean canMix(AudioFormat from, AudioFormat to) {
+        return from.getSampleRate() == to.getSampleRate() &&
+                from.getChannels() == to.getChannels();
+    }
+
+    /**
+     * Starts fading out. The decoder is owned by the crossfade from now on.
+     *
+     * @param outgoing decoder of the previous track
+     * @param frames   how many frames of it are left
+     */
+    void start(Decoder outgoing, long frames) {
+        stop();
+        decoder = outgoing;
+        format = outgoing.getAudioFormat();
+        activeCurve = curve;
+        this.frames = frames;
+        position = 0;
+        ended = false;
+        pendingStart = pendingEnd = 0;
+    }
+
+    /**
+     * Mixes the previous track into samples of the next one.
+     *
+     * @param samples interleaved samples of the next track
+     * @param count   number of samples
+     */
+    void mix(float[] samples, int count) {
+        if (decoder == null)
+            return;
+
+        int channels = format.getChannels();
+        int needed = (int) Math.min(count, (frames - position) * channels);
+        fill(needed);
+        double step = 1.0 / frames;
+        for (int i = 0; i < count; i += channels) {
+            float in = 1;
+            float out = 0;
+            if (position < frames) {
+                double p = position * step;
+                in = fadeIn(p);
+                out = fadeIn(1 - p);
+            }
+            for (int c = 0; c < channels; c++) {
+                float previous = 0;
+                if (position < frames && pendingStart < pendingEnd)
+                    previous = pending[pendingStart++];
+                samples[i + c] = samples[i + c] * in + previous * out;
+            }
+            position++;
+        }
+
+        if (position >= frames)
+            stop();
+    }
+
+    /**
+     * Gain of the incoming track, the outgoing one is mirrored
+     */
+    private float fadeIn(double p) {
+        switch (activeCurve) {
+            case LINEAR:
+                return (float) p;
+            case S_CURVE:
+                return (float) ((1 - Math.cos(Math.PI * p)) / 2);
+            default:
+                return (float) Math.sin(Math.PI / 2 * p);
+        }
+    }
+
+    /**
+     * Decodes the previous track until there are enough samples to mix
+     */
+    private void fill(int needed) {
+        if (pendingEnd - pendingStart >= needed || ended)
+            return;
+
+        int left = pendingEnd - pendingStart;
+        System.arraycopy(pending, pendingStart, pending, 0, left);
+        pendingStart = 0;
+        pendingEnd = left;
+        while (pendingEnd < needed) {
+            int count;
+            long time = metrics.start();
+            if (decoder instanceof FloatDecoder) {
+                count = ((FloatDecoder) decoder).decode(chunk);
+                metrics.decoded(decoder, time, count * format.getSampleSizeInBits() / 8);
+            } else {
+                int len = decoder.decode(buf);
+                metrics.decoded(decoder, time, len);
+                count = len == -1 ? -1 : AudioMath.toFloat(buf, 0, len, chunk, format);
+            }
+            if (count == -1) {
+                ended = true;
+                break;
+            }
+            System.arraycopy(chunk, 0, pending, pendingEnd, count);
+            pendingEnd += count;
+        }
+    }
+
+    /**
+     * Cuts the fade short and closes the decoder of the previous track
+     */
+    void stop() {
+        if (decoder != null) {
+            decoder.close();
+            Codecs.releaseDecoder(decoder);
+        }
+        decoder = null;
+        format = null;
+    }
+}
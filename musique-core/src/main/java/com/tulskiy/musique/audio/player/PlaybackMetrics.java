@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.Decoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the playback pipeline: buffer fill level, line underruns,
+ * time blocked on the buffer, decode cost per codec and latency of track
+ * open, seek and event dispatch.
+ * <p/>
+ * Recording is off by default. Callers take the time with {@link #start()},
+ * which returns 0 when metrics are off, and pass it to one of the recording
+ * methods, which ignore 0. So a disabled pipeline pays one volatile read
+ * per call site. Counters can be polled with getters here or through JMX
+ * after {@link #register()}.
+ */
+public class PlaybackMetrics implements PlaybackMetricsMBean {
+    public static final String OBJECT_NAME = "com.tulskiy.musique:type=PlaybackMetrics";
+    public static final int FILL_BUCKETS = 10;
+
+    private static final PlaybackMetrics instance = new PlaybackMetrics();
+    private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+
+    private volatile boolean enabled;
+
+    private final AtomicLongArray fill = new AtomicLongArray(FILL_BUCKETS);
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong putBlocked = new AtomicLong();
+    private final AtomicLong getBlocked = new AtomicLong();
+    private final Stat open = new Stat();
+    private final Stat seek = new Stat();
+    private final Stat event = new Stat();
+    private final ConcurrentMap<String, Stat> decode = new ConcurrentHashMap<String, Stat>();
+
+    /**
+     * Call count, total and maximum time and bytes processed of one operation
+     */
+    public static class Stat {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long bytes;
+
+        synchronized void add(long nanos, long bytes) {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos)
+                maxNanos = nanos;
+            this.bytes += bytes;
+        }
+
+        synchronized void reset() {
+            count = totalNanos = maxNanos = bytes = 0;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public synchronized double getAverageMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * @return bytes processed per second of time spent in the operation
+         */
+        public synchronized double getBytesPerSecond() {
+            return totalNanos == 0 ? 0 : bytes * 1e9 / totalNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d calls, avg %.3f ms, max %.3f ms, %.1f MB/s",
+                    count, getAverageMillis(), getMaxMillis(), getBytesPerSecond() / 1048576);
+        }
+    }
+
+    public static PlaybackMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, does nothing
+     * if they are registered already
+     */
+    public void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name))
+                server.registerMBean(this, name);
+        } catch (Exception e) {
+            logger.warn("Could not register playback metrics", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void reset() {
+        for (int i = 0; i < FILL_BUCKETS; i++) {
+            fill.set(i, 0);
+        }
+        underruns.set(0);
+        putBlocked.set(0);
+        getBlocked.set(0);
+        open.reset();
+        seek.reset();
+        event.reset();
+        decode.clear();
+    }
+
+    /**
+     * @return current time in nanoseconds or 0 if metrics are off
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    private static long since(long start) {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @param decoder decoder that was called
+     * @param start   time from {@link #start()} taken before decode call
+     * @param bytes   number of PCM bytes decoded
+     */
+    public void decoded(Decoder decoder, long start, int bytes) {
+        if (start == 0)
+            return;
+        long nanos = since(start);
+        String codec = decoder.getClass().getSimpleName();
+        Stat stat = decode.get(codec);
+        if (stat == null) {
+            Stat created = new Stat();
+            stat = decode.putIfAbsent(codec, created);
+            if (stat == null)
+                stat = created;
+        }
+        stat.add(nanos, Math.max(0, bytes));
+    }
+
+    public void opened(long start) {
+        if (start != 0)
+            open.add(since(start), 0);
+    }
+
+    public void seeked(long start) {
+        if (start != 0)
+            seek.add(since(start), 0);
+    }
+
+    public void dispatched(long start) {
+        if (start != 0)
+            event.add(since(start), 0);
+    }
+
+    public void putBlocked(long start) {
+        if (start != 0)
+            putBlocked.addAndGet(since(start));
+    }
+
+    public void getBlocked(long start) {
+        if (start != 0)
+            getBlocked.addAndGet(since(start));
+    }
+
+    /**
+     * @param available bytes in the buffer
+     * @param size      size of the buffer
+     */
+    public void bufferFill(int available, int size) {
+        if (!enabled || size <= 0)
+            return;
+        int bucket = (int) ((long) available * FILL_BUCKETS / size);
+        fill.incrementAndGet(Math.max(0, Math.min(FILL_BUCKETS - 1, bucket)));
+    }
+
+    public void underrun() {
+        if (enabled)
+            underruns.incrementAndGet();
+    }
+
+    public long[] getBufferFillHistogram() {
+        long[] result = new long[FILL_BUCKETS];
+        for (int i = 0; i < FILL_BUCKETS; i++) {
+            result[i] = fill.get(i);
+        }
+        return result;
+    }
+
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public double getPutBlockedMillis() {
+        return putBlocked.get() / 1e6;
+    }
+
+    public double getGetBlockedMillis() {
+        return getBlocked.get() / 1e6;
+    }
+
+    public Stat getOpenStat() {
+        return open;
+    }
+
+    public Stat getSeekStat() {
+        return seek;
+    }
+
+    public Stat getEventStat() {
+        return event;
+    }
+
+    /**
+     * @return decode stats by codec name, sorted by name
+     */
+    public Map<String, Stat> getDecodeStatMap() {
+        return new TreeMap<String, Stat>(decode);
+    }
+
+    public long getOpenCount() {
+        return open.getCount();
+    }
+
+    public double getOpenAverageMillis() {
+        return open.getAverageMillis();
+    }
+
+    public double getOpenMaxMillis() {
+        return open.getMaxMillis();
+    }
+
+    public long getSeekCount() {
+        return seek.getCount();
+    }
+
+    public double getSeekAverageMillis() {
+        return seek.getAverageMillis();
+    }
+
+    public double getSeekMaxMillis() {
+        return seek.getMaxMillis();
+    }
+
+    public long getEventCount() {
+        return event.getCount();
+    }
+
+    public double getEventAverageMillis() {
+        return event.getAverageMillis();
+    }
+
+    public double getEventMaxMillis() {
+        return event.getMaxMillis();
+    }
+
+    public String[] getDecodeStats() {
+        Map<String, Stat> stats = getDecodeStatMap();
+        String[] result = new String[stats.size()];
+        int i = 0;
+        for (Map.Entry<String, Stat> entry : stats.entrySet()) {
+            result[i++] = entry.getKey() + ": " + entry.getValue();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+/**
+ * JMX view of {@link PlaybackMetrics}. Times are in milliseconds.
+ */
+public interface PlaybackMetricsMBean {
+    public boolean isEnabled();
+
+    public void setEnabled(boolean enabled);
+
+    public void reset();
+
+    /**
+     * @return how many times buffer fill level was found in each tenth of the buffer size
+     */
+    public long[] getBufferFillHistogram();
+
+    public long getUnderruns();
+
+    public double getPutBlockedMillis();
+
+    public double getGetBlockedMillis();
+
+    public long getOpenCount();
+
+    public double getOpenAverageMillis();
+
+    public double getOpenMaxMillis();
+
+    public long getSeekCount();
+
+    public double getSeekAverageMillis();
+
+    public double getSeekMaxMillis();
+
+    public long getEventCount();
+
+    public double getEventAverageMillis();
+
+    public double getEventMaxMillis();
+
+    /**
+     * @return one line per codec with decode call latency and throughput
+     */
+    public String[] getDecodeStats();
+}
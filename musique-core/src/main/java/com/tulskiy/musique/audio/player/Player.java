@@ -17,8 +17,10 @@
 
 package com.tulskiy.musique.audio.player;
 
+import com.tulskiy.musique.audio.player.dsp.DSPBank;
 import com.tulskiy.musique.audio.player.io.AudioOutput;
 import com.tulskiy.musique.audio.player.io.Buffer;
+import com.tulskiy.musique.audio.player.io.BufferPolicy;
 import com.tulskiy.musique.playlist.PlaybackOrder;
 import com.tulskiy.musique.playlist.Track;
 import org.slf4j.Logger;
@@ -34,19 +36,19 @@ import static com.tulskiy.musique.audio.player.Actor.Message;
  */
 public class Player {
     public final Logger logger = LoggerFactory.getLogger(getClass().getName());
-    private static final int BUFFER_SIZE = (int) Math.pow(2, 18);
 
     private PlayingThread playingThread;
     private BufferingThread bufferingThread;
+    private DSPBank dspBank = new DSPBank();
     private ArrayList<PlayerListener> listeners = new ArrayList<PlayerListener>();
 
     public Player() {
-        Buffer buffer = new Buffer(BUFFER_SIZE);
+        Buffer buffer = new Buffer(BufferPolicy.IDLE_SIZE);
         playingThread = new PlayingThread(this, buffer);
         Thread t1 = new Thread(playingThread, "Playing Thread");
         t1.setPriority(Thread.MAX_PRIORITY);
         t1.start();
-        bufferingThread = new BufferingThread(buffer, playingThread);
+        bufferingThread = new BufferingThread(buffer, playingThread, dspBank);
         new Thread(bufferingThread, "Buffer Thread").start();
     }
 
@@ -102,6 +104,10 @@ public class Player {
         return playingThread.getOutput();
     }
 
+    public DSPBank getDSPBank() {
+        return dspBank;
+    }
+
     public void addListener(PlayerListener listener) {
         listeners.add(listener);
     }
@@ -134,6 +140,31 @@ public class Player {
         return !bufferingThread.isActive();
     }
 
+    /**
+     * @param millis how long before the end of a track the next one is opened
+     */
+    public void setPreRoll(int millis) {
+        bufferingThread.setPreRoll(millis);
+    }
+
+    /**
+     * @param millis how long tracks overlap when one follows another, 0 to play them gaplessly
+     */
+    public void setCrossfade(int millis) {
+        bufferingThread.getCrossfade().setLength(millis);
+    }
+
+    public void setCrossfadeCurve(Crossfade.Curve curve) {
+        bufferingThread.getCrossfade().setCurve(curve);
+    }
+
+    /**
+     * @return policy that sizes the playback buffer
+     */
+    public BufferPolicy getBufferPolicy() {
+        return bufferingThread.getBufferPolicy();
+    }
+
     public void setStopAfterCurrent(boolean stopAfterCurrent) {
         bufferingThread.setStopAfterCurrent(stopAfterCurrent);
     }
@@ -149,8 +180,10 @@ public class Player {
     synchronized void fireEvent(PlayerEvent.PlayerEventCode event) {
         logger.info("Player Event: " + event);
         PlayerEvent e = new PlayerEvent(event);
+        long time = PlaybackMetrics.getInstance().start();
         for (PlayerListener listener : listeners) {
             listener.onEvent(e);
         }
+        PlaybackMetrics.getInstance().dispatched(time);
     }
 }
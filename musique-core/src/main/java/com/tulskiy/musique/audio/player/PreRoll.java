@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.playlist.TrackData;
+import com.tulskiy.musique.system.Codecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+
+/**
+ * Opens the decoder of the next track on its own thread while the
+ * current one is still playing, so {@link BufferingThread} can switch
+ * to it without waiting for the file, its headers or the seek to the
+ * start of a cue track.
+ * <p/>
+ * The track is only a guess made with {@link
+ * com.tulskiy.musique.playlist.PlaybackOrder#peekNext(Track)}, the order
+ * moves on when the switch happens. If it turns out to be another track,
+ * the prepared decoder is discarded by {@link #take(Track)}.
+ */
+class PreRoll {
+    private final Logger logger = LoggerFactory.getLogger(getClass().getName());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Pre-roll Thread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private boolean resolved;
+    private Track track;
+    private Future<Decoder> decoder;
+
+    /**
+     * @return true if the next track was resolved, it may be null if there's nothing to play next
+     */
+    synchronized boolean isResolved() {
+        return resolved;
+    }
+
+    /**
+     * @return the next track, only meaningful if it was resolved
+     */
+    synchronized Track getTrack() {
+        return track;
+    }
+
+    /**
+     * Starts opening the decoder for the track in the background
+     *
+     * @param next track that will play next, null if there is none
+     */
+    synchronized void prepare(final Track next) {
+        cancel();
+        resolved = true;
+        track = next;
+        if (next == null)
+            return;
+
+        decoder = executor.submit(new Callable<Decoder>() {
+            @Override
+            public Decoder call() {
+                TrackData trackData = next.getTrackData();
+                if (trackData.isFile() && !trackData.getFile().exists())
+                    return null;
+
+                long time = System.currentTimeMillis();
+                Decoder decoder = Codecs.getDecoder(next);
+                if (decoder == null)
+                    return null;
+                if (!decoder.open(next)) {
+                    Codecs.releaseDecoder(decoder);
+                    return null;
+                }
+                if (trackData.getStartPosition() > 0)
+                    decoder.seekSample(trackData.getStartPosition());
+                logger.info("Pre-rolled track " + trackData.getLocation() +
+                        " in " + (System.currentTimeMillis() - time) + " ms");
+                return decoder;
+            }
+        });
+    }
+
+    /**
+     * @return prepared decoder if it has been opened already, it stays
+     *         prepared until {@link #take(Track)} is called
+     */
+    synchronized Decoder peek() {
+        if (decoder == null || !decoder.isDone())
+            return null;
+        try {
+            return decoder.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Takes the prepared decoder. If it was prepared for another track,
+     * it is discarded.
+     *
+     * @param next track that is about to be played
+     * @return opened decoder positioned at the start of the track or null
+     *         if it was not prepared or could not be opened
+     */
+    synchronized Decoder take(Track next) {
+        if (decoder == null || next != track) {
+            cancel();
+            return null;
+        }
+
+        Decoder result = null;
+        try {
+            result = decoder.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Could not pre-roll track " + track.getTrackData().getLocation(), e.getCause());
+        }
+        decoder = null;
+        cancel();
+        return result;
+    }
+
+    /**
+     * Forgets the prepared track and releases its decoder
+     */
+    synchronized void cancel() {
+        final Future<Decoder> pending = decoder;
+        if (pending != null) {
+            // runs after the open task, the executor has only one thread
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Decoder unused = pending.get();
+                        if (unused != null) {
+                            unused.close();
+                            Codecs.releaseDecoder(unused);
+                        }
+                    } catch (Exception ignored) {
+                    }
+                }
+            });
+        }
+        resolved = false;
+        track = null;
+        decoder = null;
+    }
+}
@@ -17,22 +17,15 @@
 
 package com.tulskiy.musique.audio.player.dsp;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Author: Denis Tulskiy
  * Date: 26.07.2009
  */
 public class DSPBank {
-    private static final int DEFAULT_SAMPLES_SIZE = (int) (44100 * 4 * 0.2);
-    private final Logger logger = LoggerFactory.getLogger(getClass().getName());
-
-    private ArrayList<Processor> processors = new ArrayList<Processor>();
-    private int count;
-    private float[] samples = new float[DEFAULT_SAMPLES_SIZE];
+    private List<Processor> processors = new CopyOnWriteArrayList<Processor>();
 
     public void addProcessor(Processor processor) {
         processors.add(processor);
@@ -42,47 +35,19 @@ public class DSPBank {
         processors.remove(processor);
     }
 
-    public void process(byte[] pcm, int off, int len, int bps, boolean bigEndian) {
-        if (processors.size() == 0) {
-            return;
-        }
-
-        int length = len / (bps >> 3);
-        if (samples.length < length) {
-            samples = new float[length + 100];
-        }
-
-        int j = 0;
-        for (int i = off; i < off + len; i += bps / 8) {
-            if (!bigEndian) {
-                samples[j++] = (float) ((pcm[i] & 0xFF | pcm[i + 1] << 8) / 32767.0);
-            } else {
-                samples[j++] = (float) ((pcm[i + 1] & 0xFF | pcm[i] << 8) / 32767.0);
-            }
-        }
-
-        for (int i = 0; i < processors.size(); i++) {
-            processors.get(i).process(samples, len);
-        }
-
-        j = 0;
-        for (int i = off; i < off + len; i += bps / 8) {
-            int v = (int) (samples[j] * 32767);
-            if (v > 32767) {
-                v = 32767;
-            }
-            if (v < -32768) {
-                v = -32768;
-            }
-            if (!bigEndian) {
-                pcm[i] = (byte) (v & 0xff);
-                pcm[i + 1] = (byte) (v >> 8 & 0xff);
-            } else {
-                pcm[i + 1] = (byte) (v & 0xff);
-                pcm[i] = (byte) ((v >> 8) & 0xff);
-            }
+    public boolean isEmpty() {
+        return processors.isEmpty();
+    }
 
-            j++;
+    /**
+     * Run block of interleaved samples through all processors
+     *
+     * @param samples samples normalized to [-1, 1)
+     * @param len     number of samples
+     */
+    public void process(float[] samples, int len) {
+        for (Processor processor : processors) {
+            processor.process(samples, len);
         }
     }
 }
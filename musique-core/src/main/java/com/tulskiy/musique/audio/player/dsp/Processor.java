@@ -24,5 +24,11 @@ package com.tulskiy.musique.audio.player.dsp;
 public interface Processor {
     public String getName();
 
+    /**
+     * Process block of samples in place
+     *
+     * @param samples interleaved samples normalized to [-1, 1)
+     * @param len     number of samples in the block
+     */
     public void process(float[] samples, int len);
 }
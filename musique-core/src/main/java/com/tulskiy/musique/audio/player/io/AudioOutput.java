@@ -17,6 +17,7 @@
 
 package com.tulskiy.musique.audio.player.io;
 
+import com.tulskiy.musique.audio.player.PlaybackMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,8 +37,32 @@ public class AudioOutput {
     private Mixer mixer;
     private float volume = 1f;
     private boolean linearVolume = false;
+    private volatile FormatConverter converter;
+    private volatile AudioFormat outputFormat;
+    private PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    // line has been fed since it was opened or flushed, an empty line means underrun
+    private volatile boolean fed;
 
     public void init(AudioFormat fmt) throws LineUnavailableException {
+        if (converter == null ? outputFormat != null :
+                outputFormat == null || !outputFormat.matches(converter.getOutputFormat())) {
+            converter = outputFormat != null ? new FormatConverter(outputFormat) : null;
+            mixerChanged = true;
+        }
+        if (converter != null) {
+            //the line stays in the fixed format, finish the previous track and convert the new one
+            synchronized (converter) {
+                AudioFormat previous = converter.getInputFormat();
+                if (previous != null && !previous.matches(fmt) && isOpen()) {
+                    int len = converter.drain();
+                    if (len > 0)
+                        line.write(converter.getBuffer(), 0, len);
+                }
+                converter.setInputFormat(fmt);
+            }
+            fmt = converter.getOutputFormat();
+        }
+
         //if it is same format and the line is opened, do nothing
         if (line != null && line.isOpen()) {
             if (mixerChanged || !line.getFormat().matches(fmt)) {
@@ -60,6 +85,7 @@ public class AudioOutput {
             mixer = null;
         }
         logger.info("Line: " + line);
+        fed = false;
         line.open(fmt, BUFFER_SIZE);
         line.start();
         if (line.isControlSupported(FloatControl.Type.VOLUME)) {
@@ -74,6 +100,7 @@ public class AudioOutput {
     }
 
     public void stop() {
+        fed = false;
         if (line != null && line.isOpen())
             line.stop();
     }
@@ -94,12 +121,46 @@ public class AudioOutput {
     }
 
     public void flush() {
+        fed = false;
         if (line != null && line.isOpen())
             line.flush();
+        FormatConverter current = converter;
+        if (current != null) {
+            synchronized (current) {
+                current.reset();
+            }
+        }
     }
 
     public void write(byte[] buf, int offset, int len) {
-        line.write(buf, offset, len);
+        if (metrics.isEnabled()) {
+            if (fed && line.isRunning() && isOverrun())
+                metrics.underrun();
+            fed = true;
+        }
+        FormatConverter current = converter;
+        if (current != null && !current.isPassThrough()) {
+            synchronized (current) {
+                len = current.convert(buf, offset, len);
+                line.write(current.getBuffer(), 0, len);
+            }
+        } else {
+            line.write(buf, offset, len);
+        }
+    }
+
+    /**
+     * Makes the line always use one format, tracks in other formats are
+     * converted instead of reopening the line. Takes effect with the next track.
+     *
+     * @param fmt signed little-endian PCM format of the line, null to use formats of tracks
+     */
+    public void setOutputFormat(AudioFormat fmt) {
+        outputFormat = fmt;
+    }
+
+    public AudioFormat getOutputFormat() {
+        return outputFormat;
     }
 
     public void setVolume(float volume) {
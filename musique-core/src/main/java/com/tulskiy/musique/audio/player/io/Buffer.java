@@ -17,6 +17,7 @@
 
 package com.tulskiy.musique.audio.player.io;
 
+import com.tulskiy.musique.audio.player.PlaybackMetrics;
 import com.tulskiy.musique.playlist.Track;
 
 import javax.sound.sampled.AudioFormat;
@@ -34,6 +35,11 @@ public class Buffer {
     private BlockingQueue<NextEntry> trackQueue = new LinkedBlockingDeque<NextEntry>();
     private Queue<Integer> when = new LinkedList<Integer>();
     private int bytesLeft = 0;
+    private PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    // set after a successful read, reset by flush, so that waiting
+    // for the first data after a flush is not an underrun
+    private volatile boolean primed;
+    private volatile long underruns;
 
     public Buffer(int size) {
         buffer = new RingBuffer(size);
@@ -44,7 +50,13 @@ public class Buffer {
     }
 
     public void write(byte[] b, int off, int len) {
-        buffer.put(b, off, len);
+        if (metrics.isEnabled() && buffer.putAvailable() < len) {
+            long time = metrics.start();
+            buffer.put(b, off, len);
+            metrics.putBlocked(time);
+        } else {
+            buffer.put(b, off, len);
+        }
     }
 
     public void addNextTrack(Track track, AudioFormat format, long startSample, boolean forced) {
@@ -85,10 +97,23 @@ public class Buffer {
         } else if (bytesLeft == 0) {
             return -1;
         }
-        return buffer.get(b, off, len);
+        int available = buffer.getAvailable();
+        if (available == 0 && primed)
+            underruns++;
+        int read;
+        if (metrics.isEnabled()) {
+            metrics.bufferFill(available, buffer.size());
+            long time = available == 0 ? metrics.start() : 0;
+            read = buffer.get(b, off, len);
+            metrics.getBlocked(time);
+        } else {
+            read = buffer.get(b, off, len);
+        }
+        primed = read > 0;
+        return read;
     }
 
-    public synchronized int available() {
+    public int available() {
         return buffer.getAvailable();
     }
 
@@ -96,7 +121,26 @@ public class Buffer {
         return buffer.size();
     }
 
+    /**
+     * Changes size of the buffer without losing data in it. Should be
+     * called from the thread that writes to the buffer, or while nothing
+     * is written.
+     *
+     * @param size new size in bytes
+     */
+    public void resize(int size) {
+        buffer.resize(size);
+    }
+
+    /**
+     * @return how many times the reader found the buffer empty in the middle of playback
+     */
+    public long getUnderruns() {
+        return underruns;
+    }
+
     public void flush() {
+        primed = false;
         buffer.empty();
     }
 
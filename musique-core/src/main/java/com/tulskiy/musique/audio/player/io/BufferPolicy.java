@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player.io;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Decides how big the playback {@link Buffer} should be. Size is set in
+ * milliseconds of audio, so it holds the same time for any format, and
+ * streams get more of it than local files. Every underrun doubles the
+ * time, up to {@link #MAX_GROWTH} times, until playback stops. The size
+ * never goes over the memory cap.
+ */
+public class BufferPolicy {
+    public static final int DEFAULT_LOCAL_MILLIS = 1500;
+    public static final int DEFAULT_STREAM_MILLIS = 10000;
+    public static final int DEFAULT_MAX_SIZE = 16 << 20;
+    // size of the buffer when nothing plays
+    public static final int IDLE_SIZE = 1 << 16;
+    public static final int MAX_GROWTH = 3;
+
+    private volatile int localMillis = DEFAULT_LOCAL_MILLIS;
+    private volatile int streamMillis = DEFAULT_STREAM_MILLIS;
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile int growth;
+
+    /**
+     * @param format format of the data in the buffer
+     * @param stream true if the data comes from network
+     * @return buffer size in bytes, whole frames
+     */
+    public int getSize(AudioFormat format, boolean stream) {
+        long millis = (long) (stream ? streamMillis : localMillis) << growth;
+        float rate = format.getSampleRate() > 0 ? format.getSampleRate() : 44100;
+        int frameSize = Math.max(1, format.getFrameSize());
+        long bytes = (long) (rate * millis / 1000) * frameSize;
+        int max = Math.max(IDLE_SIZE, maxSize);
+        if (bytes > max)
+            bytes = max - max % frameSize;
+        return (int) Math.max(IDLE_SIZE, bytes);
+    }
+
+    /**
+     * Called after an underrun
+     *
+     * @return true if the buffer should grow
+     */
+    public boolean grow() {
+        if (growth >= MAX_GROWTH)
+            return false;
+        growth++;
+        return true;
+    }
+
+    /**
+     * Forgets underruns, called when playback stops
+     */
+    public void reset() {
+        growth = 0;
+    }
+
+    public int getGrowth() {
+        return growth;
+    }
+
+    public int getLocalMillis() {
+        return localMillis;
+    }
+
+    public void setLocalMillis(int localMillis) {
+        this.localMillis = localMillis;
+    }
+
+    public int getStreamMillis() {
+        return streamMillis;
+    }
+
+    public void setStreamMillis(int streamMillis) {
+        this.streamMillis = streamMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize memory cap of the buffer in bytes
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player.io;
+
+import com.tulskiy.musique.util.AudioMath;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts PCM data of any track to one output format: sample rate with
+ * {@link Resampler}, channel count and sample size. Samples are dithered
+ * with triangular noise when they are resampled or lose bits.
+ * Data that is already in the output format is passed through untouched.
+ * <p/>
+ * Buffers are reused, they only grow when a bigger chunk than before
+ * comes in.
+ */
+public class FormatConverter {
+    private final AudioFormat outputFormat;
+    private final int outputBytes;
+    private final int outputChannels;
+
+    private AudioFormat inputFormat;
+    private boolean passThrough;
+    private boolean dither;
+    private Resampler resampler;
+
+    private byte[] partial = new byte[0];
+    private int partialLength;
+    private byte[] joined = new byte[0];
+    private float[] samples = new float[0];
+    private float[] mapped = new float[0];
+    private float[] resampled = new float[0];
+    private byte[] output = new byte[0];
+    private int seed = 0x2545F491;
+
+    /**
+     * @param outputFormat signed little-endian PCM format all data is converted to
+     */
+    public FormatConverter(AudioFormat outputFormat) {
+        this.outputFormat = outputFormat;
+        this.outputBytes = outputFormat.getSampleSizeInBits() / 8;
+        this.outputChannels = outputFormat.getChannels();
+    }
+
+    public AudioFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    public AudioFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    /**
+     * @return true if input is written to the line as is
+     */
+    public boolean isPassThrough() {
+        return passThrough;
+    }
+
+    /**
+     * Sets format of the following data. Call {@link #drain()} before
+     * if the format changes, to get the end of the previous data.
+     *
+     * @param format PCM format of input data
+     */
+    public void setInputFormat(AudioFormat format) {
+        if (inputFormat != null && inputFormat.matches(format))
+            return;
+        inputFormat = format;
+        passThrough = outputFormat.matches(format);
+
+        int inRate = (int) format.getSampleRate();
+        int outRate = (int) outputFormat.getSampleRate();
+        if (inRate != outRate) {
+            if (resampler == null || resampler.getInputRate() != inRate ||
+                    resampler.getOutputRate() != outRate)
+                resampler = new Resampler(inRate, outRate, outputChannels);
+            resampler.reset();
+        } else {
+            resampler = null;
+        }
+        // everything else fits into the output samples exactly
+        dither = resampler != null || format.getSampleSizeInBits() > outputFormat.getSampleSizeInBits() ||
+                (outputChannels == 1 && format.getChannels() > 1);
+        partialLength = 0;
+    }
+
+    /**
+     * Forgets buffered input, used when playback jumps
+     */
+    public void reset() {
+        partialLength = 0;
+        if (resampler != null)
+            resampler.reset();
+    }
+
+    /**
+     * @return buffer with the result of the last {@link #convert} or {@link #drain()}
+     */
+    public byte[] getBuffer() {
+        return output;
+    }
+
+    /**
+     * @param buf    data in the input format
+     * @param offset offset in buf
+     * @param len    length of data, does not have to be whole frames
+     * @return number of converted bytes in {@link #getBuffer()}
+     */
+    public int convert(byte[] buf, int offset, int len) {
+        int frameSize = inputFormat.getFrameSize();
+        if (partialLength > 0) {
+            // finish the frame split by the previous chunk
+            joined = ensureCapacity(joined, partialLength + len);
+            System.arraycopy(partial, 0, joined, 0, partialLength);
+            System.arraycopy(buf, offset, joined, partialLength, len);
+            buf = joined;
+            offset = 0;
+            len += partialLength;
+            partialLength = 0;
+        }
+        int whole = len - len % frameSize;
+        if (whole < len) {
+            partial = ensureCapacity(partial, frameSize);
+            partialLength = len - whole;
+            System.arraycopy(buf, offset + whole, partial, 0, partialLength);
+        }
+
+        int frames = whole / frameSize;
+        int inChannels = inputFormat.getChannels();
+        samples = ensureCapacity(samples, frames * inChannels);
+        AudioMath.toFloat(buf, offset, whole, samples, inputFormat);
+
+        float[] result = mapChannels(frames, inChannels);
+        if (resampler != null) {
+            resampled = ensureCapacity(resampled, resampler.getMaxOutput(frames) * outputChannels);
+            frames = resampler.process(result, frames, resampled);
+            result = resampled;
+        }
+        return pack(result, frames);
+    }
+
+    /**
+     * Outputs what the resampler holds back, as if the input was followed by silence
+     *
+     * @return number of converted bytes in {@link #getBuffer()}
+     */
+    public int drain() {
+        partialLength = 0;
+        if (resampler == null)
+            return 0;
+        resampled = ensureCapacity(resampled, resampler.getMaxOutput(0) * outputChannels);
+        int frames = resampler.flush(resampled);
+        return pack(resampled, frames);
+    }
+
+    private float[] mapChannels(int frames, int inChannels) {
+        if (inChannels == outputChannels)
+            return samples;
+
+        mapped = ensureCapacity(mapped, frames * outputChannels);
+        for (int i = 0; i < frames; i++) {
+            int in = i * inChannels;
+            int out = i * outputChannels;
+            if (outputChannels == 1) {
+                float sum = 0;
+                for (int c = 0; c < inChannels; c++) {
+                    sum += samples[in + c];
+                }
+                mapped[out] = sum / inChannels;
+            } else {
+                for (int c = 0; c < outputChannels; c++) {
+                    mapped[out + c] = samples[in + c % inChannels];
+                }
+            }
+        }
+        return mapped;
+    }
+
+    private int pack(float[] data, int frames) {
+        int count = frames * outputChannels;
+        output = ensureCapacity(output, count * outputBytes);
+        if (!dither)
+            return AudioMath.toPCM(data, count, output, 0, outputFormat);
+
+        double scale = 1L << (outputFormat.getSampleSizeInBits() - 1);
+        double max = scale - 1;
+        int i = 0;
+        for (int j = 0; j < count; j++) {
+            // triangular noise of one LSB peak amplitude
+            double noise = (nextRandom() - nextRandom()) / 16777216.0;
+            double d = Math.rint(data[j] * scale + noise);
+            if (d > max) {
+                d = max;
+            } else if (d < -scale) {
+                d = -scale;
+            }
+            int v = (int) d;
+            for (int b = 0; b < outputBytes; b++) {
+                output[i++] = (byte) v;
+                v >>= 8;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return uniform random number in [0, 2^24)
+     */
+    private int nextRandom() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed >>> 8;
+    }
+
+    private static float[] ensureCapacity(float[] array, int size) {
+        return array.length >= size ? array : new float[size];
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int size) {
+        return array.length >= size ? array : new byte[size];
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player.io;
+
+import java.util.Arrays;
+
+/**
+ * Polyphase windowed-sinc sample rate converter for interleaved float
+ * samples.
+ * <p/>
+ * The filter is a Kaiser windowed sinc tabulated at {@link #PHASES}
+ * fractional offsets, coefficients for offsets in between are
+ * interpolated linearly. When downsampling the cutoff moves below the
+ * output Nyquist frequency and the filter gets longer. Input and output
+ * positions advance by exact integer steps, so there is no drift.
+ * <p/>
+ * Output lags input by half of the filter length: the last input frames
+ * are kept until more input comes or {@link #flush(float[])} is called.
+ * Buffers grow only when a bigger block than before is processed.
+ */
+public class Resampler {
+    private static final int PHASES = 256;
+    private static final int TAPS = 48;
+    private static final double BETA = 8.0;
+    private static final double ROLLOFF = 0.94;
+
+    private final int inRate;
+    private final int outRate;
+    private final int channels;
+    private final int taps;
+    private final int halfTaps;
+    // coefficients for PHASES + 1 offsets, taps each
+    private final float[] table;
+    private final float[] kernel;
+
+    private float[] history;
+    private int filled;
+    // position of the next output frame in history, in 1/outRate of an input frame
+    private long position;
+
+    public Resampler(int inRate, int outRate, int channels) {
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.channels = channels;
+
+        double ratio = Math.min(1.0, (double) outRate / inRate);
+        halfTaps = (int) Math.ceil(TAPS / 2 / ratio);
+        taps = halfTaps * 2;
+        kernel = new float[taps];
+        table = new float[(PHASES + 1) * taps];
+
+        double cutoff = 0.5 * ratio * ROLLOFF;
+        double norm = bessel(BETA);
+        for (int phase = 0; phase <= PHASES; phase++) {
+            double offset = (double) phase / PHASES;
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double x = offset + halfTaps - 1 - j;
+                double w = x / halfTaps;
+                double window = Math.abs(w) >= 1 ? 0 : bessel(BETA * Math.sqrt(1 - w * w)) / norm;
+                double h = 2 * cutoff * sinc(2 * cutoff * x) * window;
+                table[phase * taps + j] = (float) h;
+                sum += h;
+            }
+            // unity gain at DC for every phase
+            for (int j = 0; j < taps; j++) {
+                table[phase * taps + j] /= sum;
+            }
+        }
+
+        history = new float[taps * 2 * channels];
+        reset();
+    }
+
+    private static double sinc(double x) {
+        if (x == 0)
+            return 1;
+        return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /**
+     * Zero order modified Bessel function of the first kind
+     */
+    private static double bessel(double x) {
+        double sum = 1;
+        double term = 1;
+        double half = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= half / k;
+            sum += term * term;
+            if (term * term < sum * 1e-21)
+                break;
+        }
+        return sum;
+    }
+
+    public int getInputRate() {
+        return inRate;
+    }
+
+    public int getOutputRate() {
+        return outRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @param frames number of input frames
+     * @return maximum number of output frames the input can produce
+     */
+    public int getMaxOutput(int frames) {
+        return (int) (((long) frames + taps) * outRate / inRate) + 2;
+    }
+
+    /**
+     * Forgets all input, as if the converter was just created
+     */
+    public void reset() {
+        // output frame 0 is centered on input frame 0
+        filled = halfTaps - 1;
+        Arrays.fill(history, 0, filled * channels, 0);
+        position = (long) (halfTaps - 1) * outRate;
+    }
+
+    /**
+     * @param input  interleaved input samples
+     * @param frames number of input frames
+     * @param output buffer for output samples, at least {@link #getMaxOutput(int)} frames
+     * @return number of output frames
+     */
+    public int process(float[] input, int frames, float[] output) {
+        int needed = (filled + frames) * channels;
+        if (history.length < needed)
+            history = Arrays.copyOf(history, needed);
+        System.arraycopy(input, 0, history, filled * channels, frames * channels);
+        filled += frames;
+        return convert(output);
+    }
+
+    /**
+     * Outputs frames held back for the filter as if the input was followed by silence
+     *
+     * @param output buffer for output samples, at least {@link #getMaxOutput(int)} of 0 frames
+     * @return number of output frames
+     */
+    public int flush(float[] output) {
+        long end = (long) filled * outRate;
+        int needed = (filled + halfTaps + 1) * channels;
+        if (history.length < needed)
+            history = Arrays.copyOf(history, needed);
+        Arrays.fill(history, filled * channels, needed, 0);
+        filled += halfTaps + 1;
+
+        int count = 0;
+        while (position < end) {
+            convertFrame(output, count++);
+        }
+        reset();
+        return count;
+    }
+
+    private int convert(float[] output) {
+        int count = 0;
+        while ((int) (position / outRate) + halfTaps < filled) {
+            convertFrame(output, count++);
+        }
+
+        // drop input that no future output frame needs
+        int drop = (int) (position / outRate) - (halfTaps - 1);
+        if (drop > 0) {
+            System.arraycopy(history, drop * channels, history, 0, (filled - drop) * channels);
+            filled -= drop;
+            position -= (long) drop * outRate;
+        }
+        return count;
+    }
+
+    private void convertFrame(float[] output, int frame) {
+        int index = (int) (position / outRate);
+        long fraction = (position - (long) index * outRate) * PHASES;
+        int phase = (int) (fraction / outRate);
+        float t = (float) (fraction - (long) phase * outRate) / outRate;
+
+        int a = phase * taps;
+        int b = a + taps;
+        for (int j = 0; j < taps; j++) {
+            float c = table[a + j];
+            kernel[j] = c + (table[b + j] - c) * t;
+        }
+
+        int base = (index - halfTaps + 1) * channels;
+        int out = frame * channels;
+        for (int c = 0; c < channels; c++) {
+            float sum = 0;
+            int i = base + c;
+            for (int j = 0; j < taps; j++) {
+                sum += history[i] * kernel[j];
+                i += channels;
+            }
+            output[out + c] = sum;
+        }
+        position += inRate;
+    }
+}
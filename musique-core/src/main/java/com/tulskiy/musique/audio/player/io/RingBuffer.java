@@ -20,19 +20,34 @@
 
 package com.tulskiy.musique.audio.player.io;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * RingBuffer class.
+ * <p/>
+ * Single producer, single consumer byte ring buffer. Producer and consumer
+ * only touch their own sequence on the fast path and only park when the
+ * buffer is full or empty. {@link #empty()} may be called from any thread.
  *
  * @author David R Robison
  */
 public class RingBuffer {
     protected static final int DEFAULT_BUFFER_SIZE = 2048;
-    protected volatile int bufferSize = 0;
-    protected byte[] buffer = null;
-    protected volatile int putHere = 0;
-    protected volatile int getHere = 0;
+    // safety net against lost wake ups, same as the old wait(1000)
+    private static final long PARK_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+    // replaced as a whole on resize, its length is the current size
+    protected volatile byte[] buffer = null;
+    // total bytes ever read, advanced by consumer and by empty()
+    private final Sequence head = new Sequence();
+    // total bytes ever written, advanced by producer only
+    private final Sequence tail = new Sequence();
     protected volatile boolean eof = false;
-    protected final Object signal = new Object();
+
+    private volatile Thread producerWaiter;
+    private volatile Thread consumerWaiter;
 
     /**
      * Constructor.
@@ -40,7 +55,6 @@ public class RingBuffer {
      * @param size The size of the ring buffer
      */
     public RingBuffer(int size) {
-        bufferSize = size;
         buffer = new byte[size];
     }
 
@@ -61,17 +75,32 @@ public class RingBuffer {
     }
 
     /**
-     * Resize the ring buffer.
+     * Resize the ring buffer, keeping the data that was not read yet.
+     * The buffer does not shrink below the size of that data.
+     * <p/>
+     * Must be called from the producer thread or while the producer is
+     * idle. The consumer may keep reading: sequences do not change, data
+     * is copied to the new array first and the old array is not written
+     * to after that, so a read from either array gets the same bytes.
      *
      * @param newSize The new size of the ring buffer
      */
     public void resize(int newSize) {
-        if (bufferSize >= newSize) return;
+        byte[] old = buffer;
+        long t = tail.get();
+        long from = head.get();
+        newSize = Math.max(newSize, Math.max(1, (int) (t - from)));
+        if (newSize == old.length) return;
+
         byte[] newBuffer = new byte[newSize];
-        System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+        while (from < t) {
+            int src = (int) (from % old.length);
+            int dst = (int) (from % newSize);
+            int l = (int) Math.min(t - from, Math.min(old.length - src, newSize - dst));
+            System.arraycopy(old, src, newBuffer, dst, l);
+            from += l;
+        }
         buffer = newBuffer;
-        bufferSize = newSize;
-        //signal.notifyAll();
     }
 
     /**
@@ -80,25 +109,25 @@ public class RingBuffer {
      * @return The byte that may be written to the ring buffer
      */
     public int putAvailable() {
-        if (putHere == getHere) return bufferSize - 1;
-        if (putHere < getHere) return getHere - putHere - 1;
-        return bufferSize - (putHere - getHere) - 1;
+        return buffer.length - getAvailable();
     }
 
     /**
      * Empty the ring buffer.
      */
     public void empty() {
-        synchronized (signal) {
-            putHere = 0;
-            getHere = 0;
-            eof = true;
-            signal.notifyAll();
-        }
+        eof = true;
+        long h;
+        do {
+            h = head.get();
+        } while (!head.compareAndSet(h, tail.get()));
+        unpark(producerWaiter);
+        unpark(consumerWaiter);
     }
 
     /**
-     * Put data into the ring buffer.
+     * Put data into the ring buffer. Blocks until all
+     * of the data is written.
      *
      * @param data   The data to write
      * @param offset The start position in the data array
@@ -108,30 +137,32 @@ public class RingBuffer {
         if (len == 0) return;
         eof = false;
 
-        synchronized (signal) {
-            // see if we have enough room
-            while (putAvailable() < len) {
-                try {
-                    signal.wait();
-                } catch (Exception e) {
-                    System.out.println("Put.Signal.wait:" + e);
-                }
+        while (len > 0) {
+            // only the producer replaces the array
+            byte[] b = buffer;
+            int size = b.length;
+            long t = tail.get();
+            int free;
+            // see if we have room
+            while ((free = size - (int) (t - head.get())) <= 0) {
+                producerWaiter = Thread.currentThread();
+                if (size - (int) (t - head.get()) <= 0)
+                    LockSupport.parkNanos(this, PARK_TIMEOUT);
+                producerWaiter = null;
             }
 
             // copy data
-            if (putHere >= getHere) {
-                int l = Math.min(len, bufferSize - putHere);
-                System.arraycopy(data, offset, buffer, putHere, l);
-                putHere += l;
-                if (putHere >= bufferSize) putHere = 0;
-                if (len > l) put(data, offset + l, len - l);
-            } else {
-                int l = Math.min(len, getHere - putHere - 1);
-                System.arraycopy(data, offset, buffer, putHere, l);
-                putHere += l;
-                if (putHere >= bufferSize) putHere = 0;
-            }
-            signal.notify();
+            int l = Math.min(len, free);
+            int pos = (int) (t % size);
+            int first = Math.min(l, size - pos);
+            System.arraycopy(data, offset, b, pos, first);
+            if (l > first)
+                System.arraycopy(data, offset + first, b, 0, l - first);
+            tail.set(t + l);
+            unpark(consumerWaiter);
+
+            offset += l;
+            len -= l;
         }
     }
 
@@ -141,9 +172,8 @@ public class RingBuffer {
      * @return The number of bytes that may be read from the ring buffer
      */
     public int getAvailable() {
-        if (putHere == getHere) return 0;
-        if (putHere < getHere) return bufferSize - (getHere - putHere);
-        return putHere - getHere;
+        long h = head.get();
+        return (int) Math.max(0, tail.get() - h);
     }
 
     /**
@@ -156,39 +186,43 @@ public class RingBuffer {
      */
     public int get(byte[] data, int offset, int len) {
         if (len == 0) return 0;
-        int dataLen;
 
-        synchronized (signal) {
+        while (true) {
+            long h = head.get();
+            int available;
             // see if we have enough data
-            while (getAvailable() <= 0) {
+            while ((available = (int) (tail.get() - h)) <= 0) {
                 if (eof) return (-1);
-                try {
-                    signal.wait(1000);
-                } catch (Exception e) {
-                    System.out.println("Get.Signal.wait:" + e);
-                }
+                consumerWaiter = Thread.currentThread();
+                if (tail.get() - head.get() <= 0 && !eof)
+                    LockSupport.parkNanos(this, PARK_TIMEOUT);
+                consumerWaiter = null;
+                h = head.get();
             }
-            len = Math.min(len, getAvailable());
+            int l = Math.min(len, available);
 
-            // copy data
-            if (getHere < putHere) {
-                int l = Math.min(len, putHere - getHere);
-                System.arraycopy(buffer, getHere, data, offset, l);
-                getHere += l;
-                if (getHere >= bufferSize) getHere = 0;
-                dataLen = l;
-            } else {
-                int l = Math.min(len, bufferSize - getHere);
-                System.arraycopy(buffer, getHere, data, offset, l);
-                getHere += l;
-                if (getHere >= bufferSize) getHere = 0;
-                dataLen = l;
-                if (len > l) dataLen += get(data, offset + l, len - l);
+            // copy data, the array is read after the tail, so it has the data
+            copyOut(buffer, h, data, offset, l);
+            // if the buffer was emptied while we were copying,
+            // the data is stale and might be overwritten already
+            if (head.compareAndSet(h, h + l)) {
+                unpark(producerWaiter);
+                return l;
             }
-            signal.notify();
         }
+    }
+
+    private static void copyOut(byte[] buffer, long from, byte[] data, int offset, int len) {
+        int pos = (int) (from % buffer.length);
+        int first = Math.min(len, buffer.length - pos);
+        System.arraycopy(buffer, pos, data, offset, first);
+        if (len > first)
+            System.arraycopy(buffer, 0, data, offset + first, len - first);
+    }
 
-        return dataLen;
+    private static void unpark(Thread thread) {
+        if (thread != null)
+            LockSupport.unpark(thread);
     }
 
     /**
@@ -207,14 +241,19 @@ public class RingBuffer {
      */
     public void setEOF(boolean eof) {
         this.eof = eof;
+        if (eof)
+            unpark(consumerWaiter);
     }
 
+    /**
+     * Remove last written bytes. Should be called from
+     * the producer thread.
+     *
+     * @param bytes number of bytes to remove
+     */
     public void removeTail(long bytes) {
-        synchronized (signal) {
-            putHere -= bytes;
-            if (putHere < 0)
-                putHere += size();
-        }
+        long t = tail.get();
+        tail.set(Math.max(head.get(), t - bytes));
     }
 
     /**
@@ -252,4 +291,32 @@ public class RingBuffer {
         r.get(g, 0, 2);
         System.out.println(new String(g));
     }
+
+    // padding keeps head and tail on separate cache lines
+    static class LhsPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class Value extends LhsPadding {
+        protected volatile long value;
+    }
+
+    static final class Sequence extends Value {
+        private static final AtomicLongFieldUpdater<Value> UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        long get() {
+            return value;
+        }
+
+        void set(long value) {
+            this.value = value;
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return UPDATER.compareAndSet(this, expect, update);
+        }
+    }
 }
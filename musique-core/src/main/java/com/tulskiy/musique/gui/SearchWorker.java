@@ -17,11 +17,7 @@
 
 package com.tulskiy.musique.gui;
 
-import com.tulskiy.musique.gui.model.FieldValues;
 import com.tulskiy.musique.playlist.Playlist;
-import com.tulskiy.musique.playlist.Track;
-import com.tulskiy.musique.util.Util;
-import org.jaudiotagger.tag.FieldKey;
 
 import javax.swing.*;
 import java.util.ArrayList;
@@ -31,11 +27,6 @@ import java.util.ArrayList;
 * Date: 11/12/10
 */
 public abstract class SearchWorker extends SwingWorker<Playlist, Integer> {
-    private final FieldKey[] fields = FieldKey.values();
-    // TODO apply correct search metas, looking through all fields at the moment
-//    {
-//            "artist", "title", "album", "albumArtist", "fileName"
-//    };
     private Playlist playlist;
     private String search;
     private boolean fillEmpty;
@@ -52,42 +43,10 @@ public abstract class SearchWorker extends SwingWorker<Playlist, Integer> {
         Playlist newPlaylist = new Playlist();
 
         String str = search.toLowerCase().trim();
-        String[] text = str.split("\\s+");
-        if (!str.isEmpty() && text.length > 0) {
-            for (int i = 0, playlistSize = playlist.size(); i < playlistSize; i++) {
-                Track track = playlist.get(i);
-
-                boolean hasText[] = new boolean[text.length];
-                for (FieldKey field : fields) {
-                    FieldValues values = track.getTrackData().getTagFieldValues(field);
-                    if (values != null) {
-        				for (int k = 0; k < values.size(); k++) {
-        					String value = values.get(k);
-		                    if (!Util.isEmpty(value)) {
-		                        value = value.toLowerCase();
-		                        String[] vals = value.split("\\s+");
-		                        for (String val : vals) {
-		                            for (int j = 0, textLength = text.length; j < textLength; j++) {
-		                                String s = text[j];
-		                                if (val.startsWith(s)) {
-		                                    hasText[j] = true;
-		                                }
-		                            }
-		                        }
-		                    }
-		                }
-                    }
-                }
-
-                boolean toAdd = true;
-                for (boolean b : hasText) {
-                    toAdd &= b;
-                }
-
-                if (toAdd) {
-                    newPlaylist.add(track);
-                    viewToModelList.add(i);
-                }
+        if (!str.isEmpty()) {
+            viewToModelList = playlist.getSearchIndex().search(str);
+            for (Integer index : viewToModelList) {
+                newPlaylist.add(playlist.get(index));
             }
         } else if (fillEmpty) {
             newPlaylist.addAll(playlist);
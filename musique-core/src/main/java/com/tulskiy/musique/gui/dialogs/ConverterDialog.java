@@ -57,7 +57,7 @@ public class ConverterDialog extends JDialog {
         coders.put("OGG Vorbis", createVorbisSettings());
         coders.put("WavPack", createWavpackSettings());
         coders.put("Monkey's Audio", createAPESettings());
-        coders.put("FLAC", null);
+        coders.put("FLAC", createFLACSettings());
 
         final JComboBox encoder = new JComboBox(coders.keySet().toArray());
 
@@ -108,7 +108,7 @@ public class ConverterDialog extends JDialog {
         final PathChooser path = new PathChooser(config.getString("converter.path", ""));
         folder.add(path);
 
-        JPanel output = new JPanel(new GridLayout(3, 2));
+        JPanel output = new JPanel(new GridLayout(4, 2));
         output.setBorder(BorderFactory.createTitledBorder("Output files"));
         output.add(new JLabel("When file exists"));
         final JComboBox whenExists = new JComboBox(new String[]{"Ask", "Skip", "Overwrite"});
@@ -118,6 +118,10 @@ public class ConverterDialog extends JDialog {
         final JTextField fileNameFormat = new JTextField();
         fileNameFormat.setText(config.getString("converter.fileNameFormat", "%fileName%"));
         output.add(fileNameFormat);
+        output.add(new JLabel("Threads"));
+        final JSpinner threads = new JSpinner(new SpinnerNumberModel(
+                config.getInt("converter.threads", Runtime.getRuntime().availableProcessors()), 1, 64, 1));
+        output.add(threads);
         final JCheckBox merge = new JCheckBox("Merge files into one image");
         merge.setSelected(config.getBoolean("converter.merge", false));
         output.add(merge);
@@ -141,6 +145,7 @@ public class ConverterDialog extends JDialog {
                 config.setString("converter.actionWhenExists", (String) whenExists.getSelectedItem());
                 config.setString("converter.fileNameFormat", fileNameFormat.getText());
                 config.setBoolean("converter.merge", merge.isSelected());
+                config.setInt("converter.threads", ((Number) threads.getValue()).intValue());
                 setVisible(false);
                 dispose();
 
@@ -288,6 +293,22 @@ public class ConverterDialog extends JDialog {
         return panel;
     }
 
+    private JComponent createFLACSettings() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setName("FLAC Encoder");
+        final JCheckBox threaded = new JCheckBox("Encode frames in multiple threads");
+        threaded.setSelected(config.getBoolean("encoder.flac.threaded", false));
+        panel.add(threaded, BorderLayout.PAGE_START);
+
+        panel.addPropertyChangeListener("accept", new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                config.setBoolean("encoder.flac.threaded", threaded.isSelected());
+            }
+        });
+        return panel;
+    }
+
     private JComponent createAPESettings() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setName("Monkey's Audio Encoder");
@@ -212,6 +212,7 @@ public class OptionsDialog extends JDialog {
         });
 
         enableLibraryView.setSelected(config.getBoolean("library.libraryView", false));
+        watchMusicFolders.setSelected(config.getBoolean("library.watch", false));
 
         libraryDoubleClickAction.setModel(new DefaultComboBoxModel(new LibraryAction[]{
                 LibraryAction.SEND_TO_CURRENT,
@@ -234,7 +235,13 @@ public class OptionsDialog extends JDialog {
         applyButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
+                boolean foldersChanged = !musicFoldersModel.equals(LibraryConfiguration.getFolders());
                 LibraryConfiguration.setFolders(musicFoldersModel);
+                boolean watch = watchMusicFolders.isSelected();
+                if (watch != config.getBoolean("library.watch", false) || (watch && foldersChanged)) {
+                    config.setBoolean("library.watch", watch);
+                    app.getPlaylistManager().getLibrary().setWatching(watch);
+                }
                 config.setBoolean("library.libraryView", enableLibraryView.isSelected());
                 config.setEnum("library.doubleClickAction", (Enum) libraryDoubleClickAction.getSelectedItem());
                 config.setEnum("library.middleClickAction", (Enum) libraryMiddleClickAction.getSelectedItem());
@@ -410,6 +417,7 @@ public class OptionsDialog extends JDialog {
         addMusicFolder = new javax.swing.JButton();
         removeMusicFolder = new javax.swing.JButton();
         enableLibraryView = new javax.swing.JCheckBox();
+        watchMusicFolders = new javax.swing.JCheckBox();
         com.tulskiy.musique.gui.components.SeparatorLabel separatorLabel9 = new com.tulskiy.musique.gui.components.SeparatorLabel();
         javax.swing.JScrollPane jScrollPane3 = new javax.swing.JScrollPane();
         musicFolders = new javax.swing.JList();
@@ -623,6 +631,8 @@ public class OptionsDialog extends JDialog {
 
         enableLibraryView.setText("Enable Library View playlist");
 
+        watchMusicFolders.setText("Watch music folders for changes");
+
         separatorLabel9.setText("Actions");
 
         musicFolders.setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
@@ -677,6 +687,7 @@ public class OptionsDialog extends JDialog {
                             .addComponent(addMusicFolder, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                         .addGap(5, 5, 5))
                     .addComponent(separatorLabel7, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, 532, Short.MAX_VALUE)
+                    .addComponent(watchMusicFolders, javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(separatorLabel9, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, 532, Short.MAX_VALUE)
                     .addComponent(enableLibraryView, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.PREFERRED_SIZE, 198, javax.swing.GroupLayout.PREFERRED_SIZE)
                     .addGroup(javax.swing.GroupLayout.Alignment.LEADING, jPanel4Layout.createSequentialGroup()
@@ -709,6 +720,8 @@ public class OptionsDialog extends JDialog {
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(removeMusicFolder))
                     .addComponent(jScrollPane3, javax.swing.GroupLayout.PREFERRED_SIZE, 68, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(watchMusicFolders)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(separatorLabel9, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -1084,6 +1097,7 @@ public class OptionsDialog extends JDialog {
     private javax.swing.JCheckBox enableHttpProxy;
     private javax.swing.JCheckBox enableLastFmScrobbling;
     private javax.swing.JCheckBox enableLibraryView;
+    private javax.swing.JCheckBox watchMusicFolders;
     private javax.swing.JCheckBox enableTray;
     private com.tulskiy.musique.gui.components.ColorChooser highlightColor;
     private javax.swing.JTextField httpProxyHost;
@@ -23,6 +23,7 @@ import com.tulskiy.musique.gui.playlist.PlaylistColumn;
 import com.tulskiy.musique.gui.playlist.PlaylistTable;
 import com.tulskiy.musique.playlist.PlaybackOrder;
 import com.tulskiy.musique.playlist.Playlist;
+import com.tulskiy.musique.playlist.PlaylistGroups;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.system.Application;
 
@@ -83,8 +84,9 @@ public class SearchDialog extends JDialog {
             public void valueChanged(ListSelectionEvent e) {
                 int[] rows = table.getSelectedRows();
                 int[] toSelect = new int[rows.length];
+                PlaylistGroups groups = playlist.getGroups();
                 for (int i = 0; i < rows.length; i++) {
-                    toSelect[i] = viewToModel.get(rows[i]);
+                    toSelect[i] = groups.getRowOf(viewToModel.get(rows[i]));
                 }
                 playlistTable.clearSelection();
                 if (toSelect.length > 0)
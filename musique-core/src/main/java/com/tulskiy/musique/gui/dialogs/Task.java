@@ -20,7 +20,8 @@ package com.tulskiy.musique.gui.dialogs;
 import com.tulskiy.musique.playlist.Playlist;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Author: Denis Tulskiy
@@ -38,11 +39,20 @@ public abstract class Task {
             this.location = location;
         }
 
-        HashMap<String, Object> map = new HashMap<String, Object>();
+        // status is read on the event thread while tracks are added
+        private Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+        private volatile long started;
 
         @Override
         public String getStatus() {
-            return "Reading File: " + String.valueOf(map.get("processing.file"));
+            Object count = map.get("processing.count");
+            long elapsed = System.currentTimeMillis() - started;
+            String speed = "";
+            if (count != null && elapsed > 0) {
+                int files = (Integer) count;
+                speed = String.format("\n%d files, %.0f files/s", files, files * 1000f / elapsed);
+            }
+            return "Reading File: " + String.valueOf(map.get("processing.file")) + speed;
         }
 
         @Override
@@ -52,6 +62,7 @@ public abstract class Task {
 
         @Override
         public void start() {
+            started = System.currentTimeMillis();
             for (File file : files) {
                 int ret = playlist.insertItem(file.toString(), location, true, map);
                 if (location != -1)
@@ -60,6 +71,83 @@ public abstract class Task {
         }
     }
 
+    /**
+     * Removes tracks whose files are gone from the playlist
+     */
+    public static class DeadItemsTask extends Task {
+        private Playlist playlist;
+        private Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+
+        public DeadItemsTask(Playlist playlist) {
+            this.playlist = playlist;
+        }
+
+        @Override
+        public boolean isIndeterminate() {
+            return false;
+        }
+
+        @Override
+        public float getProgress() {
+            Object progress = map.get("processing.progress");
+            return progress == null ? 0 : (Float) progress;
+        }
+
+        @Override
+        public String getStatus() {
+            Object file = map.get("processing.file");
+            return file == null ? "Checking files" : "Checking: " + file;
+        }
+
+        @Override
+        public void abort() {
+            map.put("processing.stop", true);
+        }
+
+        @Override
+        public void start() {
+            playlist.removeDeadItems(map);
+        }
+    }
+
+    /**
+     * Removes tracks with the same location and subsong from the playlist
+     */
+    public static class DuplicatesTask extends Task {
+        private Playlist playlist;
+        private Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+
+        public DuplicatesTask(Playlist playlist) {
+            this.playlist = playlist;
+        }
+
+        @Override
+        public boolean isIndeterminate() {
+            return false;
+        }
+
+        @Override
+        public float getProgress() {
+            Object progress = map.get("processing.progress");
+            return progress == null ? 0 : (Float) progress;
+        }
+
+        @Override
+        public String getStatus() {
+            return "Looking for duplicates";
+        }
+
+        @Override
+        public void abort() {
+            map.put("processing.stop", true);
+        }
+
+        @Override
+        public void start() {
+            playlist.removeDuplicates(map);
+        }
+    }
+
     public boolean isIndeterminate() {
         return true;
     }
@@ -21,8 +21,10 @@ import com.tulskiy.musique.gui.components.GroupTable;
 import com.tulskiy.musique.gui.cpp.TrackInfoItemSelection;
 import com.tulskiy.musique.gui.model.*;
 import com.tulskiy.musique.gui.playlist.PlaylistTable;
+import com.tulskiy.musique.library.Library;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.TrackData;
+import com.tulskiy.musique.system.Application;
 import com.tulskiy.musique.system.TrackIO;
 import com.tulskiy.musique.util.Util;
 
@@ -98,6 +100,9 @@ public class TracksInfoDialog extends JDialog {
             @Override
             public void actionPerformed(ActionEvent e) {
             	tagFieldsModel.approveModel();
+            	Library library = Application.getInstance().getPlaylistManager().getLibrary();
+            	if (library != null)
+            		library.updateTracks(tracks);
                 writeTracks(tracks);
             }
         });
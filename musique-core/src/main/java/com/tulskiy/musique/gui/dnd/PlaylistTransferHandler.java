@@ -21,6 +21,7 @@ import com.tulskiy.musique.gui.dialogs.ProgressDialog;
 import com.tulskiy.musique.gui.dialogs.Task;
 import com.tulskiy.musique.gui.playlist.PlaylistTable;
 import com.tulskiy.musique.playlist.Playlist;
+import com.tulskiy.musique.playlist.PlaylistGroups;
 import com.tulskiy.musique.playlist.Track;
 
 import javax.swing.*;
@@ -98,15 +99,16 @@ public class PlaylistTransferHandler extends TransferHandler {
             }
 
             Playlist playlist = table.getPlaylist();
+            PlaylistGroups groups = playlist.getGroups();
             int insertRow = 0;
             if (support.isDrop()) {
                 JTable.DropLocation dl = (JTable.DropLocation) support.getDropLocation();
                 int index = dl.getRow();
-                if (index == playlist.size()) {
+                if (index == groups.getRowCount()) {
                     //corner case
-                    insertRow = index;
+                    insertRow = playlist.size();
                 } else {
-                    insertRow = table.convertRowIndexToModel(index);
+                    insertRow = groups.getIndexAt(table.convertRowIndexToModel(index));
                 }
             }
 
@@ -133,10 +135,12 @@ public class PlaylistTransferHandler extends TransferHandler {
                     playlist.removeAll(tracks);
                 } else {
                     int selectedRow = table.getSelectedRow();
-                    if (selectedRow != -1)
-                        insertRow = selectedRow + 1;
-                    else
+                    if (selectedRow == -1)
                         insertRow = -1;
+                    else if (groups.isSeparator(selectedRow))
+                        insertRow = groups.getIndexAt(selectedRow);
+                    else
+                        insertRow = groups.getIndexAt(selectedRow) + 1;
                 }
 
                 if (insertRow == -1)
@@ -144,7 +148,9 @@ public class PlaylistTransferHandler extends TransferHandler {
 
                 playlist.addAll(insertRow, tracks);
                 playlist.firePlaylistChanged();
-                table.setRowSelectionInterval(insertRow, insertRow + tracks.size() - 1);
+                groups = playlist.getGroups();
+                table.setRowSelectionInterval(groups.getRowOf(insertRow),
+                        groups.getRowOf(insertRow + tracks.size() - 1));
                 tracks.clear();
                 return true;
             }
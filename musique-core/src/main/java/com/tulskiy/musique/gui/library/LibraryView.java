@@ -38,7 +38,6 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
-import javax.swing.tree.DefaultTreeModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -89,7 +88,7 @@ public class LibraryView extends JPanel {
     private void initComponents() {
         setLayout(new BorderLayout(5, 5));
         tree = new LibraryTree();
-        tree.setRootNode(library.getRootNode());
+        tree.setModel(library.getTreeModel());
         JScrollPane scrollPane = new JScrollPane(tree);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
         add(scrollPane, BorderLayout.CENTER);
@@ -241,13 +240,7 @@ public class LibraryView extends JPanel {
 
                     @Override
                     public void start() {
-                        int[] selectionRows = tree.getSelectionRows();
                         library.rescan(map);
-                        ((DefaultTreeModel) tree.getModel()).reload();
-                        tree.revalidate();
-                        tree.repaint();
-                        if (selectionRows != null)
-                            tree.setSelectionRows(selectionRows);
                     }
                 });
             }
@@ -287,10 +287,8 @@ public class PlaylistPanel extends JPanel {
 
                 Playlist playlist = table.getPlaylist();
                 int row = table.rowAtPoint(table.getVisibleRect().getLocation());
-                Track firstVisibleTrack;
-                do {
-                    firstVisibleTrack = playlist.get(row++);
-                } while (firstVisibleTrack.getTrackData().getLocation() == null);
+                Track firstVisibleTrack = row == -1 ? null :
+                        playlist.get(playlist.getGroups().getIndexAt(row));
 
                 JMenuItem src = (JMenuItem) e.getSource();
                 Integer index = (Integer) src.getClientProperty("index");
@@ -308,7 +306,8 @@ public class PlaylistPanel extends JPanel {
 
                 int firstVisibleIndex = playlist.indexOf(firstVisibleTrack);
                 if (firstVisibleIndex != -1) {
-                    Rectangle cellRect = table.getCellRect(firstVisibleIndex, 0, true);
+                    int firstVisibleRow = playlist.getGroups().getRowOf(firstVisibleIndex);
+                    Rectangle cellRect = table.getCellRect(firstVisibleRow, 0, true);
                     Rectangle visibleRect = table.getVisibleRect();
                     cellRect.setSize(visibleRect.width, visibleRect.height);
                     table.scrollRectToVisible(cellRect);
@@ -418,7 +417,8 @@ public class PlaylistPanel extends JPanel {
             public void actionPerformed(ActionEvent e) {
                 PlaylistTable table = tabs.getSelectedTable();
                 if (table != null) {
-                    table.getPlaylist().removeDeadItems();
+                    ProgressDialog dialog = new ProgressDialog(table.getParentFrame(), "Removing Dead Items");
+                    dialog.show(new Task.DeadItemsTask(table.getPlaylist()));
                 }
             }
         });
@@ -427,7 +427,8 @@ public class PlaylistPanel extends JPanel {
             public void actionPerformed(ActionEvent e) {
                 PlaylistTable table = tabs.getSelectedTable();
                 if (table != null) {
-                    table.getPlaylist().removeDuplicates();
+                    ProgressDialog dialog = new ProgressDialog(table.getParentFrame(), "Removing Duplicates");
+                    dialog.show(new Task.DuplicatesTask(table.getPlaylist()));
                 }
             }
         });
@@ -28,6 +28,7 @@ import com.tulskiy.musique.gui.dnd.SongsSelection;
 import com.tulskiy.musique.gui.menu.TracksMenu;
 import com.tulskiy.musique.playlist.PlaybackOrder;
 import com.tulskiy.musique.playlist.Playlist;
+import com.tulskiy.musique.playlist.PlaylistGroups;
 import com.tulskiy.musique.playlist.PlaylistListener;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.system.Application;
@@ -220,8 +221,10 @@ public class PlaylistTable extends GroupTable {
                         break;
                     case STOPPED:
                         int index = playlist.indexOf(player.getTrack());
-                        if (index != -1)
-                            setRowSelectionInterval(index, index);
+                        if (index != -1) {
+                            int row = playlist.getGroups().getRowOf(index);
+                            setRowSelectionInterval(row, row);
+                        }
                         break;
                 }
             }
@@ -308,8 +311,9 @@ public class PlaylistTable extends GroupTable {
 
     public void adjustLastSongAfterDelete(ArrayList<Track> songs) {
         if (songs.contains(player.getTrack())) {
-            int index = getSelectionModel().getMinSelectionIndex();
-            if (index < playlist.size()) {
+            int row = getSelectionModel().getMinSelectionIndex();
+            int index = row == -1 ? -1 : playlist.getGroups().getIndexAt(row);
+            if (index != -1 && index < playlist.size()) {
                 player.getPlaybackOrder().setLastPlayed(playlist.get(index));
             }
         }
@@ -388,18 +392,21 @@ public class PlaylistTable extends GroupTable {
     public void scrollToSong(Track track) {
         int index = playlist.indexOf(track);
         if (index != -1) {
-            scrollToRow(index);
-            setRowSelectionInterval(index, index);
+            int row = playlist.getGroups().getRowOf(index);
+            scrollToRow(row);
+            setRowSelectionInterval(row, row);
         }
     }
 
     public ArrayList<Track> getSelectedSongs() {
         int[] rows = getSelectedRows();
+        PlaylistGroups groups = playlist.getGroups();
         ArrayList<Track> tracks = new ArrayList<Track>();
         for (int row : rows) {
-            Track track = playlist.get(row);
-            if (!(track instanceof Separator)) {
-                tracks.add(track);
+            if (!groups.isSeparator(row)) {
+                Track track = playlist.get(groups.getIndexAt(row));
+                if (track != null)
+                    tracks.add(track);
             }
         }
         return tracks;
@@ -621,7 +628,7 @@ public class PlaylistTable extends GroupTable {
 
     class PlaylistModel extends AbstractTableModel {
         public int getRowCount() {
-            return playlist == null ? 0 : playlist.size();
+            return playlist == null ? 0 : playlist.getGroups().getRowCount();
         }
 
         public int getColumnCount() {
@@ -634,11 +641,12 @@ public class PlaylistTable extends GroupTable {
         }
 
         public Object getValueAt(int rowIndex, int columnIndex) {
-            Track track = playlist.get(rowIndex);
-            if (track instanceof Separator)
-                return track;
+            PlaylistGroups groups = playlist.getGroups();
+            Separator separator = groups.getSeparator(rowIndex);
+            if (separator != null)
+                return separator;
             else
-                return columns.get(columnIndex).getValue(track);
+                return columns.get(columnIndex).getValue(playlist.get(groups.getIndexAt(rowIndex)));
         }
     }
 
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers size and modification time of every file seen during the
+ * last library scan, grouped by directory. Rescan compares the directory
+ * listing against it and does not touch the tags of files that did not change.
+ */
+public class FileStateIndex {
+    private static final Logger logger = LoggerFactory.getLogger(FileStateIndex.class.getName());
+    private static final int MAGIC = 0x4d494458; // "MIDX"
+    private static final int VERSION = 1;
+
+    private final File file;
+    private Map<String, Map<String, FileState>> directories = new HashMap<String, Map<String, FileState>>();
+
+    public FileStateIndex(File file) {
+        this.file = file;
+    }
+
+    public static class FileState {
+        private final long size;
+        private final long lastModified;
+
+        public FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            FileState state = (FileState) o;
+            return size == state.size && lastModified == state.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (size ^ (size >>> 32)) + (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+
+    /**
+     * @param directory absolute path of the directory
+     * @return file name to state map recorded for the directory or null if
+     *         the directory was not scanned before
+     */
+    public Map<String, FileState> get(String directory) {
+        return directories.get(directory);
+    }
+
+    /**
+     * Replaces the whole index with the result of a finished scan, so
+     * directories that disappeared are forgotten too.
+     */
+    public void replace(Map<String, Map<String, FileState>> directories) {
+        this.directories = directories;
+    }
+
+    public int size() {
+        return directories.size();
+    }
+
+    public void load() {
+        directories = new HashMap<String, Map<String, FileState>>();
+        if (file == null || !file.exists())
+            return;
+
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                logger.warn("Unknown library index format, will do a full rescan");
+                return;
+            }
+            int dirCount = dis.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                String dir = dis.readUTF();
+                int count = dis.readInt();
+                HashMap<String, FileState> entries = new HashMap<String, FileState>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    String name = dis.readUTF();
+                    entries.put(name, new FileState(dis.readLong(), dis.readLong()));
+                }
+                directories.put(dir, entries);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read library index: " + e.getMessage());
+            directories.clear();
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public void save() {
+        if (file == null)
+            return;
+
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(directories.size());
+            for (Map.Entry<String, Map<String, FileState>> dir : directories.entrySet()) {
+                dos.writeUTF(dir.getKey());
+                dos.writeInt(dir.getValue().size());
+                for (Map.Entry<String, FileState> entry : dir.getValue().entrySet()) {
+                    dos.writeUTF(entry.getKey());
+                    dos.writeLong(entry.getValue().getSize());
+                    dos.writeLong(entry.getValue().getLastModified());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not save library index: " + e.getMessage());
+        } finally {
+            if (dos != null) {
+                try {
+                    dos.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -17,9 +17,12 @@
 
 package com.tulskiy.musique.library;
 
+import com.tulskiy.musique.audio.AudioFileReader;
+import com.tulskiy.musique.library.FileStateIndex.FileState;
 import com.tulskiy.musique.playlist.Playlist;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.TrackData;
+import com.tulskiy.musique.playlist.TrackStore;
 import com.tulskiy.musique.playlist.formatting.Parser;
 import com.tulskiy.musique.playlist.formatting.tokens.Expression;
 import com.tulskiy.musique.system.Application;
@@ -32,12 +35,27 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.swing.*;
+import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
+ * Scans and updates run on background threads and hold the library lock,
+ * but the playlist and the tree are only changed on the event dispatch
+ * thread, where Swing reads them. Tree changes are reported through
+ * {@link #getTreeModel()}.
+ * <p/>
  * Author: Denis Tulskiy
  * Date: 10/30/10
  */
@@ -48,101 +66,450 @@ public class Library {
     private Playlist data;
     private String view;
     private TreeNode rootNode;
+    private DefaultTreeModel treeModel;
+    // tree events are not sent while the whole tree is rebuilt
+    private boolean rebuilding;
+    private Expression viewExpression;
+    private FileStateIndex index;
+    private final Object watcherLock = new Object();
+    private LibraryWatcher watcher;
+    // optional compact storage for data of library tracks
+    private TrackStore store;
+    // tracks grouped by the file they were read from, so that all
+    // subsongs of a cue sheet can be kept or replaced at once
+    private HashMap<String, List<Track>> sources = new HashMap<String, List<Track>>();
+    private HashMap<Track, TrackNode> trackNodes = new HashMap<Track, TrackNode>();
 
     public Library(Playlist data) {
         this.data = data;
+        if (config.getBoolean("library.compactStore", false)) {
+            long time = System.currentTimeMillis();
+            store = new TrackStore();
+            for (Track track : data) {
+                store.add(track.getTrackData());
+            }
+            logger.info("Moved " + store.size() + " tracks to compact store, " + store.getStringCount() +
+                    " distinct strings, in " + (System.currentTimeMillis() - time) + " ms");
+        }
+        indexSources();
         rebuildTree();
+        treeModel = new DefaultTreeModel(rootNode);
     }
 
-    public void rescan(Map<String, Object> progress) {
+    public synchronized void rescan(Map<String, Object> progress) {
         List<String> folders = LibraryConfiguration.getFolders();
         if (CollectionUtils.isEmpty(folders)) {
             return;
         }
-        progress.put("processing.file", "");
+        if (progress != null) {
+            progress.put("processing.file", "");
+        }
 
-        data.removeDeadItems();
+        if (index == null) {
+            File home = Application.getInstance().CONFIG_HOME;
+            index = new FileStateIndex(home != null ? new File(home, "library.idx") : null);
+            index.load();
+        }
 
-        HashMap<TrackData, Track> trackDatas = new HashMap<TrackData, Track>();
-        for (Track track : data) {
-            trackDatas.put(track.getTrackData(), track);
+        long time = System.currentTimeMillis();
+        FolderScanner scanner = new FolderScanner(sources, progress);
+        List<Track> processed = scanner.scan(folders);
+        if (processed == null) {
+            logger.info("Library rescan aborted");
+            return;
         }
+        logger.info("Scanned library: " + scanner.states.size() + " folders, " + processed.size() +
+                " tracks, " + scanner.read + " files read in " + (System.currentTimeMillis() - time) + " ms");
 
-        LinkedList<File> queue = new LinkedList<File>();
-        for (String path : folders) {
-            File f = new File(path);
-            if (f.exists())
-                queue.add(f);
+        final HashSet<Track> dropped = new HashSet<Track>(data);
+        final ArrayList<Track> added = new ArrayList<Track>();
+        for (Track track : processed) {
+            if (!dropped.remove(track))
+                added.add(track);
         }
 
-        HashSet<Track> processed = new HashSet<Track>();
-        final Set<String> formats = Codecs.getFormats();
-        ArrayList<Track> temp = new ArrayList<Track>();
-        while (!queue.isEmpty()) {
-            try {
-                File file = queue.pop();
-                if (progress != null) {
-                    if (progress.get("processing.stop") != null) {
-                        break;
+        index.replace(scanner.states);
+        index.save();
+        final List<Track> tracks = processed;
+        final List<Track> reloaded = new ArrayList<Track>(scanner.reloaded);
+        runOnEdt(new Runnable() {
+            @Override
+            public void run() {
+                data.clear();
+                data.addAll(tracks);
+                updateTree(added, dropped, reloaded);
+            }
+        });
+        indexSources();
+    }
+
+    /**
+     * Applies changes of individual files to the library without rescanning
+     * the folders. Tracks of changed files are re-read on the calling thread,
+     * tracks of removed files and directories are dropped, and only the
+     * affected nodes of the tree are touched.
+     *
+     * @param changed files that were created or modified
+     * @param removed files or directories that were deleted
+     */
+    public synchronized void update(Collection<File> changed, Collection<File> removed) {
+        Set<String> formats = Codecs.getFormats();
+        final HashSet<Track> dropped = new HashSet<Track>();
+        LinkedHashSet<File> toRead = new LinkedHashSet<File>();
+
+        for (File file : removed) {
+            String path = file.getAbsolutePath();
+            List<Track> tracks = sources.remove(path);
+            if (tracks != null) {
+                dropped.addAll(tracks);
+                // audio files of a deleted cue sheet become standalone tracks
+                if (Util.getFileExt(path).equals("cue")) {
+                    for (Track track : tracks) {
+                        File audio = track.getTrackData().getFile();
+                        if (audio.exists())
+                            toRead.add(audio);
                     }
-                    progress.put("processing.file", file.getAbsolutePath());
                 }
-                if (file.isDirectory()) {
-                    queue.addAll(0, Arrays.asList(file.listFiles(new FileFilter() {
-                        @Override
-                        public boolean accept(File file) {
-                            if (file.isHidden() || !file.canRead()) {
-                                return false;
-                            }
-
-                            if (file.isDirectory())
-                                return true;
-
-                            String ext = Util.getFileExt(file).toLowerCase();
-                            if (formats.contains(ext)) {
-                                String name = Util.removeExt(file.getAbsolutePath()) + ".cue";
-                                return !new File(name).exists();
-                            }
-                            return ext.equals("cue");
-                        }
-                    })));
-                } else {
-                    TrackData trackData = new TrackData(file.toURI(), 0);
-                    Track track = trackDatas.get(trackData);
-                    if (track != null) {
-                        if (track.getTrackData().getLastModified() != file.lastModified()) {
-                            track.getTrackData().clearTags();
-                            TrackIO.getAudioFileReader(file.getName()).reload(track);
-                        }
-                        processed.add(track);
-                    } else {
-                        temp.clear();
-                        TrackIO.getAudioFileReader(file.getName()).read(file, temp);
-                        for (Track newTrack : temp) {
-                            trackData = newTrack.getTrackData();
-                            if (trackDatas.containsKey(trackData)) {
-                                // it must be the cue file, so  merge the track data
-                                trackData.merge(newTrack.getTrackData());
-                            }
-                            processed.add(newTrack);
-                        }
+            } else if (!formats.contains(Util.getFileExt(path))) {
+                // could be a directory, drop everything under it
+                String prefix = path + File.separator;
+                for (Iterator<Map.Entry<String, List<Track>>> it = sources.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<String, List<Track>> entry = it.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        dropped.addAll(entry.getValue());
+                        it.remove();
                     }
                 }
+            }
+        }
+
+        for (File file : changed) {
+            String ext = Util.getFileExt(file.getName());
+            if (formats.contains(ext)) {
+                File cue = new File(Util.removeExt(file.getAbsolutePath()) + ".cue");
+                toRead.add(cue.exists() ? cue : file);
+            } else if (ext.equals("cue")) {
+                toRead.add(file);
+            }
+        }
+
+        final ArrayList<Track> added = new ArrayList<Track>();
+        for (File file : toRead) {
+            String path = file.getAbsolutePath();
+            List<Track> old = sources.remove(path);
+            if (old != null)
+                dropped.addAll(old);
+
+            AudioFileReader reader = TrackIO.getAudioFileReader(file.getName());
+            if (reader == null || !file.exists())
+                continue;
+            try {
+                ArrayList<Track> tracks = new ArrayList<Track>();
+                reader.read(file, tracks);
+                for (Track track : tracks) {
+                    // cue sheet replaces the standalone track of its audio file
+                    List<Track> standalone = sources.remove(track.getTrackData().getFile().getAbsolutePath());
+                    if (standalone != null)
+                        dropped.addAll(standalone);
+                }
+                sources.put(path, tracks);
+                added.addAll(tracks);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        data.clear();
-        data.addAll(processed);
-        processed.clear();
-        trackDatas.clear();
-        rebuildTree();
+
+        if (dropped.isEmpty() && added.isEmpty())
+            return;
+
+        runOnEdt(new Runnable() {
+            @Override
+            public void run() {
+                data.removeAll(dropped);
+                data.addAll(added);
+                updateTree(added, dropped, Collections.<Track>emptyList());
+            }
+        });
+        logger.info("Updated library: " + added.size() + " tracks added, " + dropped.size() + " removed");
+    }
+
+    /**
+     * Moves library tracks whose tags were edited to their new place in the
+     * tree. Must be called on the event dispatch thread, where the tree and
+     * the library playlist are changed, tracks not in the library are ignored.
+     *
+     * @param tracks edited tracks
+     */
+    public void updateTracks(Collection<Track> tracks) {
+        IdentityHashMap<Track, Boolean> library = new IdentityHashMap<Track, Boolean>(data.size());
+        for (Track track : data) {
+            library.put(track, true);
+        }
+        ArrayList<Track> changed = new ArrayList<Track>();
+        for (Track track : tracks) {
+            if (library.containsKey(track))
+                changed.add(track);
+        }
+        if (!changed.isEmpty())
+            updateTree(Collections.<Track>emptyList(), Collections.<Track>emptyList(), changed);
+    }
+
+    /**
+     * Starts or stops watching library folders for changes.
+     * Calling it again while watching restarts the watcher, so
+     * that changes to the folder list are picked up.
+     */
+    public void setWatching(boolean watching) {
+        // not the library lock, it is called on the event dispatch
+        // thread while a scan holding the lock may be waiting for it
+        synchronized (watcherLock) {
+            if (watcher != null) {
+                watcher.stopWatching();
+                watcher = null;
+            }
+
+            List<String> folders = LibraryConfiguration.getFolders();
+            if (watching && !CollectionUtils.isEmpty(folders)) {
+                watcher = new LibraryWatcher(this, folders, config.getInt("library.watchDelay", 2000));
+                watcher.start();
+            }
+        }
+    }
+
+    public boolean isWatching() {
+        return watcher != null;
+    }
+
+    /**
+     * Runs the change on the event dispatch thread and waits for it
+     */
+    private static void runOnEdt(Runnable change) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            change.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(change);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void addSource(Track track) {
+        String source = getSource(track.getTrackData());
+        if (source != null) {
+            List<Track> tracks = sources.get(source);
+            if (tracks == null) {
+                tracks = new ArrayList<Track>(1);
+                sources.put(source, tracks);
+            }
+            tracks.add(track);
+        }
+    }
+
+    private void removeSource(Track track) {
+        String source = getSource(track.getTrackData());
+        List<Track> tracks = source != null ? sources.get(source) : null;
+        if (tracks != null) {
+            tracks.remove(track);
+            if (tracks.isEmpty())
+                sources.remove(source);
+        }
+    }
+
+    private void indexSources() {
+        sources.clear();
+        if (data == null)
+            return;
+        for (Track track : data) {
+            addSource(track);
+        }
+    }
+
+    private static String getSource(TrackData trackData) {
+        if (!trackData.isFile())
+            return null;
+        if (!trackData.isCueEmbedded() && trackData.getCueLocation() != null)
+            return trackData.getCueLocation();
+        return trackData.getFile().getAbsolutePath();
+    }
+
+    /**
+     * Walks library folders on the calling thread and reads tags of new and
+     * changed files on a work-stealing pool. Every directory is listed once,
+     * its listing is used both for the cue sheet sibling check and to compare
+     * with the {@link FileStateIndex}. Directories that did not change since
+     * last scan keep their tracks without opening a single file.
+     */
+    private class FolderScanner extends SimpleFileVisitor<Path> {
+        private final Map<String, List<Track>> sources;
+        private final Map<String, Object> progress;
+        private final Set<String> formats = Codecs.getFormats();
+        private final LinkedList<Map<String, FileState>> listings = new LinkedList<Map<String, FileState>>();
+        private final List<Future<List<Track>>> results = new ArrayList<Future<List<Track>>>();
+        private final HashMap<String, Map<String, FileState>> states = new HashMap<String, Map<String, FileState>>();
+        private final Queue<Track> reloaded = new ConcurrentLinkedQueue<Track>();
+        private final ForkJoinPool pool;
+        private volatile boolean stopped;
+        private volatile String current = "";
+        private int read;
+        private Path root;
+
+        FolderScanner(Map<String, List<Track>> sources, Map<String, Object> progress) {
+            this.sources = sources;
+            this.progress = progress;
+            int threads = config.getInt("library.scanThreads", Runtime.getRuntime().availableProcessors());
+            pool = new ForkJoinPool(Math.max(1, threads));
+        }
+
+        /**
+         * @return tracks found in the folders or null if scan was aborted
+         */
+        public List<Track> scan(List<String> folders) {
+            try {
+                for (String folder : folders) {
+                    root = Paths.get(folder).toAbsolutePath();
+                    if (!Files.isDirectory(root))
+                        continue;
+                    Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                            Integer.MAX_VALUE, this);
+                    if (isStopped())
+                        return null;
+                }
+
+                ArrayList<Track> processed = new ArrayList<Track>(results.size());
+                for (Future<List<Track>> result : results) {
+                    if (isStopped())
+                        return null;
+                    processed.addAll(result.get());
+                    if (progress != null)
+                        progress.put("processing.file", current);
+                }
+                return processed;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private boolean isStopped() {
+            if (progress != null && progress.get("processing.stop") != null) {
+                stopped = true;
+            }
+            return stopped;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            if (isStopped())
+                return FileVisitResult.TERMINATE;
+            if (!dir.equals(root) && Files.isHidden(dir))
+                return FileVisitResult.SKIP_SUBTREE;
+            if (progress != null)
+                progress.put("processing.file", dir.toString());
+            listings.push(new LinkedHashMap<String, FileState>());
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (attrs.isRegularFile() && !Files.isHidden(file)) {
+                listings.peek().put(file.getFileName().toString(),
+                        new FileState(attrs.size(), attrs.lastModifiedTime().toMillis()));
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            logger.warn("Could not scan " + file + ": " + exc);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            Map<String, FileState> listing = listings.pop();
+            String path = dir.toString();
+            states.put(path, listing);
+
+            Map<String, FileState> old = index.get(path);
+            boolean unchanged = listing.equals(old);
+            for (Map.Entry<String, FileState> entry : listing.entrySet()) {
+                String name = entry.getKey();
+                String ext = Util.getFileExt(name);
+                boolean cue = ext.equals("cue");
+                if (!cue && (!formats.contains(ext) ||
+                        listing.containsKey(Util.removeExt(name) + ".cue"))) {
+                    continue;
+                }
+
+                File file = new File(path, name);
+                List<Track> existing = sources.get(file.getAbsolutePath());
+                if (existing != null && (unchanged ||
+                        (!cue && old != null && entry.getValue().equals(old.get(name))))) {
+                    results.add(CompletableFuture.completedFuture(existing));
+                } else {
+                    read++;
+                    results.add(pool.submit(new ReadTask(file, cue ? null : existing)));
+                }
+            }
+            return isStopped() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+        }
+
+        private class ReadTask implements Callable<List<Track>> {
+            private final File file;
+            private final List<Track> existing;
+
+            ReadTask(File file, List<Track> existing) {
+                this.file = file;
+                this.existing = existing;
+            }
+
+            @Override
+            public List<Track> call() {
+                if (stopped)
+                    return Collections.emptyList();
+                current = file.getAbsolutePath();
+                try {
+                    AudioFileReader reader = TrackIO.getAudioFileReader(file.getName());
+                    if (reader == null)
+                        return Collections.emptyList();
+                    if (existing != null && existing.size() == 1
+                            && existing.get(0).getTrackData().getSubsongIndex() == 0) {
+                        Track track = existing.get(0);
+                        track.getTrackData().clearTags();
+                        reader.reload(track);
+                        reloaded.add(track);
+                        return existing;
+                    }
+
+                    ArrayList<Track> tracks = new ArrayList<Track>();
+                    reader.read(file, tracks);
+                    return tracks;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return Collections.emptyList();
+                }
+            }
+        }
     }
 
     public TreeNode getRootNode() {
         return rootNode;
     }
 
+    /**
+     * @return model of the library tree, it is notified about every
+     *         change made to the tree
+     */
+    public DefaultTreeModel getTreeModel() {
+        return treeModel;
+    }
+
     public Playlist getData() {
         return data;
     }
@@ -154,6 +521,7 @@ public class Library {
     public void setView(String view) {
         this.view = view;
         rebuildTree();
+        treeModel.reload();
     }
 
     private void rebuildTree() {
@@ -164,6 +532,7 @@ public class Library {
         }
 
         ((MappedTreeNode) rootNode).removeAllChildren();
+        trackNodes.clear();
         if (data == null) {
             return;
         }
@@ -172,25 +541,113 @@ public class Library {
             view = DEFAULT_VIEW;
         }
 
-        Expression expr = Parser.parse(view);
+        viewExpression = Parser.parse(view);
+        rebuilding = true;
         for (Track track : data) {
-            Object val = expr.eval(track);
-            if (val != null) {
-                String[] path = val.toString().split("\\|");
+            addToTree(track);
+        }
+        rebuilding = false;
+        logger.info("Finished rebuilding tree: total time: " + (System.currentTimeMillis() - time) + " ms");
+    }
 
-                if (path.length < 2) {
-                    continue;
-                }
+    /**
+     * Changes only the parts of the tree that hold given tracks, without
+     * evaluating the view for the rest of the library
+     *
+     * @param added   tracks that are not in the tree yet
+     * @param removed tracks to remove from the tree
+     * @param changed tracks that might have to move to another branch
+     */
+    private void updateTree(Collection<Track> added, Collection<Track> removed, Collection<Track> changed) {
+        for (Track track : removed) {
+            removeFromTree(track);
+            if (store != null)
+                store.remove(track.getTrackData());
+        }
+        for (Track track : added) {
+            if (store != null)
+                store.add(track.getTrackData());
+            addToTree(track);
+        }
+        int moved = 0;
+        for (Track track : changed) {
+            String[] path = evalPath(track);
+            TrackNode node = trackNodes.get(track);
+            if (node == null || path == null || !isAt(node, path)) {
+                removeFromTree(track);
+                addToTree(track, path);
+                moved++;
+            }
+        }
+        logger.info("Updated tree: " + added.size() + " added, " + removed.size() + " removed, " + moved + " moved");
+    }
 
-                MappedTreeNode node = (MappedTreeNode) rootNode;
-                for (int i = 0; i < path.length - 1; i++) {
-                    node = node.get(path[i]);
+    private String[] evalPath(Track track) {
+        Object val = viewExpression.eval(track);
+        if (val == null)
+            return null;
+
+        String[] path = val.toString().split("\\|");
+        return path.length < 2 ? null : path;
+    }
+
+    private boolean isAt(TrackNode node, String[] path) {
+        MappedTreeNode current = node;
+        for (int i = path.length - 1; i >= 0; i--) {
+            if (current == null || current == rootNode || !current.getName().equals(path[i]))
+                return false;
+            current = (MappedTreeNode) current.getParent();
+        }
+        return current == rootNode;
+    }
+
+    private void addToTree(Track track) {
+        addToTree(track, evalPath(track));
+    }
+
+    private void addToTree(Track track, String[] path) {
+        if (path != null) {
+            MappedTreeNode node = (MappedTreeNode) rootNode;
+            // topmost branch that did not exist before
+            MappedTreeNode created = null;
+            for (int i = 0; i < path.length - 1; i++) {
+                MappedTreeNode child = node.find(path[i]);
+                if (child == null) {
+                    child = node.get(path[i]);
+                    if (created == null)
+                        created = child;
                 }
+                node = child;
+            }
+
+            //noinspection RedundantStringConstructorCall
+            TrackNode trackNode = new TrackNode(track, new String(path[path.length - 1]));
+            node.add(trackNode);
+            trackNodes.put(track, trackNode);
 
-                //noinspection RedundantStringConstructorCall
-                node.add(new TrackNode(track, new String(path[path.length - 1])));
+            if (!rebuilding && treeModel != null) {
+                MappedTreeNode inserted = created != null ? created : trackNode;
+                MappedTreeNode parent = (MappedTreeNode) inserted.getParent();
+                treeModel.nodesWereInserted(parent, new int[]{parent.getIndex(inserted)});
             }
         }
-        logger.info("Finished rebuilding tree: total time: " + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    private void removeFromTree(Track track) {
+        TrackNode node = trackNodes.remove(track);
+        if (node == null || node.getParent() == null)
+            return;
+
+        // branches left empty go away with the track
+        MappedTreeNode removed = node;
+        MappedTreeNode parent = (MappedTreeNode) node.getParent();
+        while (parent != rootNode && parent.getParent() != null && parent.getChildCount() == 1) {
+            removed = parent;
+            parent = (MappedTreeNode) parent.getParent();
+        }
+        int index = parent.getIndex(removed);
+        parent.remove(removed);
+        if (!rebuilding && treeModel != null)
+            treeModel.nodesWereRemoved(parent, new int[]{index}, new Object[]{removed});
     }
 }
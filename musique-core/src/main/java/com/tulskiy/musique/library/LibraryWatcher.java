@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches library folders and feeds file changes to
+ * {@link Library#update(Collection, Collection)} in batches.
+ * <p/>
+ * Events are coalesced until the folders stay quiet for
+ * {@code library.watchDelay} milliseconds, so copying an album
+ * results in a single update. A batch is never held for more than ten
+ * times that delay, so constantly changing folders still get updated.
+ */
+public class LibraryWatcher extends Thread {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryWatcher.class.getName());
+
+    private final Library library;
+    private final List<String> folders;
+    private final long delay;
+    private WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+
+    private final LinkedHashSet<File> changed = new LinkedHashSet<File>();
+    private final LinkedHashSet<File> removed = new LinkedHashSet<File>();
+    private long batchStarted;
+    private long lastEvent;
+    private boolean overflow;
+
+    public LibraryWatcher(Library library, List<String> folders, long delay) {
+        super("Library Watcher");
+        setDaemon(true);
+        this.library = library;
+        this.folders = new ArrayList<String>(folders);
+        this.delay = delay;
+    }
+
+    @Override
+    public void run() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (String folder : folders) {
+                Path root = Paths.get(folder).toAbsolutePath();
+                if (Files.isDirectory(root))
+                    register(root, null);
+            }
+            logger.info("Watching " + keys.size() + " library folders");
+
+            while (!isInterrupted()) {
+                WatchKey key;
+                if (changed.isEmpty() && removed.isEmpty() && !overflow) {
+                    key = watchService.take();
+                } else {
+                    long now = System.currentTimeMillis();
+                    long wait = Math.min(lastEvent + delay, batchStarted + delay * 10) - now;
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
+
+                Path dir = keys.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    processEvent(dir, event);
+                }
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (ClosedWatchServiceException ignored) {
+        } catch (IOException e) {
+            logger.error("Could not watch library folders: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    public void stopWatching() {
+        interrupt();
+        close();
+    }
+
+    private void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void processEvent(Path dir, WatchEvent<?> event) {
+        if (batchStarted == 0)
+            batchStarted = System.currentTimeMillis();
+        lastEvent = System.currentTimeMillis();
+
+        if (event.kind() == OVERFLOW || dir == null) {
+            overflow = true;
+            return;
+        }
+
+        Path path = dir.resolve((Path) event.context());
+        if (path.getFileName().toString().startsWith("."))
+            return;
+
+        File file = path.toFile();
+        if (event.kind() == ENTRY_DELETE) {
+            changed.remove(file);
+            removed.add(file);
+        } else if (Files.isDirectory(path)) {
+            // files copied into a new directory may be there before
+            // the directory is registered, so pick them up by walking it
+            register(path, changed);
+        } else {
+            removed.remove(file);
+            changed.add(file);
+        }
+    }
+
+    private void flush() {
+        try {
+            if (overflow) {
+                logger.info("Too many changes in library folders, rescanning");
+                library.rescan(null);
+            } else {
+                logger.info("Library folders changed: " + changed.size() + " files modified, " + removed.size() + " removed");
+                update(new ArrayList<File>(changed), new ArrayList<File>(removed));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        changed.clear();
+        removed.clear();
+        overflow = false;
+        batchStarted = 0;
+    }
+
+    void update(List<File> changed, List<File> removed) {
+        library.update(changed, removed);
+    }
+
+    WatchKey watch(Path dir) throws IOException {
+        return dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    }
+
+    /**
+     * Watches the directory and all its subdirectories. Directories that
+     * can't be watched, for example because they were deleted right after
+     * being created, are skipped, only a closed watch service is fatal.
+     */
+    private void register(final Path start, final Collection<File> files) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    try {
+                        if (!dir.equals(start) && Files.isHidden(dir))
+                            return FileVisitResult.SKIP_SUBTREE;
+                        keys.put(watch(dir), dir);
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException e) {
+                        logger.warn("Could not watch folder " + dir + ": " + e);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (files != null && attrs.isRegularFile() && !Files.isHidden(file)) {
+                        removed.remove(file.toFile());
+                        files.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not watch folder " + start + ": " + e);
+        }
+    }
+}
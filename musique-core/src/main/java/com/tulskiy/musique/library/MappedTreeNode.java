@@ -14,23 +14,30 @@
  * You should have received a copy of the GNU Lesser General Public License
  * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.tulskiy.musique.library;
 
 import javax.swing.tree.TreeNode;
 import java.util.*;
 
 /**
+ * Tree node that keeps its children sorted by name in an array, so
+ * that lookups by name and {@link #getIndex(TreeNode)} are binary
+ * searches and {@link #getChildAt(int)} is constant time.
+ * <p/>
  * Author: Denis Tulskiy
  * Date: 3/27/11
  */
 public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
-    private TreeMap<String, MappedTreeNode> children;
+    private ArrayList<MappedTreeNode> children;
     private MappedTreeNode parent;
     private String name;
+    // name, made unique among siblings for tracks with equal names
+    private String key;
+    private int duplicates;
 
     MappedTreeNode(String name) {
         this.name = name;
+        this.key = name;
     }
 
     @Override
@@ -40,11 +47,7 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
 
     @Override
     public TreeNode getChildAt(int childIndex) {
-        Iterator<MappedTreeNode> it = children.values().iterator();
-        for (int i = 0; i < childIndex; i++) {
-            it.next();
-        }
-        return it.next();
+        return children.get(childIndex);
     }
 
     public String getName() {
@@ -52,25 +55,78 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
     }
 
     public MappedTreeNode get(String object) {
-        MappedTreeNode node = null;
-        if (children != null)
-            node = children.get(object);
-        if (node == null) {
-            node = new MappedTreeNode(new String(object));
-            add(node);
-        }
+        int index = indexOf(object);
+        if (index >= 0)
+            return children.get(index);
 
+        //noinspection RedundantStringConstructorCall
+        MappedTreeNode node = new MappedTreeNode(new String(object));
+        insert(node, -index - 1);
         return node;
     }
 
+    /**
+     * @return child branch with given name or null if there is none
+     */
+    public MappedTreeNode find(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? children.get(index) : null;
+    }
+
     public void add(MappedTreeNode node) {
+        node.key = node.getName();
+        int index = indexOf(node.key);
+        if (index >= 0) {
+            if (node instanceof TrackNode) {
+                // tracks can have equal names, keep them all
+                node.key = node.getName() + '\u0000' + (++duplicates);
+                index = indexOf(node.key);
+            } else {
+                children.get(index).setParent(null);
+                children.set(index, node);
+                node.setParent(this);
+                return;
+            }
+        }
+        insert(node, -index - 1);
+    }
+
+    public void remove(MappedTreeNode node) {
+        if (node.getParent() != this)
+            return;
+        int index = indexOf(node.key);
+        if (index >= 0 && children.get(index) == node) {
+            children.remove(index);
+            node.setParent(null);
+        }
+    }
+
+    private void insert(MappedTreeNode node, int index) {
         if (children == null) {
-            children = new TreeMap<String, MappedTreeNode>();
+            children = new ArrayList<MappedTreeNode>();
         }
-        children.put(node.getName(), node);
+        children.add(index, node);
         node.setParent(this);
     }
 
+    private int indexOf(String key) {
+        if (children == null)
+            return -1;
+        int low = 0;
+        int high = children.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = children.get(mid).key.compareTo(key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
     @Override
     public int getChildCount() {
         if (children == null)
@@ -90,14 +146,10 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
 
     @Override
     public int getIndex(TreeNode node) {
-        int i = 0;
-        for (MappedTreeNode child : children.values()) {
-            if (child.equals(node)) {
-                return i;
-            }
-            i++;
-        }
-        return -1;
+        if (!(node instanceof MappedTreeNode) || node.getParent() != this)
+            return -1;
+        int index = indexOf(((MappedTreeNode) node).key);
+        return index >= 0 && children.get(index) == node ? index : -1;
     }
 
     @Override
@@ -112,19 +164,9 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
 
     @Override
     public Enumeration<MappedTreeNode> children() {
-        return new Enumeration<MappedTreeNode>() {
-            Iterator<MappedTreeNode> itr = children.values().iterator();
-
-            @Override
-            public boolean hasMoreElements() {
-                return itr.hasNext();
-            }
-
-            @Override
-            public MappedTreeNode nextElement() {
-                return itr.next();
-            }
-        };
+        if (children == null)
+            return Collections.emptyEnumeration();
+        return Collections.enumeration(children);
     }
 
     public List<MappedTreeNode> iterate() {
@@ -134,7 +176,7 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
             list.add(this);
         }
         if (children != null) {
-            for (MappedTreeNode node : children.values()) {
+            for (MappedTreeNode node : children) {
                 if (node.isLeaf()) {
                     list.add(node);
                 } else {
@@ -153,7 +195,7 @@ public class MappedTreeNode implements TreeNode, Comparable<MappedTreeNode> {
 
     public void removeAllChildren() {
         if (children != null) {
-            for (MappedTreeNode child : children.values()) {
+            for (MappedTreeNode child : children) {
                 child.removeAllChildren();
             }
             children.clear();
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.model.FieldValues;
+import com.tulskiy.musique.util.Util;
+import org.jaudiotagger.tag.FieldKey;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Playlist file, version 4. Layout:
+ * <pre>
+ * header      magic, version, track count, string count, string bytes, tag count
+ * strings     offsets of every string, then all strings in UTF-8
+ * tracks      fixed size records, see RECORD_SIZE
+ * tags        pairs of string ids, key and value, tags of a track are adjacent
+ * </pre>
+ * Every string is stored once, records and tags refer to it by id. The file
+ * is read into memory in one go and closed, technical fields are decoded
+ * when playlist loads, tags are decoded when the track is first asked for
+ * them. Nothing keeps the file open, so it can be replaced at any time.
+ */
+class MappedPlaylist {
+    static final int VERSION = 4;
+
+    private static final int HEADER_SIZE = Playlist.MAGIC.length + 5 * 4;
+    private static final int RECORD_SIZE = 80;
+    private static final int TAG_SIZE = 8;
+    private static final int CUE_EMBEDDED = 1;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int offsets;
+    private final int strings;
+    private final int records;
+    private final int tags;
+    private final String[] cache;
+
+    private MappedPlaylist(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        byte[] magic = new byte[Playlist.MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, Playlist.MAGIC))
+            throw new IOException("Wrong magic word");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Wrong playlist version: " + version);
+
+        size = buffer.getInt();
+        int stringCount = buffer.getInt();
+        int stringBytes = buffer.getInt();
+        int tagCount = buffer.getInt();
+
+        offsets = HEADER_SIZE;
+        strings = offsets + (stringCount + 1) * 4;
+        records = strings + stringBytes;
+        tags = records + size * RECORD_SIZE;
+        if (tags + (long) tagCount * TAG_SIZE > buffer.limit())
+            throw new IOException("Playlist file is truncated");
+
+        cache = new String[stringCount];
+    }
+
+    /**
+     * Reads playlist file to memory
+     *
+     * @param file playlist file
+     * @return playlist ready to be decoded
+     * @throws IOException if file could not be read or has wrong format
+     */
+    static MappedPlaylist open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Playlist file is too big");
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1)
+                    throw new IOException("Playlist file is truncated");
+            }
+            buffer.flip();
+            return new MappedPlaylist(buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Reads technical fields of the track, tags are not read
+     *
+     * @param index index of the track
+     * @return new track data
+     */
+    synchronized TrackData read(int index) {
+        int record = records + index * RECORD_SIZE;
+        TrackData trackData = new TrackData();
+        trackData.setLocation(getString(buffer.getInt(record)));
+        trackData.setStartPosition(buffer.getLong(record + 4));
+        trackData.setTotalSamples(buffer.getLong(record + 12));
+        trackData.setSubsongIndex(buffer.getInt(record + 20));
+        if (trackData.getSubsongIndex() > 0) {
+            trackData.setCueEmbedded((buffer.getInt(record + 24) & CUE_EMBEDDED) != 0);
+            trackData.setCueLocation(getString(buffer.getInt(record + 28)));
+        }
+        trackData.setBps(buffer.getInt(record + 32));
+        trackData.setChannels(buffer.getInt(record + 36));
+        trackData.setSampleRate(buffer.getInt(record + 40));
+        trackData.setBitrate(buffer.getInt(record + 44));
+        trackData.setDateAdded(buffer.getLong(record + 48));
+        trackData.setLastModified(buffer.getLong(record + 56));
+        String codec = getString(buffer.getInt(record + 64));
+        if (codec != null)
+            trackData.setCodec(codec);
+        String encoder = getString(buffer.getInt(record + 68));
+        if (encoder != null)
+            trackData.setEncoder(encoder);
+        return trackData;
+    }
+
+    /**
+     * Lets track data read its tags from this file when they are needed
+     *
+     * @param index     index of the track
+     * @param trackData track data returned by {@link #read(int)}
+     */
+    void readTagsLazily(int index, TrackData trackData) {
+        if (buffer.getInt(records + index * RECORD_SIZE + 76) > 0) {
+            trackData.setMapped(this, index);
+        }
+    }
+
+    synchronized void readTags(int index, TrackData trackData) {
+        int record = records + index * RECORD_SIZE;
+        int tag = tags + buffer.getInt(record + 72) * TAG_SIZE;
+        int count = buffer.getInt(record + 76);
+        for (int i = 0; i < count; i++, tag += TAG_SIZE) {
+            FieldKey key = FieldKey.valueOf(getString(buffer.getInt(tag)));
+            trackData.addTagFieldValues(key, getString(buffer.getInt(tag + 4)));
+        }
+    }
+
+    private String getString(int id) {
+        if (id < 0)
+            return null;
+
+        String value = cache[id];
+        if (value == null) {
+            int start = buffer.getInt(offsets + id * 4);
+            int end = buffer.getInt(offsets + id * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(strings + start);
+            dup.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            cache[id] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Writes tracks to playlist file. Data is written to a temporary file
+     * first, which then replaces the playlist file, so that the old file
+     * stays intact if writing fails.
+     *
+     * @param file   playlist file
+     * @param tracks tracks to write
+     * @throws IOException if file could not be written
+     */
+    static void write(File file, List<Track> tracks) throws IOException {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        ByteBuffer recordTable = ByteBuffer.allocate(tracks.size() * RECORD_SIZE);
+        ByteArrayOutputStream tagBytes = new ByteArrayOutputStream();
+        DataOutputStream tagTable = new DataOutputStream(tagBytes);
+        int tagCount = 0;
+
+        for (Track track : tracks) {
+            TrackData trackData = track.getTrackData();
+            trackData.removeEmptyTagFields();
+            recordTable.putInt(id(dictionary, trackData.getLocation().toString()));
+            recordTable.putLong(trackData.getStartPosition());
+            recordTable.putLong(trackData.getTotalSamples());
+            recordTable.putInt(trackData.getSubsongIndex());
+            if (trackData.getSubsongIndex() > 0) {
+                recordTable.putInt(trackData.isCueEmbedded() ? CUE_EMBEDDED : 0);
+                String cueLocation = trackData.getCueLocation();
+                recordTable.putInt(trackData.isCueEmbedded() || cueLocation == null ? -1 : id(dictionary, cueLocation));
+            } else {
+                recordTable.putInt(0);
+                recordTable.putInt(-1);
+            }
+            recordTable.putInt(trackData.getBps());
+            recordTable.putInt(trackData.getChannels());
+            recordTable.putInt(trackData.getSampleRate());
+            recordTable.putInt(trackData.getBitrate());
+            recordTable.putLong(trackData.getDateAdded());
+            recordTable.putLong(trackData.getLastModified());
+            recordTable.putInt(Util.isEmpty(trackData.getCodec()) ? -1 : id(dictionary, trackData.getCodec()));
+            recordTable.putInt(Util.isEmpty(trackData.getEncoder()) ? -1 : id(dictionary, trackData.getEncoder()));
+
+            int first = tagCount;
+            Iterator<Entry<FieldKey, FieldValues>> fields = trackData.getAllTagFieldValuesIterator();
+            while (fields.hasNext()) {
+                Entry<FieldKey, FieldValues> field = fields.next();
+                int key = id(dictionary, field.getKey().toString());
+                for (int i = 0; i < field.getValue().size(); i++) {
+                    String value = field.getValue().get(i);
+                    if (value != null) {
+                        tagTable.writeInt(key);
+                        tagTable.writeInt(id(dictionary, value));
+                        tagCount++;
+                    }
+                }
+            }
+            recordTable.putInt(first);
+            recordTable.putInt(tagCount - first);
+        }
+
+        ArrayList<byte[]> strings = new ArrayList<byte[]>(dictionary.size());
+        int stringBytes = 0;
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            strings.add(bytes);
+            stringBytes += bytes.length;
+        }
+
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        boolean written = false;
+        try {
+            dos.write(Playlist.MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(tracks.size());
+            dos.writeInt(strings.size());
+            dos.writeInt(stringBytes);
+            dos.writeInt(tagCount);
+
+            int offset = 0;
+            dos.writeInt(offset);
+            for (byte[] bytes : strings) {
+                offset += bytes.length;
+                dos.writeInt(offset);
+            }
+            for (byte[] bytes : strings) {
+                dos.write(bytes);
+            }
+            dos.write(recordTable.array());
+            tagBytes.writeTo(dos);
+            dos.close();
+            replace(temp, file);
+            written = true;
+        } finally {
+            dos.close();
+            if (!written && !temp.delete())
+                temp.deleteOnExit();
+        }
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int id(HashMap<String, Integer> dictionary, String value) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(value, id);
+        }
+        return id;
+    }
+}
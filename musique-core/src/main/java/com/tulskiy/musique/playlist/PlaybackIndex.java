@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Position tables used by {@link PlaybackOrder}, so that finding the
+ * next track does not have to scan the playlist.
+ * <p/>
+ * For every position it keeps the nearest playable tracks around it and
+ * the first and last track of its group and album. Shuffle orders are
+ * tracks and first tracks of groups and albums sorted by shuffle rating.
+ * Tables are rebuilt lazily when the playlist or its grouping changes,
+ * album tables also when tags change.
+ */
+class PlaybackIndex {
+    private final Playlist playlist;
+
+    private int modCount = -1;
+    private IdentityHashMap<Track, Integer> positions = new IdentityHashMap<Track, Integer>();
+    private int[] nextPlayable = new int[0];
+    private int[] prevPlayable = new int[0];
+
+    private Order tracks;
+
+    private PlaylistGroups groupSource;
+    private Runs groups;
+
+    private Expression albumPattern;
+    private int[] albumVersions;
+    private Runs albums;
+
+    PlaybackIndex(Playlist playlist) {
+        this.playlist = playlist;
+    }
+
+    /**
+     * @param track track to look for
+     * @return position of the first occurrence of the track, -1 if it is not in the playlist
+     */
+    synchronized int indexOf(Track track) {
+        update();
+        Integer position = positions.get(track);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @param index position in the playlist, -1 to start from the beginning
+     * @return position of the next playable track, -1 if there is none
+     */
+    synchronized int next(int index) {
+        update();
+        if (index < 0)
+            return nextPlayable.length == 0 ? -1 : isPlayable(0) ? 0 : nextPlayable[0];
+        return nextPlayable[index];
+    }
+
+    /**
+     * @param index position in the playlist
+     * @return position of the previous playable track, -1 if there is none
+     */
+    synchronized int prev(int index) {
+        update();
+        return prevPlayable[index];
+    }
+
+    /**
+     * @param index position of a playable track
+     * @param step  1 for the next track in shuffle order, -1 for the previous one
+     * @return position of the track, -1 if index is the only track
+     */
+    synchronized int shuffleTrack(int index, int step) {
+        update();
+        if (tracks == null) {
+            int count = 0;
+            for (int i = 0; i < nextPlayable.length; i++) {
+                if (isPlayable(i))
+                    count++;
+            }
+            int[] indices = new int[count];
+            count = 0;
+            for (int i = 0; i < nextPlayable.length; i++) {
+                if (isPlayable(i))
+                    indices[count++] = i;
+            }
+            tracks = new Order(indices);
+        }
+        return tracks.step(index, step, false);
+    }
+
+    /**
+     * @param index position of a playable track
+     * @return position of the first track of the group, whole playlist is one group if it is not grouped
+     */
+    synchronized int groupHead(int index) {
+        return updateGroups().head[index];
+    }
+
+    /**
+     * @param index position of a playable track
+     * @return position of the last track of the group
+     */
+    synchronized int groupTail(int index) {
+        return updateGroups().tail[index];
+    }
+
+    /**
+     * @param index first track of a group
+     * @param step  1 for the next group in shuffle order, -1 for the previous one
+     * @return first track of the group, index itself if it is the only group
+     */
+    synchronized int shuffleGroup(int index, int step) {
+        return updateGroups().step(index, step);
+    }
+
+    /**
+     * @param index   position of a playable track
+     * @param pattern album expression
+     * @return position of the first track of the album
+     */
+    synchronized int albumHead(int index, Expression pattern) {
+        return updateAlbums(pattern).head[index];
+    }
+
+    /**
+     * @param index   position of a playable track
+     * @param pattern album expression
+     * @return position of the last track of the album
+     */
+    synchronized int albumTail(int index, Expression pattern) {
+        return updateAlbums(pattern).tail[index];
+    }
+
+    /**
+     * @param index   first track of an album
+     * @param step    1 for the next album in shuffle order, -1 for the previous one
+     * @param pattern album expression
+     * @return first track of the album, index itself if it is the only album
+     */
+    synchronized int shuffleAlbum(int index, int step, Expression pattern) {
+        return updateAlbums(pattern).step(index, step);
+    }
+
+    private boolean isPlayable(int index) {
+        return playlist.get(index).getTrackData().getLocation() != null;
+    }
+
+    private void update() {
+        int currentModCount = playlist.getModCount();
+        if (currentModCount == modCount)
+            return;
+
+        int size = playlist.size();
+        positions.clear();
+        nextPlayable = new int[size];
+        prevPlayable = new int[size];
+        boolean[] playable = new boolean[size];
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            Track track = playlist.get(i);
+            if (!positions.containsKey(track))
+                positions.put(track, i);
+            playable[i] = track.getTrackData().getLocation() != null;
+            prevPlayable[i] = last;
+            if (playable[i])
+                last = i;
+        }
+        last = -1;
+        for (int i = size - 1; i >= 0; i--) {
+            nextPlayable[i] = last;
+            if (playable[i])
+                last = i;
+        }
+
+        tracks = null;
+        groups = null;
+        albums = null;
+        modCount = currentModCount;
+    }
+
+    private Runs updateGroups() {
+        update();
+        PlaylistGroups current = playlist.getGroups();
+        if (groups != null && current == groupSource)
+            return groups;
+
+        int[] ids = new int[nextPlayable.length];
+        for (int g = 0; g < current.getGroupCount(); g++) {
+            int end = g + 1 < current.getGroupCount() ? current.getGroupStart(g + 1) : ids.length;
+            Arrays.fill(ids, current.getGroupStart(g), end, g);
+        }
+        groups = new Runs(ids);
+        groupSource = current;
+        return groups;
+    }
+
+    private Runs updateAlbums(Expression pattern) {
+        update();
+        if (albums != null && pattern == albumPattern && !tagsChanged())
+            return albums;
+
+        int[] ids = new int[nextPlayable.length];
+        int[] versions = new int[ids.length];
+        Object value = null;
+        int id = -1;
+        for (int i = 0; i < ids.length; i++) {
+            if (!isPlayable(i))
+                continue;
+            Track track = playlist.get(i);
+            versions[i] = track.getTrackData().getTagVersion();
+            Object current = pattern.eval(track);
+            if (id == -1 || !equals(value, current)) {
+                id++;
+                value = current;
+            }
+            ids[i] = id;
+        }
+        albums = new Runs(ids);
+        albumPattern = pattern;
+        albumVersions = versions;
+        return albums;
+    }
+
+    /**
+     * @return whether tags of any playable track changed since albums were built
+     */
+    private boolean tagsChanged() {
+        for (int i = 0; i < albumVersions.length; i++) {
+            if (isPlayable(i) && albumVersions[i] != playlist.get(i).getTrackData().getTagVersion())
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean equals(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    /**
+     * Consecutive playable tracks with the same id, tracks that can't be
+     * played are skipped and don't break runs
+     */
+    private class Runs {
+        private int[] head;
+        private int[] tail;
+        private Order heads;
+
+        Runs(int[] ids) {
+            int size = ids.length;
+            head = new int[size];
+            tail = new int[size];
+            int count = 0;
+            int current = -1;
+            for (int i = 0; i < size; i++) {
+                if (!isPlayable(i)) {
+                    head[i] = -1;
+                    continue;
+                }
+                if (current == -1 || ids[current] != ids[i]) {
+                    current = i;
+                    count++;
+                }
+                head[i] = current;
+            }
+            current = -1;
+            for (int i = size - 1; i >= 0; i--) {
+                if (head[i] == -1) {
+                    tail[i] = -1;
+                    continue;
+                }
+                if (current == -1 || head[current] != head[i])
+                    current = i;
+                tail[i] = current;
+            }
+
+            int[] indices = new int[count];
+            count = 0;
+            for (int i = 0; i < size; i++) {
+                if (head[i] == i)
+                    indices[count++] = i;
+            }
+            heads = new Order(indices);
+        }
+
+        int step(int index, int step) {
+            return heads.step(index, step, true);
+        }
+    }
+
+    /**
+     * Positions sorted by shuffle rating of their tracks
+     */
+    private class Order {
+        private int[] order;
+        private int[] ranks;
+
+        Order(int[] indices) {
+            long[] keys = new long[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                int rating = playlist.get(indices[i]).getShuffleRating();
+                keys[i] = ((long) rating << 32) | indices[i];
+            }
+            Arrays.sort(keys);
+
+            order = new int[keys.length];
+            ranks = new int[nextPlayable.length];
+            for (int i = 0; i < keys.length; i++) {
+                order[i] = (int) keys[i];
+                ranks[order[i]] = i;
+            }
+        }
+
+        int step(int index, int step, boolean wrapSelf) {
+            int count = order.length;
+            if (count == 0 || (count == 1 && !wrapSelf))
+                return -1;
+            int rank = ranks[index];
+            // index is not in this order, start from the beginning
+            if (order[rank] != index)
+                return order[0];
+            return order[((rank + step) % count + count) % count];
+        }
+    }
+}
@@ -32,6 +32,9 @@ import java.util.List;
  * <p/>
  * Idea fot the shuffle algorithm taken from streamer.c from DeadBeef project
  * <p/>
+ * Positions, groups, albums and shuffle orders are looked up in
+ * {@link PlaybackIndex} of the playlist instead of scanning it.
+ * <p/>
  * Author: Denis Tulskiy
  * Date: Jul 1, 2010
  */
@@ -80,6 +83,7 @@ public class PlaybackOrder {
     private Order order = Order.DEFAULT;
     private List<QueueTuple> queue = new ArrayList<QueueTuple>();
     private Track lastPlayed;
+    private Track randomNext;
     private Expression albumFormat;
 
     public PlaybackOrder() {
@@ -132,321 +136,166 @@ public class PlaybackOrder {
         updateQueuePositions();
     }
 
-    private Track getTrack(int index) {
-        if (index != -1) {
-            Track track = playlist.get(index);
-            // technically, separator can not be the last track
-            // so we just get the next track
-            if (track.getTrackData().getLocation() == null)
-                return playlist.get(index + 1);
-            return track;
-        } else {
-            return null;
-        }
+    private Track get(int index) {
+        return index == -1 ? null : playlist.get(index);
     }
 
-    private Track next(int index) {
-        index = index < playlist.size() - 1 ? index + 1 : -1;
-        if (index != -1) {
-            Track track = playlist.get(index);
-            // technically, separator can not be the last track
-            // so we just get the next track
-            if (track.getTrackData().getLocation() == null)
-                return next(index);
-            return track;
-        } else {
-            return null;
-        }
+    public Track next(Track currentTrack) {
+        return next(currentTrack, true);
     }
 
-    private Track prev(int index) {
-        index--;
-        if (index >= 0) {
-            Track track = playlist.get(index);
-            if (track.getTrackData().getLocation() == null)
-                return prev(index);
-            return track;
-        } else {
-            return null;
-        }
+    /**
+     * Finds the track that {@link #next(Track)} would return now, but
+     * leaves the queue and the last played track alone
+     *
+     * @param currentTrack track that is playing
+     * @return track that plays next unless the queue or the order changes
+     */
+    public Track peekNext(Track currentTrack) {
+        return next(currentTrack, false);
     }
 
-    public Track next(Track currentTrack) {
-        int index;
-
+    private Track next(Track currentTrack, boolean commit) {
         if (!queue.isEmpty()) {
-            QueueTuple tuple = queue.remove(0);
+            QueueTuple tuple = queue.get(0);
             Track track = tuple.track;
-            setPlaylist(tuple.playlist);
-            track.setQueuePosition(-1);
-            updateQueuePositions();
+            if (commit) {
+                queue.remove(0);
+                setPlaylist(tuple.playlist);
+                track.setQueuePosition(-1);
+                updateQueuePositions();
+            }
             return track;
         }
 
         if (playlist == null || playlist.size() <= 0)
             return null;
 
+        PlaybackIndex playback = playlist.getPlaybackIndex();
         if (lastPlayed != null) {
-            if (playlist.contains(lastPlayed)) {
+            if (playback.indexOf(lastPlayed) != -1) {
                 Track track = lastPlayed;
-                lastPlayed = null;
+                if (commit)
+                    lastPlayed = null;
                 return track;
             }
         }
 
-        if (currentTrack == null) {
+        if (currentTrack == null)
             return playlist.get(0);
-        } else {
-            index = playlist.indexOf(currentTrack);
-            if (index == -1)
-                return playlist.get(0);
-
-            Track track;
-
-            switch (order) {
-                case DEFAULT:
-                    return next(index);
-                case REPEAT:
-                    track = next(index);
-                    return track != null ? track : getTrack(0);
-                case REPEAT_TRACK:
-                    return currentTrack;
-                case REPEAT_ALBUM:
-                    return nextPatternMatch(currentTrack, index, albumFormat, false);
-                case REPEAT_GROUP:
-                    if (index + 1 < playlist.size()) {
-                        Track tr = playlist.get(index + 1);
-                        if (tr.getTrackData().getLocation() != null) {
-                            return tr;
-                        }
-                    }
-
-                    for (int i = index; i >= 0; i--) {
-                        if (playlist.get(i).getTrackData().getLocation() == null) {
-                            return playlist.get(i + 1);
-                        }
-                    }
-                    return playlist.get(0);
-                case SHUFFLE_ALBUMS:
-                    return nextPatternMatch(currentTrack, index, albumFormat, true);
-                case SHUFFLE_GROUPS:
-                    if (index + 1 < playlist.size()) {
-                        Track tr = playlist.get(index + 1);
-                        if (tr.getTrackData().getLocation() != null) {
-                            return tr;
-                        }
-                    }
-
-                    for (int i = index; i >= 0; i--) {
-                        Track separator = playlist.get(i);
-                        if (separator.getTrackData().getLocation() == null) {
-                            separator = nextShuffle(separator, true, null);
-
-                            return next(playlist.indexOf(separator));
-                        }
-                    }
-                    return playlist.get(0);
-                case RANDOM:
-                    return nextRandom();
-                case SHUFFLE:
-                    return nextShuffle(currentTrack, false, null);
-            }
-        }
 
-        return getTrack(index);
-    }
+        int index = playback.indexOf(currentTrack);
+        if (index == -1)
+            return playlist.get(0);
 
-    private Track nextPatternMatch(Track currentTrack, int index, Expression pattern, boolean shuffle) {
         Track track;
-        Object result = pattern.eval(currentTrack);
-
-        track = next(index);
-
-        if (track != null) {
-            if (equals(result, pattern.eval(track))) {
-                return track;
-            }
-        }
-
-        for (int i = index; i >= 0; i--) {
-            track = playlist.get(i);
-            if (!equals(result, pattern.eval(track))) {
-                Track next = next(i);
-                if (shuffle) {
-                    return nextShuffle(next, false, pattern);
-                } else {
-                    return next;
-                }
-            }
+        int head;
+        int next;
+        switch (order) {
+            case DEFAULT:
+                return get(playback.next(index));
+            case REPEAT:
+                track = get(playback.next(index));
+                return track != null ? track : playlist.get(0);
+            case REPEAT_TRACK:
+                return currentTrack;
+            case REPEAT_ALBUM:
+            case SHUFFLE_ALBUMS:
+                head = playback.albumHead(index, albumFormat);
+                next = playback.next(index);
+                if (head == -1 || (next != -1 && playback.albumHead(next, albumFormat) == head))
+                    return get(next);
+
+                if (order == Order.REPEAT_ALBUM)
+                    return playlist.get(head);
+                return playlist.get(playback.shuffleAlbum(head, 1, albumFormat));
+            case REPEAT_GROUP:
+            case SHUFFLE_GROUPS:
+                head = playback.groupHead(index);
+                next = playback.next(index);
+                if (head == -1 || (next != -1 && playback.groupHead(next) == head))
+                    return get(next);
+
+                if (order == Order.REPEAT_GROUP)
+                    return playlist.get(head);
+                return playlist.get(playback.shuffleGroup(head, 1));
+            case RANDOM:
+                return nextRandom(commit);
+            case SHUFFLE:
+                return get(playback.shuffleTrack(index, 1));
         }
 
-        return track;
+        return playlist.get(index);
     }
 
     public Track prev(Track currentTrack) {
         if (playlist == null || playlist.size() <= 0)
             return null;
 
-        int index = playlist.indexOf(currentTrack);
+        PlaybackIndex playback = playlist.getPlaybackIndex();
+        int index = playback.indexOf(currentTrack);
         if (index == -1)
             return null;
 
         int size = playlist.size();
 
         Track track;
+        int head;
+        int prev;
         switch (order) {
             case DEFAULT:
-                return prev(index);
+                return get(playback.prev(index));
             case REPEAT:
-                track = prev(index);
-                return track != null ? track : getTrack(size - 1);
+                track = get(playback.prev(index));
+                return track != null ? track : playlist.get(size - 1);
             case REPEAT_TRACK:
                 return currentTrack;
             case REPEAT_ALBUM:
-                return prevPatternMatch(currentTrack, index, albumFormat, false);
-            case REPEAT_GROUP:
-                if (index > 0) {
-                    Track tr = playlist.get(index - 1);
-                    if (tr.getTrackData().getLocation() != null) {
-                        return tr;
-                    }
-                }
-
-                for (int i = index + 1; i < size; i++) {
-                    if (playlist.get(i).getTrackData().getLocation() == null) {
-                        return playlist.get(i - 1);
-                    }
-                }
-
-                return playlist.get(size - 1);
             case SHUFFLE_ALBUMS:
-                return prevPatternMatch(currentTrack, index, albumFormat, true);
+                head = playback.albumHead(index, albumFormat);
+                prev = playback.prev(index);
+                if (head == -1 || (prev != -1 && playback.albumHead(prev, albumFormat) == head))
+                    return get(prev);
+
+                if (order == Order.REPEAT_ALBUM)
+                    return playlist.get(playback.albumTail(index, albumFormat));
+                return playlist.get(playback.shuffleAlbum(head, -1, albumFormat));
+            case REPEAT_GROUP:
             case SHUFFLE_GROUPS:
-                if (index > 0) {
-                    Track tr = playlist.get(index - 1);
-                    if (tr.getTrackData().getLocation() != null) {
-                        return tr;
-                    }
-                }
-
-                for (int i = index; i >= 0; i--) {
-                    Track separator = playlist.get(i);
-                    if (separator.getTrackData().getLocation() == null) {
-                        separator = prevShuffle(separator, true, null);
-
-                        return next(playlist.indexOf(separator));
-                    }
-                }
-                return playlist.get(0);
+                head = playback.groupHead(index);
+                prev = playback.prev(index);
+                if (head == -1 || (prev != -1 && playback.groupHead(prev) == head))
+                    return get(prev);
+
+                if (order == Order.REPEAT_GROUP)
+                    return playlist.get(playback.groupTail(index));
+                return playlist.get(playback.shuffleGroup(head, -1));
             case RANDOM:
                 return nextRandom();
             case SHUFFLE:
-                return prevShuffle(currentTrack, false, null);
+                return get(playback.shuffleTrack(index, -1));
         }
 
-        return getTrack(index);
+        return playlist.get(index);
     }
 
-    public Track nextRandom() {
-        return getTrack((int) (Math.random() * playlist.size()));
-    }
-
-    private boolean equals(Object o1, Object o2) {
-        return (o1 != null && o1.equals(o2))
-                || (o1 == null && o2 == null);
-    }
-
-    private Track prevPatternMatch(Track currentTrack, int index, Expression pattern, boolean shuffle) {
-        Track track;
-        Object result = pattern.eval(currentTrack);
-
-        track = prev(index);
-        if (track != null) {
-            if (equals(result, pattern.eval(track))) {
-                return track;
-            }
-        }
-
-        if (shuffle) {
-            return prevShuffle(currentTrack, false, pattern);
-        }
-
-        for (int i = index; i < playlist.size(); i++) {
-            track = playlist.get(i);
-            if (!equals(result, pattern.eval(track))) {
-                return prev(i);
-            }
-        }
-
+    /**
+     * Random pick is remembered until it is committed, so that
+     * peeking and then moving to the next track agree
+     */
+    private Track nextRandom(boolean commit) {
+        Track track = randomNext;
+        if (track == null || !trackPlayable(track))
+            track = nextRandom();
+        randomNext = commit ? null : track;
         return track;
     }
 
-    private Track nextShuffle(Track currentTrack, boolean searchSeparators, Expression pattern) {
-        Track minRating = null;
-        Track minGreater = null;
-        Object patternValue = null;
-        for (Track track : playlist) {
-            if (track == currentTrack
-                    || (searchSeparators && track.getTrackData().getLocation() != null)
-                    || (!searchSeparators && track.getTrackData().getLocation() == null))
-                continue;
-
-            if (pattern != null) {
-                Object value = pattern.eval(track);
-                if (equals(patternValue, value)) {
-                    continue;
-                }
-                patternValue = value;
-            }
-
-            if (minRating == null || track.getShuffleRating() < minRating.getShuffleRating()) {
-                minRating = track;
-            }
-
-            if (track.getShuffleRating() >= currentTrack.getShuffleRating()) {
-                if (minGreater == null || track.getShuffleRating() < minGreater.getShuffleRating()) {
-                    minGreater = track;
-                }
-            }
-        }
-
-        return minGreater != null ? minGreater : minRating;
-    }
-
-    private Track prevShuffle(Track currentTrack, boolean searchSeparators, Expression pattern) {
-        Track maxSmaller = null;
-        Track maxRating = null;
-        Object patternValue = null;
-
-        for (Track track: playlist) {
-            if (track == currentTrack
-                    || (searchSeparators && track.getTrackData().getLocation() != null)
-                    || (!searchSeparators && track.getTrackData().getLocation() == null))
-                continue;
-
-            if (pattern != null) {
-                Object value = pattern.eval(track);
-                if (equals(patternValue, value)) {
-                    continue;
-                }
-                patternValue = value;
-            }
-
-            if (maxRating == null || track.getShuffleRating() > maxRating.getShuffleRating()) {
-                maxRating = track;
-            }
-
-            if (track.getShuffleRating() <= currentTrack.getShuffleRating()) {
-                if (maxSmaller == null || track.getShuffleRating() > maxSmaller.getShuffleRating()) {
-                    maxSmaller = track;
-                }
-            }
-        }
-
-        return maxSmaller != null ? maxSmaller : maxRating;
+    public Track nextRandom() {
+        return playlist.get((int) (Math.random() * playlist.size()));
     }
 
     public boolean trackPlayable(Track track) {
-        return playlist.contains(track);
+        return playlist.getPlaybackIndex().indexOf(track) != -1;
     }
 }
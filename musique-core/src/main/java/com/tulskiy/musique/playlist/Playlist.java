@@ -17,26 +17,27 @@
 
 package com.tulskiy.musique.playlist;
 
-import com.tulskiy.musique.audio.AudioFileReader;
 import com.tulskiy.musique.gui.model.FieldValues;
 import com.tulskiy.musique.gui.playlist.PlaylistColumn;
-import com.tulskiy.musique.gui.playlist.SeparatorTrack;
 import com.tulskiy.musique.playlist.formatting.Parser;
 import com.tulskiy.musique.playlist.formatting.tokens.Expression;
-import com.tulskiy.musique.system.TrackIO;
 import com.tulskiy.musique.util.AudioMath;
 import com.tulskiy.musique.util.Util;
 import org.jaudiotagger.tag.FieldKey;
-import org.jaudiotagger.tag.datatype.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.swing.SwingUtilities;
 import java.io.*;
-import java.net.URI;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Author: Denis Tulskiy
@@ -60,8 +61,11 @@ public class Playlist extends ArrayList<Track> {
 
 	private static MessageFormat format = new MessageFormat("\"{0}\" \"{1}\" {2}");
 
+    // last version written as a stream, newer ones are read by MappedPlaylist
     private static final int VERSION = 3;
-    private static final byte[] MAGIC = "BARABASHKA".getBytes();
+    // checking files is mostly waiting for the disk
+    private static final int CHECK_THREADS = 8;
+    static final byte[] MAGIC = "BARABASHKA".getBytes();
 
     private final Logger logger = LoggerFactory.getLogger(getClass().getName());
     private ArrayList<PlaylistListener> listeners = new ArrayList<PlaylistListener>();
@@ -71,6 +75,11 @@ public class Playlist extends ArrayList<Track> {
     private String groupBy;
     private Expression groupExpression;
     private boolean libraryView;
+    private SearchIndex searchIndex;
+    private PlaybackIndex playbackIndex;
+    private PlaylistGroups groups;
+    // set() does not count as a modification in ArrayList, but it moves tracks
+    private int reorderCount;
 
     private List<PlaylistColumn> columns;
 
@@ -90,73 +99,10 @@ public class Playlist extends ArrayList<Track> {
 
     }
 
-    public void cleanUp() {
-        Iterator<Track> it = iterator();
-        while (it.hasNext()) {
-            Track next = it.next();
-            if (next instanceof SeparatorTrack)
-                it.remove();
-        }
-    }
-
     public void save(File file) {
         try {
-            //remove the garbage
-            cleanUp();
             logger.info("Saving playlist: " + file.getName());
-            DataOutputStream dos = new DataOutputStream(
-                    new BufferedOutputStream(new FileOutputStream(file)));
-            dos.write(MAGIC);
-            dos.writeInt(VERSION);
-            dos.writeInt(size());
-            List<Pair> meta = new LinkedList<Pair>();
-            TrackData trackData;
-            for (Track track : this) {
-            	trackData = track.getTrackData();
-            	trackData.removeEmptyTagFields();
-                dos.writeUTF(trackData.getLocation().toString());
-                dos.writeLong(trackData.getStartPosition());
-                dos.writeLong(trackData.getTotalSamples());
-                dos.writeInt(trackData.getSubsongIndex());
-                if (trackData.getSubsongIndex() > 0) {
-                    dos.writeBoolean(trackData.isCueEmbedded());
-                    if (!trackData.isCueEmbedded())
-                        dos.writeUTF(trackData.getCueLocation());
-                }
-                dos.writeInt(trackData.getBps());
-                dos.writeInt(trackData.getChannels());
-                dos.writeInt(trackData.getSampleRate());
-                dos.writeInt(trackData.getBitrate());
-                dos.writeLong(trackData.getDateAdded());
-                dos.writeLong(trackData.getLastModified());
-
-                meta.clear();
-                if (!Util.isEmpty(trackData.getCodec()))
-                    meta.add(new Pair(META_KEY_CODEC, trackData.getCodec()));
-
-                if (!Util.isEmpty(trackData.getEncoder())) {
-                	meta.add(new Pair(META_KEY_ENCODER, trackData.getEncoder()));
-                }
-                Iterator<Entry<FieldKey, FieldValues>> fields = trackData.getAllTagFieldValuesIterator();
-                if (fields != null) {
-	                while (fields.hasNext()) {
-	                	Entry<FieldKey, FieldValues> field = fields.next();
-        				for (int i = 0; i < field.getValue().size(); i++) {
-        					String value = field.getValue().get(i);
-	                    	meta.add(new Pair(field.getKey().toString(), value));
-	                    }
-	                }
-                }
-
-                dos.writeInt(meta.size());
-                for (Pair pair : meta) {
-                    dos.writeUTF(pair.getKey());
-                    dos.writeUTF(pair.getValue());
-                }
-            }
-
-            dos.close();
-            regroup();
+            MappedPlaylist.write(file, this);
         } catch (IOException e) {
             logger.warn("Failed to save playlist " + file.getName() + ": " + e.getMessage());
         }
@@ -176,8 +122,13 @@ public class Playlist extends ArrayList<Track> {
                 throw new RuntimeException();
             }
             int version = dis.readInt();
+            if (version == MappedPlaylist.VERSION) {
+                dis.close();
+                loadMapped(file);
+                return;
+            }
             if (version > VERSION) {
-                logger.warn("Playlist has newer version, expected: " + VERSION + " got: " + version);
+                logger.warn("Playlist has newer version, expected: " + MappedPlaylist.VERSION + " got: " + version);
                 throw new RuntimeException();
             }
             int size = dis.readInt();
@@ -272,6 +223,21 @@ public class Playlist extends ArrayList<Track> {
         }
     }
 
+    private void loadMapped(File file) throws IOException {
+        TrackDataCache cache = TrackDataCache.getInstance();
+        MappedPlaylist mapped = MappedPlaylist.open(file);
+        ensureCapacity(mapped.size());
+        for (int i = 0; i < mapped.size(); i++) {
+            TrackData trackData = mapped.read(i);
+            Track track = new Track(trackData);
+            cache.cache(track);
+            // tracks that are already loaded elsewhere don't need tags
+            if (track.getTrackData() == trackData)
+                mapped.readTagsLazily(i, trackData);
+            add(track);
+        }
+    }
+
     public boolean isLibraryView() {
         return libraryView;
     }
@@ -416,89 +382,71 @@ public class Playlist extends ArrayList<Track> {
         }
     }
 
+    /**
+     * Adds files, folders, playlists or urls. Tracks are read in the
+     * background and added in batches on the event thread as they are
+     * ready, in the order they were found, so the playlist fills up
+     * while reading.
+     *
+     * @param address  path or url
+     * @param location where to insert, -1 to append
+     * @param recurse  whether to add files in subfolders
+     * @param progress progress map, "processing.stop" aborts, "processing.file"
+     *                 and "processing.count" are updated, may be null
+     * @return number of tracks added
+     */
     public int insertItem(String address, int location, boolean recurse, Map<String, Object> progress) {
-        ArrayList<Track> temp = new ArrayList<Track>();
-        LinkedList<Object> queue = new LinkedList<Object>();
+        ArrayList<Object> items = new ArrayList<Object>();
 
-        if (location == -1)
-            location = size();
         String ext = Util.getFileExt(address);
         if (ext.equals("m3u") || ext.equals("m3u8")) {
-            queue.addAll(loadM3U(address));
+            items.addAll(loadM3U(address));
         } else if (ext.equals("pls")) {
-            queue.addAll(loadPLS(address));
+            items.addAll(loadPLS(address));
         } else if (ext.equals("mus")) {
             Playlist newPl = new Playlist();
             newPl.load(new File(address));
-            addAll(location, newPl);
+            insertOnEdt(newPl, location, 0);
+            return newPl.size();
         } else {
-            queue.push(address);
+            items.add(address);
         }
 
-        while (!queue.isEmpty()) {
-            try {
-                Object top = queue.pop();
-                String topStr = top.toString();
-                if (progress != null) {
-                    if (progress.get("processing.stop") != null) {
-                        break;
-                    }
-                    progress.put("processing.file", topStr);
-                }
-
-                if (top instanceof String && topStr.startsWith("http://")) {
-                    Track track = new Track();
-
-                    URI uri = new URI(topStr);
-                    String title = uri.getPath();
-                    if (Util.isEmpty(title))
-                        title = uri.getHost();
-                    track.getTrackData().addTitle(title);
-                    track.getTrackData().setLocation(uri.toString());
-                    track.getTrackData().setTotalSamples(-1);
-                    temp.add(track);
-                } else {
-                    File file = null;
-                    if (top instanceof String)
-                        file = new File(topStr);
-                    else if (top instanceof File)
-                        file = (File) top;
-
-                    if (recurse && file.isDirectory()) {
-                        queue.addAll(0, Arrays.asList(file.listFiles()));
-                    } else if (file.isFile()) {
-                        AudioFileReader reader = TrackIO.getAudioFileReader(file.getName());
-                        if (reader != null) {
-                            if (!Util.getFileExt(file).equals("cue")) {
-                                String name = Util.removeExt(file.getAbsolutePath()) + ".cue";
-                                if (new File(name).exists()) {
-                                    continue;
-                                }
-                            }
-                            reader.read(file, temp);
-                        }
-                    }
+        TrackDataCache cache = TrackDataCache.getInstance();
+        TrackScanner scanner = new TrackScanner(items, recurse, progress);
+        int added = 0;
+        try {
+            List<Track> batch;
+            while ((batch = scanner.nextBatch()) != null) {
+                for (Track track : batch) {
+                    cache.cache(track);
                 }
-            } catch (Exception ignored) {
+                insertOnEdt(batch, location, added);
+                added += batch.size();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scanner.close();
         }
+        return added;
+    }
 
-        Collections.sort(temp, new Comparator<Track>() {
+    /**
+     * Inserts a batch of tracks on the event thread and waits for it
+     *
+     * @param tracks   tracks to insert
+     * @param location where the first batch went, -1 to append
+     * @param offset   number of tracks inserted by previous batches
+     */
+    private void insertOnEdt(final List<Track> tracks, final int location, final int offset) {
+        runOnEdt(new Runnable() {
             @Override
-            public int compare(Track o1, Track o2) {
-                return o1.getTrackData().getLocation().compareTo(o2.getTrackData().getLocation());
+            public void run() {
+                addAll(location == -1 ? size() : Math.min(location + offset, size()), tracks);
+                firePlaylistChanged();
             }
         });
-        TrackDataCache cache = TrackDataCache.getInstance();
-        for (Track track : temp) {
-            cache.cache(track);
-        }
-        int sizeOld = size();
-        addAll(location, temp);
-        firePlaylistChanged();
-        queue.clear();
-        temp.clear();
-        return size() - sizeOld;
     }
 
     public void sort(String expression, boolean toggle) {
@@ -510,12 +458,9 @@ public class Playlist extends ArrayList<Track> {
             sortBy = expression;
         }
 
-        final Expression e = Parser.parse(expression);
-        TrackComparator trackComparator = new TrackComparator(e);
-        if (sortAscending)
-            Collections.sort(this, trackComparator);
-        else
-            Collections.sort(this, Collections.reverseOrder(trackComparator));
+        long time = System.currentTimeMillis();
+        TrackSorter.sort(this, Parser.parse(expression), sortAscending);
+        logger.info("Sorted " + size() + " tracks in " + (System.currentTimeMillis() - time) + " ms");
     }
 
     public void setGroupBy(String expression) {
@@ -526,6 +471,22 @@ public class Playlist extends ArrayList<Track> {
         firePlaylistChanged();
     }
 
+    public synchronized SearchIndex getSearchIndex() {
+        if (searchIndex == null)
+            searchIndex = new SearchIndex(this);
+        return searchIndex;
+    }
+
+    synchronized PlaybackIndex getPlaybackIndex() {
+        if (playbackIndex == null)
+            playbackIndex = new PlaybackIndex(this);
+        return playbackIndex;
+    }
+
+    int getModCount() {
+        return modCount + reorderCount;
+    }
+
     public void firePlaylistChanged() {
         regroup();
         for (PlaylistListener listener : listeners) {
@@ -533,56 +494,27 @@ public class Playlist extends ArrayList<Track> {
         }
     }
 
-    public void regroup() {
-        cleanUp();
-
-        if (groupExpression == null)
-            return;
-
-        int start = 0;
-        int size = 0;
-        final String unknown = "?";
-        String groupName = null;
-        for (int i = 0; i < size(); i++) {
-            Track track = get(i);
-            Object o = groupExpression.eval(track);
-            String value = null;
-            if (o != null)
-                value = o.toString();
-
-            if (Util.isEmpty(value))
-                value = unknown;
-
-            if (groupName == null) {
-                groupName = value;
-                start = i;
-                size = 1;
-                continue;
-            }
-
-            //noinspection ConstantConditions
-            boolean sameGroup = value.equalsIgnoreCase(groupName);
-            if (sameGroup)
-                size++;
-
-            if (!sameGroup) {
-                if (size > 0) {
-                    addGroup(groupName, start, size);
-                } else {
-                    i--;
-                }
-
-                groupName = null;
-            }
-        }
+    /**
+     * Groups the tracks again with the current group expression
+     */
+    public synchronized void regroup() {
+        groups = new PlaylistGroups(this, getModCount(), groupExpression, groups);
+    }
 
-        if (groupName != null)
-            addGroup(groupName, start, size);
+    /**
+     * @return mapping of view rows to tracks, regrouped if the playlist
+     *         was changed since the last time
+     */
+    public synchronized PlaylistGroups getGroups() {
+        if (groups == null || groups.getModCount() != getModCount())
+            regroup();
+        return groups;
     }
 
-    private void addGroup(String groupName, int start, int size) {
-        SeparatorTrack group = new SeparatorTrack(groupName, size);
-        add(start, group);
+    @Override
+    public Track set(int index, Track element) {
+        reorderCount++;
+        return super.set(index, element);
     }
 
     @Override
@@ -603,36 +535,172 @@ public class Playlist extends ArrayList<Track> {
     }
 
     public void removeDeadItems() {
-        for (Iterator it = this.iterator(); it.hasNext();) {
-            Track track = (Track) it.next();
-            if (track.getTrackData().getLocation() == null)
-                continue;
-            if (track.getTrackData().isFile() && !track.getTrackData().getFile().exists()) {
-                it.remove();
+        removeDeadItems(null);
+    }
+
+    /**
+     * Removes tracks whose files do not exist anymore. Files are checked
+     * on several threads since it's mostly waiting for the disk, every
+     * file is checked once even if it has many subsongs.
+     *
+     * @param progress progress map, "processing.stop" aborts the check,
+     *                 "processing.file" and "processing.progress" are updated
+     * @return number of removed tracks, 0 if aborted
+     */
+    public int removeDeadItems(final Map<String, Object> progress) {
+        final Track[] tracks = toArray(new Track[size()]);
+        final boolean[] dead = new boolean[tracks.length];
+        final ConcurrentHashMap<String, Boolean> checked = new ConcurrentHashMap<String, Boolean>();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicReference<String> current = new AtomicReference<String>("");
+
+        int threads = Math.min(CHECK_THREADS, tracks.length / 64 + 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while (!stopped.get() && (i = next.getAndIncrement()) < tracks.length) {
+                        TrackData trackData = tracks[i].getTrackData();
+                        if (trackData.getLocation() == null || !trackData.isFile())
+                            continue;
+
+                        File file = trackData.getFile();
+                        String path = file.getPath();
+                        Boolean exists = checked.get(path);
+                        if (exists == null) {
+                            current.set(path);
+                            exists = file.exists();
+                            checked.put(path, exists);
+                        }
+                        dead[i] = !exists;
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                if (progress != null) {
+                    if (progress.get("processing.stop") != null)
+                        stopped.set(true);
+                    progress.put("processing.file", current.get());
+                    progress.put("processing.progress", Math.min(1f, (float) next.get() / tracks.length));
+                }
             }
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
-        firePlaylistChanged();
+
+        if (stopped.get() || (progress != null && progress.get("processing.stop") != null))
+            return 0;
+        return removeAll(tracks, dead);
     }
 
     public void removeDuplicates() {
-        ArrayList<Track> dup = new ArrayList<Track>();
-        for (int i = 0; i < size() - 1; i++) {
-            Track t1 = get(i);
-            URI l1 = t1.getTrackData().getLocation();
-            if (l1 == null)
+        removeDuplicates(null);
+    }
+
+    /**
+     * Removes all but the first track with the same location and subsong
+     *
+     * @param progress progress map, "processing.stop" aborts,
+     *                 "processing.progress" is updated
+     * @return number of removed tracks, 0 if aborted
+     */
+    public int removeDuplicates(Map<String, Object> progress) {
+        Track[] tracks = toArray(new Track[size()]);
+        boolean[] duplicate = new boolean[tracks.length];
+        HashSet<TrackDataCache.Key> seen = new HashSet<TrackDataCache.Key>(tracks.length * 2);
+        for (int i = 0; i < tracks.length; i++) {
+            TrackData trackData = tracks[i].getTrackData();
+            if (trackData.getLocation() == null)
                 continue;
-            for (int j = i + 1; j < size(); j++) {
-                Track t2 = get(j);
 
-                if (l1.equals(t2.getTrackData().getLocation()) &&
-                        t1.getTrackData().getSubsongIndex() == t2.getTrackData().getSubsongIndex()) {
-                    dup.add(t2);
-                }
+            duplicate[i] = !seen.add(new TrackDataCache.Key(
+                    trackData.getLocationString(), trackData.getSubsongIndex()));
+
+            if (progress != null && (i & 1023) == 0) {
+                if (progress.get("processing.stop") != null)
+                    return 0;
+                progress.put("processing.progress", (float) i / tracks.length);
             }
         }
 
-        removeAll(dup);
-        firePlaylistChanged();
+        return removeAll(tracks, duplicate);
+    }
+
+    /**
+     * Compacts the playlist in one pass, keeping the order of the rest.
+     * The flags are computed in the background, but the playlist is only
+     * changed on the event thread.
+     *
+     * @param tracks  snapshot of the playlist the flags were computed for
+     * @param removed which tracks of the snapshot to remove
+     * @return number of removed tracks
+     */
+    private int removeAll(final Track[] tracks, final boolean[] removed) {
+        final int[] count = new int[1];
+        runOnEdt(new Runnable() {
+            @Override
+            public void run() {
+                count[0] = compact(tracks, removed);
+                firePlaylistChanged();
+            }
+        });
+        return count[0];
+    }
+
+    private synchronized int compact(Track[] tracks, boolean[] removed) {
+        boolean changed = size() != tracks.length;
+        for (int i = 0; i < tracks.length && !changed; i++) {
+            changed = get(i) != tracks[i];
+        }
+        if (changed) {
+            // playlist changed while we were looking, find the tracks again
+            IdentityHashMap<Track, Boolean> toRemove = new IdentityHashMap<Track, Boolean>();
+            for (int i = 0; i < tracks.length; i++) {
+                if (removed[i])
+                    toRemove.put(tracks[i], true);
+            }
+            removed = new boolean[size()];
+            for (int i = 0; i < removed.length; i++) {
+                removed[i] = toRemove.containsKey(get(i));
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < removed.length; i++) {
+            if (removed[i])
+                count++;
+            else if (count > 0)
+                set(i - count, get(i));
+        }
+        if (count > 0)
+            removeRange(removed.length - count, removed.length);
+        return count;
+    }
+
+    /**
+     * Runs the change on the event thread and waits for it, listeners
+     * and the playlist table expect the playlist to change only there
+     */
+    private static void runOnEdt(Runnable change) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            change.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(change);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     public void addChangeListener(PlaylistListener listener) {
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.playlist.SeparatorTrack;
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+import com.tulskiy.musique.util.Util;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Maps rows of a grouped playlist view to playlist indices. Group
+ * separators are not stored in the playlist, every group is just the
+ * index of its first track, and separator rows are put in front of them.
+ * <p/>
+ * Group keys are cached per track and evaluated again only when tags
+ * of the track change.
+ */
+public class PlaylistGroups {
+    private static final String UNKNOWN = "?";
+    private static final int[] NO_GROUPS = new int[0];
+
+    private final int size;
+    private final int modCount;
+    private final int[] starts;
+    private final int[] separatorRows;
+    private final SeparatorTrack[] separators;
+    private final Expression expression;
+    private final IdentityHashMap<Track, GroupKey> keys;
+
+    /**
+     * Groups consecutive tracks that have the same value of the expression
+     *
+     * @param tracks     tracks to group
+     * @param modCount   version of the track list
+     * @param expression group expression, null means no groups
+     * @param previous   previous grouping of the same list, its keys are reused
+     */
+    PlaylistGroups(List<Track> tracks, int modCount, Expression expression, PlaylistGroups previous) {
+        this.size = tracks.size();
+        this.modCount = modCount;
+        this.expression = expression;
+
+        if (expression == null) {
+            keys = null;
+            starts = NO_GROUPS;
+            separatorRows = NO_GROUPS;
+            separators = new SeparatorTrack[0];
+            return;
+        }
+
+        if (previous != null && previous.expression == expression && previous.keys != null) {
+            keys = previous.keys;
+            if (keys.size() > size * 2)
+                retain(tracks);
+        } else {
+            keys = new IdentityHashMap<Track, GroupKey>();
+        }
+
+        int[] groupStarts = new int[16];
+        int count = 0;
+        String groupName = null;
+        for (int i = 0; i < size; i++) {
+            String value = getKey(tracks.get(i));
+            if (groupName == null || !value.equalsIgnoreCase(groupName)) {
+                if (count == groupStarts.length)
+                    groupStarts = Arrays.copyOf(groupStarts, count * 2);
+                groupStarts[count++] = i;
+                groupName = value;
+            }
+        }
+
+        starts = Arrays.copyOf(groupStarts, count);
+        separatorRows = new int[count];
+        separators = new SeparatorTrack[count];
+        for (int g = 0; g < count; g++) {
+            int end = g + 1 < count ? starts[g + 1] : size;
+            separatorRows[g] = starts[g] + g;
+            separators[g] = new SeparatorTrack(getKey(tracks.get(starts[g])), end - starts[g]);
+        }
+    }
+
+    private String getKey(Track track) {
+        int version = track.getTrackData().getTagVersion();
+        GroupKey key = keys.get(track);
+        if (key == null || key.version != version) {
+            Object o = expression.eval(track);
+            String value = o == null ? null : o.toString();
+            if (Util.isEmpty(value))
+                value = UNKNOWN;
+            key = new GroupKey(value, version);
+            keys.put(track, key);
+        }
+        return key.value;
+    }
+
+    private void retain(List<Track> tracks) {
+        IdentityHashMap<Track, GroupKey> current = new IdentityHashMap<Track, GroupKey>();
+        for (Track track : tracks) {
+            GroupKey key = keys.get(track);
+            if (key != null)
+                current.put(track, key);
+        }
+        keys.clear();
+        keys.putAll(current);
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return number of rows, tracks and separators
+     */
+    public int getRowCount() {
+        return size + starts.length;
+    }
+
+    /**
+     * @return number of groups, 0 if the playlist is not grouped
+     */
+    public int getGroupCount() {
+        return starts.length;
+    }
+
+    /**
+     * @param group group number
+     * @return playlist index of the first track in the group
+     */
+    public int getGroupStart(int group) {
+        return starts[group];
+    }
+
+    /**
+     * @param index playlist index
+     * @return number of the group the track is in, -1 if the playlist is not grouped
+     */
+    public int getGroupOf(int index) {
+        int group = Arrays.binarySearch(starts, index);
+        return group >= 0 ? group : -group - 2;
+    }
+
+    /**
+     * @param row row in the view
+     * @return true if the row is a group separator
+     */
+    public boolean isSeparator(int row) {
+        return Arrays.binarySearch(separatorRows, row) >= 0;
+    }
+
+    /**
+     * @param row row in the view
+     * @return separator at the row, null if the row is a track
+     */
+    public SeparatorTrack getSeparator(int row) {
+        int group = Arrays.binarySearch(separatorRows, row);
+        return group >= 0 ? separators[group] : null;
+    }
+
+    /**
+     * @param row row in the view, may be equal to row count
+     * @return playlist index of the track at the row, or of the first
+     *         track of the group for a separator
+     */
+    public int getIndexAt(int row) {
+        int group = Arrays.binarySearch(separatorRows, row);
+        if (group >= 0)
+            return starts[group];
+        return row + group + 1;
+    }
+
+    /**
+     * @param index playlist index, may be equal to playlist size
+     * @return row of the track in the view
+     */
+    public int getRowOf(int index) {
+        return index + getGroupOf(index) + 1;
+    }
+
+    private static class GroupKey {
+        private final String value;
+        private final int version;
+
+        GroupKey(String value, int version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
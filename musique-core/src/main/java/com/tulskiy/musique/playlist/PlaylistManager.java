@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 import static com.tulskiy.musique.playlist.PlaylistListener.Event;
@@ -86,12 +87,16 @@ public class PlaylistManager {
         if (file.exists())
             libraryPlaylist.load(file);
         library = new Library(libraryPlaylist);
+        library.setWatching(config.getBoolean("library.watch", false));
 
         for (int i = 0; i < list.size(); i++) {
             Playlist playlist = list.get(i);
             playlist.load(new File(PLAYLIST_PATH, i + ".mus"));
             playlists.add(playlist);
         }
+        TrackDataCache cache = TrackDataCache.getInstance();
+        logger.info("Track data cache: " + cache.size() + " entries, " + cache.getHitCount() +
+                " hits, " + cache.getMissCount() + " misses");
 
         if (playlists.size() == 0) {
             setActivePlaylist(addPlaylist("Default"));
@@ -108,8 +113,6 @@ public class PlaylistManager {
             order.setLastPlayed(activePlaylist.get(lastPlayed));
         }
 
-        //need to do it here because lastPlayed index gets shifted
-        //after regrouping
         for (Playlist playlist : playlists) {
             playlist.firePlaylistChanged();
         }
@@ -118,21 +121,27 @@ public class PlaylistManager {
     public void saveSettings() {
         //noinspection ResultOfMethodCallIgnored
         PLAYLIST_PATH.mkdir();
+        HashSet<File> saved = new HashSet<File>();
+        for (int i = 0; i < playlists.size(); i++) {
+            Playlist playlist = playlists.get(i);
+            File file = new File(PLAYLIST_PATH, i + ".mus");
+            playlist.save(file);
+            saved.add(file);
+        }
+        File libraryFile = new File(PLAYLIST_PATH, "library.mus");
+        library.getData().save(libraryFile);
+        saved.add(libraryFile);
+
+        // playlist files are replaced when saved, only remove the ones left from deleted playlists
         File[] files = PLAYLIST_PATH.listFiles();
         for (File file : files) {
-            if (file.getName().endsWith(".mus")) {
+            if (file.getName().endsWith(".mus") && !saved.contains(file)) {
                 if (!file.delete()) {
                     logger.error("Could not delete old playlist. Check file permissions");
                 }
             }
         }
 
-        for (int i = 0; i < playlists.size(); i++) {
-            Playlist playlist = playlists.get(i);
-            playlist.save(new File(PLAYLIST_PATH, i + ".mus"));
-        }
-        library.getData().save(new File(PLAYLIST_PATH, "library.mus"));
-
         PlaylistConfiguration.setPlaylists(playlists);
         activePlaylist = visiblePlaylist; // workaround since activePlaylist variable isn't updated when tab clicked
         if (activePlaylist != null && playlists.contains(activePlaylist)) {
@@ -140,7 +149,6 @@ public class PlaylistManager {
 
             Track lastPlayed = app.getPlayer().getTrack();
             if (lastPlayed != null) {
-                activePlaylist.cleanUp();
                 int index = activePlaylist.indexOf(lastPlayed);
                 config.setInt("player.lastPlayed", index);
             }
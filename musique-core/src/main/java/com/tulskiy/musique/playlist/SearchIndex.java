@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.model.FieldValues;
+import com.tulskiy.musique.util.Util;
+import org.jaudiotagger.tag.FieldKey;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Inverted index of words in track tags. Every word maps to a sorted
+ * list of track ids, words are kept sorted so that prefix lookup is
+ * a range scan.
+ * <p/>
+ * Index follows the playlist lazily: tracks that were added, removed or
+ * had their tags changed since the last search are reindexed before
+ * the next one, everything else is left alone.
+ */
+public class SearchIndex {
+    private static final Postings[] NO_POSTINGS = new Postings[0];
+
+    private final Playlist playlist;
+
+    private TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+    private IdentityHashMap<Track, Integer> ids = new IdentityHashMap<Track, Integer>();
+    private Track[] tracks = new Track[16];
+    private Postings[][] trackWords = new Postings[16][];
+    private int[] versions = new int[16];
+    private int[] positions = new int[16];
+    private boolean duplicates;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    private int modCount = -1;
+
+    public SearchIndex(Playlist playlist) {
+        this.playlist = playlist;
+    }
+
+    /**
+     * Finds tracks that have every word of the query as a prefix of
+     * some word in their tags. Case is ignored.
+     *
+     * @param query words to look for
+     * @return playlist indices of matching tracks, in playlist order
+     */
+    public synchronized ArrayList<Integer> search(String query) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        ArrayList<String> terms = split(query.toLowerCase(), new ArrayList<String>());
+        if (terms.isEmpty())
+            return result;
+
+        update();
+
+        BitSet hits = null;
+        for (String term : terms) {
+            BitSet termHits = new BitSet(nextId);
+            for (Entry<String, Postings> entry : words.tailMap(term).entrySet()) {
+                if (!entry.getKey().startsWith(term))
+                    break;
+                entry.getValue().addTo(termHits);
+            }
+
+            if (hits == null)
+                hits = termHits;
+            else
+                hits.and(termHits);
+
+            if (hits.isEmpty())
+                return result;
+        }
+
+        int[] found = new int[hits.cardinality()];
+        int count = 0;
+        for (int id = hits.nextSetBit(0); id >= 0; id = hits.nextSetBit(id + 1)) {
+            int position = positions[id];
+            // playlist may have changed on another thread since update()
+            if (duplicates || position >= playlist.size() || playlist.get(position) != tracks[id]) {
+                return scan(hits);
+            }
+            found[count++] = position;
+        }
+        Arrays.sort(found);
+        for (int position : found) {
+            result.add(position);
+        }
+        return result;
+    }
+
+    private ArrayList<Integer> scan(BitSet hits) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (int i = 0, size = playlist.size(); i < size; i++) {
+            Track track = playlist.get(i);
+            Integer id = ids.get(track);
+            if (id != null) {
+                positions[id] = i;
+                if (hits.get(id))
+                    result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of distinct words in the index
+     */
+    public synchronized int getWordCount() {
+        update();
+        return words.size();
+    }
+
+    private void update() {
+        int currentModCount = playlist.getModCount();
+        if (currentModCount == modCount) {
+            // same tracks in the same places, only tags might have changed
+            for (int id = 0; id < nextId; id++) {
+                Track track = tracks[id];
+                if (track != null && versions[id] != track.getTrackData().getTagVersion()) {
+                    unindex(id);
+                    index(id, track);
+                }
+            }
+            return;
+        }
+
+        BitSet seen = new BitSet(nextId);
+        duplicates = false;
+        for (int i = 0; i < playlist.size(); i++) {
+            Track track = playlist.get(i);
+            Integer id = ids.get(track);
+            if (id == null) {
+                id = add(track);
+            } else if (versions[id] != track.getTrackData().getTagVersion()) {
+                unindex(id);
+                index(id, track);
+            }
+            duplicates |= seen.get(id);
+            seen.set(id);
+            positions[id] = i;
+        }
+
+        if (seen.cardinality() < ids.size()) {
+            for (int id = 0; id < nextId; id++) {
+                if (tracks[id] != null && !seen.get(id)) {
+                    remove(id);
+                }
+            }
+        }
+
+        modCount = currentModCount;
+    }
+
+    private int add(Track track) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == tracks.length) {
+                int length = tracks.length * 2;
+                tracks = Arrays.copyOf(tracks, length);
+                trackWords = Arrays.copyOf(trackWords, length);
+                versions = Arrays.copyOf(versions, length);
+                positions = Arrays.copyOf(positions, length);
+            }
+        }
+        tracks[id] = track;
+        ids.put(track, id);
+        index(id, track);
+        return id;
+    }
+
+    private void remove(int id) {
+        unindex(id);
+        ids.remove(tracks[id]);
+        tracks[id] = null;
+        if (freeCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+    }
+
+    private void index(int id, Track track) {
+        TrackData trackData = track.getTrackData();
+        versions[id] = trackData.getTagVersion();
+
+        ArrayList<String> tokens = new ArrayList<String>();
+        Iterator<Entry<FieldKey, FieldValues>> it = trackData.getAllTagFieldValuesIterator();
+        while (it.hasNext()) {
+            FieldValues values = it.next().getValue();
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                if (!Util.isEmpty(value)) {
+                    split(value.toLowerCase(), tokens);
+                }
+            }
+        }
+
+        ArrayList<Postings> added = new ArrayList<Postings>(tokens.size());
+        for (String token : tokens) {
+            Postings postings = words.get(token);
+            if (postings == null) {
+                postings = new Postings(token);
+                words.put(token, postings);
+            }
+            if (postings.add(id)) {
+                added.add(postings);
+            }
+        }
+        trackWords[id] = added.toArray(NO_POSTINGS);
+    }
+
+    private void unindex(int id) {
+        for (Postings postings : trackWords[id]) {
+            postings.remove(id);
+            if (postings.size == 0) {
+                words.remove(postings.word);
+            }
+        }
+        trackWords[id] = null;
+    }
+
+    /**
+     * Same as {@code str.split("\\s+")}, without the regex and empty tokens
+     */
+    private static ArrayList<String> split(String str, ArrayList<String> tokens) {
+        int start = -1;
+        for (int i = 0, length = str.length(); i <= length; i++) {
+            if (i == length || isSpace(str.charAt(i))) {
+                if (start != -1) {
+                    tokens.add(str.substring(start, i));
+                    start = -1;
+                }
+            } else if (start == -1) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Sorted list of ids of tracks that contain a word
+     */
+    private static class Postings {
+        private final String word;
+        private int[] ids = new int[2];
+        private int size;
+
+        Postings(String word) {
+            this.word = word;
+        }
+
+        boolean add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0)
+                return false;
+
+            index = -index - 1;
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+            return true;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(ids[i]);
+            }
+        }
+    }
+}
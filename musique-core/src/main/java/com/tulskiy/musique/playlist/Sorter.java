@@ -63,7 +63,7 @@ public class Sorter {
                                 "Sort By...",
                                 config.getString("playlist.sortString", ""));
                         if (ret != null) {
-                            Collections.sort(tracks, new TrackComparator(Parser.parse(ret)));
+                            TrackSorter.sort(tracks, Parser.parse(ret), true);
                             config.setString("playlist.sortString", ret);
                         }
 
@@ -75,7 +75,7 @@ public class Sorter {
                         Collections.reverse(tracks);
                         break;
                     default:
-                        Collections.sort(tracks, new TrackComparator(Parser.parse(sortValues[index])));
+                        TrackSorter.sort(tracks, Parser.parse(sortValues[index]), true);
                 }
             }
         };
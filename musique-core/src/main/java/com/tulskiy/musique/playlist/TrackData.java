@@ -22,11 +22,11 @@ import com.tulskiy.musique.util.Util;
 import org.jaudiotagger.tag.FieldKey;
 
 import java.io.File;
-import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Author: Denis Tulskiy
@@ -34,8 +34,18 @@ import java.util.Map.Entry;
  */
 public class TrackData implements Cloneable {
 
-	// generic jaudiotagger tag field values
-	private Map<FieldKey, FieldValues> tagFields = new HashMap<FieldKey, FieldValues>(5, 1f);
+	// source of tag versions, bumped on every tag change of any track
+	private static final AtomicInteger tagChanges = new AtomicInteger();
+	private int tagVersion;
+
+	// tags of tracks loaded from playlist file are read on first use
+	private volatile MappedPlaylist mapped;
+	private int mappedRecord;
+
+	// values live here, or in the store if track data was added to one
+	private volatile Fields fields = new Fields();
+	private TrackStore store;
+	private int slot;
 	
 	// common tag fields (to be displayed in TrackInfoDialog even if missed)
 	private static final FieldKey[] COMMON_TAG_FIELDS = {
@@ -67,20 +77,37 @@ public class TrackData implements Cloneable {
         add(FieldKey.RECORD_LABEL);
         add(FieldKey.RATING);
     }};
-	
-    // song info
-    private int sampleRate;
-    private int channels;
-    private int bps;
-    private int bitrate;
-    private int subsongIndex;
-    private long startPosition;
-    private long totalSamples;
-    private String locationString;
-    private boolean cueEmbedded;
-    private String cueLocation;
-    private String codec;
-    private String encoder;
+
+    private static class Fields implements Cloneable {
+        // generic jaudiotagger tag field values
+        private Map<FieldKey, FieldValues> tagFields = new HashMap<FieldKey, FieldValues>(5, 1f);
+
+        // song info
+        private int sampleRate;
+        private int channels;
+        private int bps;
+        private int bitrate;
+        private int subsongIndex;
+        private long startPosition;
+        private long totalSamples;
+        private String locationString;
+        private boolean cueEmbedded;
+        private String cueLocation;
+        private String codec;
+        private String encoder;
+        private long dateAdded;
+        private long lastModified;
+
+        private Fields copy() {
+            try {
+                Fields copy = (Fields) clone();
+                copy.tagFields = new HashMap<FieldKey, FieldValues>(tagFields);
+                return copy;
+            } catch (CloneNotSupportedException ignored) {
+                return null;
+            }
+        }
+    }
 
     // runtime stuff
     private String cueSheet;
@@ -88,21 +115,21 @@ public class TrackData implements Cloneable {
     private String length;
     private String fileName;
     private String directory;
-    private long dateAdded;
-    private long lastModified;
 
     public TrackData() {
     }
 
     public TrackData(URI location, int subsongIndex) {
-        locationString = location.toString();
+        setLocation(location.toString());
         setSubsongIndex(subsongIndex);
     }
 
     public TrackData copy() {
         try {
+        	readTags();
         	TrackData copy = (TrackData) this.clone();
-        	copy.tagFields = new EnumMap<FieldKey, FieldValues>(copy.tagFields);
+        	copy.fields = copyFields();
+        	copy.store = null;
             return copy;
         } catch (CloneNotSupportedException ignored) {
             return null;
@@ -117,17 +144,32 @@ public class TrackData implements Cloneable {
      */
     public TrackData merge(TrackData newData) {
     	// merge technical fields
-        Field[] fields = getClass().getDeclaredFields();
-        for (Field field : fields) {
-            try {
-                Object value = field.get(newData);
-                if (value != null && !(value instanceof Map<?, ?>)) {
-            		field.set(this, value);
-                }
-            }
-            catch (IllegalAccessException ignored) {
-            }
-        }
+        setSampleRate(newData.getSampleRate());
+        setChannels(newData.getChannels());
+        setBps(newData.getBps());
+        setBitrate(newData.getBitrate());
+        setSubsongIndex(newData.getSubsongIndex());
+        setStartPosition(newData.getStartPosition());
+        setTotalSamples(newData.getTotalSamples());
+        setDateAdded(newData.getDateAdded());
+        setLastModified(newData.getLastModified());
+        setCueEmbedded(newData.isCueEmbedded());
+        if (newData.getLocationString() != null)
+            setLocation(newData.getLocationString());
+        if (newData.getCueLocation() != null)
+            setCueLocation(newData.getCueLocation());
+        if (newData.getCodec() != null)
+            setCodec(newData.getCodec());
+        if (newData.getEncoder() != null)
+            setEncoder(newData.getEncoder());
+        if (newData.cueSheet != null)
+            cueSheet = newData.cueSheet;
+        if (newData.length != null)
+            length = newData.length;
+        if (newData.fileName != null)
+            fileName = newData.fileName;
+        if (newData.directory != null)
+            directory = newData.directory;
 
         // merge tag fields
         Iterator<Entry<FieldKey, FieldValues>> entries = newData.getAllTagFieldValuesIterator();
@@ -140,18 +182,138 @@ public class TrackData implements Cloneable {
     }
 
     public void clearTags() {
-    	tagFields.clear();
+    	readTags();
+    	Fields f = fields;
+    	if (f != null) {
+    		f.tagFields.clear();
+    	} else synchronized (store) {
+    		store.setTags(slot, Collections.<FieldKey, FieldValues>emptyMap());
+    	}
     	setCodec("");
+    	tagVersion = tagChanges.incrementAndGet();
+    }
+
+    /**
+     * @return value that changes every time tags of this track change
+     */
+    public int getTagVersion() {
+        return tagVersion;
+    }
+
+    // ------------------- storage methods ------------------- //
+
+    void setMapped(MappedPlaylist mapped, int record) {
+        mappedRecord = record;
+        this.mapped = mapped;
+    }
+
+    private void readTags() {
+        if (mapped != null) {
+            readMappedTags();
+        }
+    }
+
+    private synchronized void readMappedTags() {
+        if (mapped != null) {
+            TrackData tags = new TrackData();
+            mapped.readTags(mappedRecord, tags);
+            fields.tagFields = tags.fields.tagFields;
+            trackNumberFormatted = tags.trackNumberFormatted;
+            mapped = null;
+        }
+    }
+
+    /**
+     * Moves values to the store, called by the store with its lock held
+     */
+    void attach(TrackStore store) {
+        readTags();
+        Fields f = fields;
+        if (f == null)
+            return;
+
+        int slot = store.allocate();
+        store.sampleRate[slot] = f.sampleRate;
+        store.channels[slot] = f.channels;
+        store.bps[slot] = f.bps;
+        store.bitrate[slot] = f.bitrate;
+        store.subsongIndex[slot] = f.subsongIndex;
+        store.startPosition[slot] = f.startPosition;
+        store.totalSamples[slot] = f.totalSamples;
+        store.dateAdded[slot] = f.dateAdded;
+        store.lastModified[slot] = f.lastModified;
+        store.location[slot] = f.locationString;
+        store.flags[slot] = f.cueEmbedded ? TrackStore.CUE_EMBEDDED : 0;
+        store.cueLocation[slot] = store.reference(f.cueLocation);
+        store.codec[slot] = store.reference(f.codec);
+        store.encoder[slot] = store.reference(f.encoder);
+        store.setTags(slot, f.tagFields);
+
+        this.store = store;
+        this.slot = slot;
+        fields = null;
+    }
+
+    /**
+     * Takes values back from the store, called by the store with its lock held
+     */
+    void detach(TrackStore store) {
+        if (fields != null || this.store != store)
+            return;
+
+        fields = toFields();
+        store.free(slot);
+    }
+
+    private Fields copyFields() {
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return toFields();
+        }
+        return f.copy();
+    }
+
+    private Fields toFields() {
+        Fields f = new Fields();
+        f.sampleRate = store.sampleRate[slot];
+        f.channels = store.channels[slot];
+        f.bps = store.bps[slot];
+        f.bitrate = store.bitrate[slot];
+        f.subsongIndex = store.subsongIndex[slot];
+        f.startPosition = store.startPosition[slot];
+        f.totalSamples = store.totalSamples[slot];
+        f.dateAdded = store.dateAdded[slot];
+        f.lastModified = store.lastModified[slot];
+        f.locationString = store.location[slot];
+        f.cueEmbedded = (store.flags[slot] & TrackStore.CUE_EMBEDDED) != 0;
+        f.cueLocation = store.getString(store.cueLocation[slot]);
+        f.codec = store.getString(store.codec[slot]);
+        f.encoder = store.getString(store.encoder[slot]);
+        f.tagFields = new HashMap<FieldKey, FieldValues>(store.getTags(slot));
+        return f;
     }
 
     // ------------------- meta methods ------------------- //
 
     public Iterator<Entry<FieldKey, FieldValues>> getAllTagFieldValuesIterator() {
-		return tagFields.entrySet().iterator();
+    	readTags();
+    	Fields f = fields;
+    	if (f == null) synchronized (store) {
+    		if ((f = fields) == null)
+    			return store.getTags(slot).entrySet().iterator();
+    	}
+    	return f.tagFields.entrySet().iterator();
     }
 
     public FieldValues getTagFieldValues(FieldKey key) {
-    	return tagFields.get(key);
+    	readTags();
+    	Fields f = fields;
+    	if (f == null) synchronized (store) {
+    		if ((f = fields) == null)
+    			return store.getTag(slot, key);
+    	}
+    	return f.tagFields.get(key);
     }
 
     public FieldValues getTagFieldValuesSafe(FieldKey key) {
@@ -165,6 +327,8 @@ public class TrackData implements Cloneable {
     }
     
     public void setTagFieldValues(FieldKey key, FieldValues values) {
+    	readTags();
+    	Fields f = fields;
     	if (values.isEmpty()) {
     		return;
     	}
@@ -183,6 +347,12 @@ public class TrackData implements Cloneable {
     	else if (FieldKey.COVER_ART.equals(key)) {
     		// TODO skipping, should be handled in its own way
     	}
+    	// store keeps its own dictionary of values
+    	else if (f == null) {
+    		synchronized (store) {
+    			store.setTag(slot, key, values);
+    		}
+    	}
     	// handle common cases
     	else {
     		if (INTERNED_FIELDS.contains(key)) {
@@ -191,12 +361,13 @@ public class TrackData implements Cloneable {
     				String value = values.get(i);
 					valuesOptimized.add(value == null ? null : value.intern());
     			}
-        		tagFields.put(key, valuesOptimized);
+        		f.tagFields.put(key, valuesOptimized);
     		}
     		else {
-        		tagFields.put(key, values);
+        		f.tagFields.put(key, values);
     		}
     	}
+    	tagVersion = tagChanges.incrementAndGet();
     }
     
     public void setTagFieldValues(FieldKey key, String value) {
@@ -216,7 +387,14 @@ public class TrackData implements Cloneable {
     }
     
     public String getFirstTagFieldValue(FieldKey key) {
-    	FieldValues values = getTagFieldValues(key);
+    	readTags();
+    	Fields f = fields;
+    	if (f == null) synchronized (store) {
+    		if ((f = fields) == null)
+    			return store.getFirstTag(slot, key);
+    	}
+
+    	FieldValues values = f.tagFields.get(key);
     	
     	if (!FieldValues.isEmptyEx(values)) {
     		return values.get(0);
@@ -226,7 +404,17 @@ public class TrackData implements Cloneable {
     }
     
     public void removeTagField(FieldKey key) {
-    	tagFields.remove(key);
+    	readTags();
+    	Fields f = fields;
+    	boolean removed;
+    	if (f != null) {
+    		removed = f.tagFields.remove(key) != null;
+    	} else synchronized (store) {
+    		removed = store.setTag(slot, key, null);
+    	}
+    	if (removed) {
+    		tagVersion = tagChanges.incrementAndGet();
+    	}
     }
 
     // ------------------- common methods ------------------- //
@@ -266,7 +454,7 @@ public class TrackData implements Cloneable {
             if (isFile())
                 return getFileName();
             else
-                return locationString;
+                return getLocationString();
         else
             return title;
     }
@@ -343,6 +531,7 @@ public class TrackData implements Cloneable {
      * @return track number formatted to two digits
      */
     public String getTrackNumber() {
+        readTags();
         return trackNumberFormatted;
     }
 
@@ -461,30 +650,51 @@ public class TrackData implements Cloneable {
     }
 
     public boolean isCueEmbedded() {
-        return cueEmbedded;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return (store.flags[slot] & TrackStore.CUE_EMBEDDED) != 0;
+        }
+        return f.cueEmbedded;
     }
 
     public void setCueEmbedded(boolean cueEmbedded) {
-        this.cueEmbedded = cueEmbedded;
+        Fields f = fields;
+        if (f != null) {
+            f.cueEmbedded = cueEmbedded;
+        } else synchronized (store) {
+            store.flags[slot] = cueEmbedded ? TrackStore.CUE_EMBEDDED : 0;
+        }
     }
 
     public String getCueLocation() {
-        return cueLocation;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.getString(store.cueLocation[slot]);
+        }
+        return f.cueLocation;
     }
 
     public void setCueLocation(String cueLocation) {
-        this.cueLocation = cueLocation;
+        Fields f = fields;
+        if (f != null) {
+            f.cueLocation = cueLocation;
+        } else synchronized (store) {
+            store.release(store.cueLocation[slot]);
+            store.cueLocation[slot] = store.reference(cueLocation);
+        }
     }
 
     public boolean isCue() {
-        return subsongIndex > 0;
+        return getSubsongIndex() > 0;
     }
 
     // ------------------- technical methods ------------------- //
 
     public String getLength() {
         if (length == null)
-            length = Util.samplesToTime(totalSamples, sampleRate, 0);
+            length = Util.samplesToTime(getTotalSamples(), getSampleRate(), 0);
         return length;
     }
 
@@ -496,15 +706,30 @@ public class TrackData implements Cloneable {
     }
 
     public int getSampleRate() {
-        return sampleRate;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.sampleRate[slot];
+        }
+        return f.sampleRate;
     }
 
     public void setSampleRate(int sampleRate) {
-        this.sampleRate = sampleRate;
+        Fields f = fields;
+        if (f != null) {
+            f.sampleRate = sampleRate;
+        } else synchronized (store) {
+            store.sampleRate[slot] = sampleRate;
+        }
     }
 
     public int getChannels() {
-        return channels;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.channels[slot];
+        }
+        return f.channels;
     }
 
     public String getChannelsAsString() {
@@ -519,67 +744,152 @@ public class TrackData implements Cloneable {
     }
 
     public void setChannels(int channels) {
-        this.channels = channels;
+        Fields f = fields;
+        if (f != null) {
+            f.channels = channels;
+        } else synchronized (store) {
+            store.channels[slot] = channels;
+        }
     }
 
     public int getBps() {
-        return bps;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.bps[slot];
+        }
+        return f.bps;
     }
 
     public void setBps(int bps) {
-        this.bps = bps;
+        Fields f = fields;
+        if (f != null) {
+            f.bps = bps;
+        } else synchronized (store) {
+            store.bps[slot] = bps;
+        }
     }
 
     public int getBitrate() {
-        return bitrate;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.bitrate[slot];
+        }
+        return f.bitrate;
     }
 
     public void setBitrate(int bitrate) {
-        this.bitrate = bitrate;
+        Fields f = fields;
+        if (f != null) {
+            f.bitrate = bitrate;
+        } else synchronized (store) {
+            store.bitrate[slot] = bitrate;
+        }
     }
 
     public int getSubsongIndex() {
-        return subsongIndex;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.subsongIndex[slot];
+        }
+        return f.subsongIndex;
     }
 
     public void setSubsongIndex(int subsongIndex) {
-        this.subsongIndex = subsongIndex;
+        Fields f = fields;
+        if (f != null) {
+            f.subsongIndex = subsongIndex;
+        } else synchronized (store) {
+            store.subsongIndex[slot] = subsongIndex;
+        }
     }
 
     public long getStartPosition() {
-        return startPosition;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.startPosition[slot];
+        }
+        return f.startPosition;
     }
 
     public void setStartPosition(long startPosition) {
-        this.startPosition = startPosition;
+        Fields f = fields;
+        if (f != null) {
+            f.startPosition = startPosition;
+        } else synchronized (store) {
+            store.startPosition[slot] = startPosition;
+        }
     }
 
     public long getTotalSamples() {
-        return totalSamples;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.totalSamples[slot];
+        }
+        return f.totalSamples;
     }
 
     public void setTotalSamples(long totalSamples) {
-        this.totalSamples = totalSamples;
+        Fields f = fields;
+        if (f != null) {
+            f.totalSamples = totalSamples;
+        } else synchronized (store) {
+            store.totalSamples[slot] = totalSamples;
+        }
         length = null;
     }
 
     public long getDateAdded() {
-        return dateAdded;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.dateAdded[slot];
+        }
+        return f.dateAdded;
     }
 
     public void setDateAdded(long dateAdded) {
-        this.dateAdded = dateAdded;
+        Fields f = fields;
+        if (f != null) {
+            f.dateAdded = dateAdded;
+        } else synchronized (store) {
+            store.dateAdded[slot] = dateAdded;
+        }
     }
 
     public long getLastModified() {
-        return lastModified;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.lastModified[slot];
+        }
+        return f.lastModified;
     }
 
     public void setLastModified(long lastModified) {
-        this.lastModified = lastModified;
+        Fields f = fields;
+        if (f != null) {
+            f.lastModified = lastModified;
+        } else synchronized (store) {
+            store.lastModified[slot] = lastModified;
+        }
+    }
+
+    String getLocationString() {
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.location[slot];
+        }
+        return f.locationString;
     }
 
 	public URI getLocation() {
+		String locationString = getLocationString();
 		if (locationString != null) {
 			try {
 				return new URI(locationString);
@@ -591,7 +901,12 @@ public class TrackData implements Cloneable {
 	}
 
     public void setLocation(String location) {
-        locationString = location;
+        Fields f = fields;
+        if (f != null) {
+            f.locationString = location;
+        } else synchronized (store) {
+            store.location[slot] = location;
+        }
     }
 
     public File getFile() {
@@ -607,19 +922,41 @@ public class TrackData implements Cloneable {
     }
 
     public String getCodec() {
-        return codec;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.getString(store.codec[slot]);
+        }
+        return f.codec;
     }
 
     public void setCodec(String codec) {
-        this.codec = codec.intern();
+        Fields f = fields;
+        if (f != null) {
+            f.codec = codec.intern();
+        } else synchronized (store) {
+            store.release(store.codec[slot]);
+            store.codec[slot] = store.reference(codec);
+        }
     }
 
     public String getEncoder() {
-        return encoder;
+        Fields f = fields;
+        if (f == null) synchronized (store) {
+            if ((f = fields) == null)
+                return store.getString(store.encoder[slot]);
+        }
+        return f.encoder;
     }
 
     public void setEncoder(String encoder) {
-        this.encoder= encoder.intern();
+        Fields f = fields;
+        if (f != null) {
+            f.encoder = encoder.intern();
+        } else synchronized (store) {
+            store.release(store.encoder[slot]);
+            store.encoder[slot] = store.reference(encoder);
+        }
     }
 
     public String getDirectory() {
@@ -657,7 +994,13 @@ public class TrackData implements Cloneable {
     }
     
     public void removeEmptyTagFields() {
-    	for (FieldKey key : FieldKey.values()) {
+    	// only fields that are there can be empty
+    	ArrayList<FieldKey> keys = new ArrayList<FieldKey>();
+    	Iterator<Entry<FieldKey, FieldValues>> entries = getAllTagFieldValuesIterator();
+    	while (entries.hasNext()) {
+    		keys.add(entries.next().getKey());
+    	}
+    	for (FieldKey key : keys) {
     		removeEmptyTagField(key);
     	}
     }
@@ -665,12 +1008,19 @@ public class TrackData implements Cloneable {
     public void removeEmptyTagFieldValues(FieldKey key) {
     	FieldValues values = getTagFieldValues(key);
     	if (values != null) {
+    		FieldValues nonEmpty = new FieldValues();
     		for (int i = 0; i < values.size(); i++) {
     			String value = values.get(i);
-    			if (Util.isEmpty(value)) {
-    				values.remove(i);
+    			if (!Util.isEmpty(value)) {
+    				nonEmpty.add(value);
     			}
     		}
+    		if (nonEmpty.size() != values.size()) {
+    			if (nonEmpty.isEmpty())
+    				removeTagField(key);
+    			else
+    				setTagFieldValues(key, nonEmpty);
+    		}
     	}
     }
 
@@ -683,13 +1033,14 @@ public class TrackData implements Cloneable {
 
         TrackData trackData = (TrackData) o;
 
-        return locationString.equals(trackData.locationString)
-                && subsongIndex == trackData.subsongIndex;
+        return getLocationString().equals(trackData.getLocationString())
+                && getSubsongIndex() == trackData.getSubsongIndex();
     }
 
     @Override
     public int hashCode() {
-        int result = subsongIndex;
+        int result = getSubsongIndex();
+        String locationString = getLocationString();
         result = 31 * result + (locationString != null ? locationString.hashCode() : 0);
         return result;
     }
@@ -17,9 +17,16 @@
 
 package com.tulskiy.musique.playlist;
 
-import java.util.HashMap;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Makes tracks with the same location and subsong share one TrackData.
+ * Cached data is only weakly referenced, so it goes away together with
+ * the last track that uses it. Safe to use from several threads.
+ * <p/>
  * Author: Denis Tulskiy
  * Date: 12/3/10
  */
@@ -30,17 +37,96 @@ public class TrackDataCache {
         return instance;
     }
 
-    private HashMap<TrackData, TrackData> cache = new HashMap<TrackData, TrackData>();
+    private final ConcurrentHashMap<Key, Entry> cache = new ConcurrentHashMap<Key, Entry>();
+    private final ReferenceQueue<TrackData> queue = new ReferenceQueue<TrackData>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
 
     public void cache(Track track) {
-        TrackData key = track.getTrackData();
-        TrackData trackData = cache.get(key);
-        if (trackData == null) {
-            cache.put(key, key);
-        } else {
-        	// TrackData.merge overrides filled values with uninitialized ones (zeroes, etc.)
-        	// TODO review if removal is right choice
-            track.setTrackData(trackData);
+        expunge();
+        TrackData trackData = track.getTrackData();
+        Key key = new Key(trackData.getLocationString(), trackData.getSubsongIndex());
+        while (true) {
+            Entry entry = cache.get(key);
+            TrackData cached = entry != null ? entry.get() : null;
+            if (cached != null) {
+                hits.increment();
+                if (cached != trackData) {
+                    // TrackData.merge overrides filled values with uninitialized ones (zeroes, etc.)
+                    // TODO review if removal is right choice
+                    track.setTrackData(cached);
+                }
+                return;
+            }
+
+            Entry newEntry = new Entry(key, trackData, queue);
+            if (entry == null ? cache.putIfAbsent(key, newEntry) == null : cache.replace(key, entry, newEntry)) {
+                misses.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of tracks that got data from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of tracks whose data was put in the cache
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of cached track data that is still in use
+     */
+    public int size() {
+        expunge();
+        return cache.size();
+    }
+
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            cache.remove(entry.key, entry);
+        }
+    }
+
+    static class Key {
+        private final String location;
+        private final int subsongIndex;
+
+        Key(String location, int subsongIndex) {
+            this.location = location;
+            this.subsongIndex = subsongIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return subsongIndex == key.subsongIndex
+                    && (location != null ? location.equals(key.location) : key.location == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * subsongIndex + (location != null ? location.hashCode() : 0);
+        }
+    }
+
+    private static class Entry extends WeakReference<TrackData> {
+        private final Key key;
+
+        Entry(Key key, TrackData trackData, ReferenceQueue<TrackData> queue) {
+            super(trackData, queue);
+            this.key = key;
         }
     }
 }
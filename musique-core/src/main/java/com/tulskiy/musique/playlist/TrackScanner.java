@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.audio.AudioFileReader;
+import com.tulskiy.musique.system.TrackIO;
+import com.tulskiy.musique.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads tracks for {@link Playlist#insertItem} in a pipeline. One thread
+ * walks the folders and lists subfolders a level ahead on a small pool,
+ * tags are read on another pool, and the caller takes finished tracks
+ * in batches, in the order they were found.
+ * <p/>
+ * Folder entries are walked sorted by name, files that have a cue
+ * sheet next to them are skipped in favor of the cue.
+ */
+class TrackScanner {
+    private static final Logger logger = LoggerFactory.getLogger(TrackScanner.class);
+    private static final Future<List<Track>> END = CompletableFuture.completedFuture(null);
+    private static final int LISTING_THREADS = 4;
+
+    static final int BATCH_SIZE = 1000;
+    static final long BATCH_INTERVAL = 500;
+
+    private final boolean recurse;
+    private final Map<String, Object> progress;
+    private final ExecutorService readers;
+    private final ExecutorService listers;
+    private final LinkedBlockingQueue<Future<List<Track>>> results = new LinkedBlockingQueue<Future<List<Track>>>();
+    private final Thread walker;
+
+    private volatile boolean stopped;
+    private volatile String current = "";
+    private Future<List<Track>> pending;
+    private boolean done;
+    private int count;
+
+    /**
+     * Starts reading the items
+     *
+     * @param items    urls, paths and files in the order they should be added
+     * @param recurse  whether to go into folders
+     * @param progress progress map, "processing.stop" aborts, "processing.file"
+     *                 and "processing.count" are updated by {@link #nextBatch()}
+     */
+    TrackScanner(final List<?> items, boolean recurse, Map<String, Object> progress) {
+        this.recurse = recurse;
+        this.progress = progress;
+        if (progress != null) {
+            Object count = progress.get("processing.count");
+            if (count != null)
+                this.count = (Integer) count;
+        }
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        readers = Executors.newFixedThreadPool(threads);
+        listers = Executors.newFixedThreadPool(LISTING_THREADS);
+        walker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Object item : items) {
+                        if (stopped)
+                            break;
+                        add(item);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Failed to walk files: " + e);
+                } finally {
+                    results.add(END);
+                }
+            }
+        }, "Track Scanner");
+        walker.start();
+    }
+
+    private void add(Object item) throws Exception {
+        String str = item.toString();
+        if (item instanceof String && str.startsWith("http://")) {
+            Track track = new Track();
+
+            URI uri = new URI(str);
+            String title = uri.getPath();
+            if (Util.isEmpty(title))
+                title = uri.getHost();
+            track.getTrackData().addTitle(title);
+            track.getTrackData().setLocation(uri.toString());
+            track.getTrackData().setTotalSamples(-1);
+            results.add(CompletableFuture.completedFuture(Collections.singletonList(track)));
+            return;
+        }
+
+        File file = item instanceof File ? (File) item : new File(str);
+        if (recurse && file.isDirectory()) {
+            walk(list(file));
+        } else if (file.isFile()) {
+            read(file, null);
+        }
+    }
+
+    private Future<File[]> list(final File dir) {
+        return listers.submit(new Callable<File[]>() {
+            @Override
+            public File[] call() {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    Arrays.sort(files, new Comparator<File>() {
+                        @Override
+                        public int compare(File o1, File o2) {
+                            return o1.getName().compareTo(o2.getName());
+                        }
+                    });
+                }
+                return files;
+            }
+        });
+    }
+
+    private void walk(Future<File[]> listing) throws Exception {
+        File[] files = listing.get();
+        if (files == null)
+            return;
+
+        HashSet<String> names = new HashSet<String>();
+        boolean[] dirs = new boolean[files.length];
+        // listings of subfolders, in the order they appear in files
+        List<Future<File[]>> listings = new ArrayList<Future<File[]>>();
+        for (int i = 0; i < files.length; i++) {
+            names.add(files[i].getName());
+            dirs[i] = files[i].isDirectory();
+            if (dirs[i]) {
+                listings.add(list(files[i]));
+            }
+        }
+
+        Iterator<Future<File[]>> subfolders = listings.iterator();
+        for (int i = 0; i < files.length; i++) {
+            if (stopped) {
+                break;
+            } else if (dirs[i]) {
+                walk(subfolders.next());
+            } else {
+                read(files[i], names);
+            }
+        }
+    }
+
+    /**
+     * @param file     file to read
+     * @param siblings names of files in the same folder, null if not listed
+     */
+    private void read(final File file, Set<String> siblings) {
+        final AudioFileReader reader = TrackIO.getAudioFileReader(file.getName());
+        if (reader == null)
+            return;
+
+        if (!Util.getFileExt(file).equals("cue")) {
+            String cue = Util.removeExt(file.getName()) + ".cue";
+            if (siblings != null ? siblings.contains(cue) : new File(file.getParentFile(), cue).exists())
+                return;
+        }
+
+        results.add(readers.submit(new Callable<List<Track>>() {
+            @Override
+            public List<Track> call() {
+                if (stopped)
+                    return Collections.emptyList();
+                current = file.getPath();
+                ArrayList<Track> tracks = new ArrayList<Track>();
+                try {
+                    reader.read(file, tracks);
+                } catch (Exception e) {
+                    logger.warn("Could not read " + file + ": " + e);
+                }
+                return tracks;
+            }
+        }));
+    }
+
+    /**
+     * Waits for the next tracks. A batch is returned when it has
+     * {@link #BATCH_SIZE} tracks or {@link #BATCH_INTERVAL} ms passed
+     * and it has any tracks at all.
+     *
+     * @return tracks in the order they were found, null when everything was read or aborted
+     */
+    List<Track> nextBatch() throws InterruptedException {
+        ArrayList<Track> batch = new ArrayList<Track>();
+        long deadline = System.currentTimeMillis() + BATCH_INTERVAL;
+        while (!done) {
+            if (progress != null && progress.get("processing.stop") != null) {
+                stopped = true;
+                done = true;
+                break;
+            }
+
+            long timeout = Math.max(1, deadline - System.currentTimeMillis());
+            if (pending == null)
+                pending = results.poll(timeout, TimeUnit.MILLISECONDS);
+
+            if (pending == END) {
+                done = true;
+            } else if (pending != null) {
+                try {
+                    List<Track> tracks = pending.get(timeout, TimeUnit.MILLISECONDS);
+                    batch.addAll(tracks);
+                    pending = null;
+                    count++;
+                } catch (TimeoutException ignored) {
+                } catch (ExecutionException e) {
+                    pending = null;
+                    logger.warn("Could not read tracks: " + e.getCause());
+                }
+            }
+
+            if (progress != null) {
+                progress.put("processing.file", current);
+                progress.put("processing.count", count);
+            }
+
+            if (batch.size() >= BATCH_SIZE)
+                break;
+            if (System.currentTimeMillis() >= deadline) {
+                if (!batch.isEmpty())
+                    break;
+                deadline = System.currentTimeMillis() + BATCH_INTERVAL;
+            }
+        }
+
+        return batch.isEmpty() && done ? null : batch;
+    }
+
+    /**
+     * Stops reading and releases threads
+     */
+    void close() {
+        stopped = true;
+        readers.shutdownNow();
+        listers.shutdownNow();
+        walker.interrupt();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.IntFunction;
+
+/**
+ * Sorts tracks by the value of an expression. The expression is
+ * evaluated once per track and the result is case folded up front,
+ * so comparisons are plain string compares on cached keys. Large
+ * lists compute keys and sort in parallel.
+ * <p/>
+ * Author: Denis Tulskiy
+ * Date: 6/3/11
+ */
+class TrackSorter {
+    private static final int PARALLEL_THRESHOLD = 10000;
+
+    private static final Comparator<Entry> ASCENDING = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    private static class Entry {
+        private final Track track;
+        private final String key;
+
+        Entry(Track track, String key) {
+            this.track = track;
+            this.key = key;
+        }
+    }
+
+    public static void sort(final List<Track> tracks, final Expression e, boolean ascending) {
+        final Track[] array = tracks.toArray(new Track[tracks.size()]);
+        Entry[] entries = new Entry[array.length];
+        IntFunction<Entry> decorate = new IntFunction<Entry>() {
+            @Override
+            public Entry apply(int i) {
+                return new Entry(array[i], key(e, array[i]));
+            }
+        };
+        Comparator<Entry> comparator = ascending ? ASCENDING : ASCENDING.reversed();
+
+        if (entries.length >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSetAll(entries, decorate);
+            Arrays.parallelSort(entries, comparator);
+        } else {
+            Arrays.setAll(entries, decorate);
+            Arrays.sort(entries, comparator);
+        }
+
+        ListIterator<Track> it = tracks.listIterator();
+        for (Entry entry : entries) {
+            it.next();
+            it.set(entry.track);
+        }
+    }
+
+    /**
+     * @return value of the expression folded the same way
+     *         {@link String#compareToIgnoreCase(String)} folds characters
+     */
+    static String key(Expression e, Track track) {
+        Object value;
+        try {
+            value = e.eval(track);
+        } catch (Exception ignored) {
+            value = null;
+        }
+        if (value == null)
+            return "";
+
+        String s = value.toString();
+        char[] chars = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null)
+                    chars = s.toCharArray();
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? s : new String(chars);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.model.FieldValues;
+import org.jaudiotagger.tag.FieldKey;
+
+import java.util.*;
+
+/**
+ * Column store for track data. Every track added here gets a slot in
+ * primitive arrays, its strings go to a dictionary shared by all tracks
+ * and its tags become pairs of field ordinal and value id. TrackData that
+ * was added keeps only the slot and reads everything from here.
+ * <p/>
+ * Reads and writes hold the store lock. Arrays are replaced when the store
+ * grows and string ids are reused once released, so a reader without the
+ * lock could see an array before its contents or a string id that already
+ * belongs to another string. TrackData checks again under the lock that its
+ * values are still in the store.
+ */
+public class TrackStore {
+    private static final int[] NO_TAGS = new int[0];
+    private static final FieldKey[] KEYS = FieldKey.values();
+
+    static final byte CUE_EMBEDDED = 1;
+
+    int[] sampleRate;
+    int[] channels;
+    int[] bps;
+    int[] bitrate;
+    int[] subsongIndex;
+    long[] startPosition;
+    long[] totalSamples;
+    long[] dateAdded;
+    long[] lastModified;
+    String[] location;
+    byte[] flags;
+    int[] cueLocation;
+    int[] codec;
+    int[] encoder;
+    int[][] tags;
+
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+    private int slotCount;
+
+    private String[] strings = new String[16];
+    private int[] references = new int[16];
+    private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private int[] freeIds = new int[16];
+    private int freeIdCount;
+    private int stringCount;
+
+    public TrackStore() {
+        resize(16);
+    }
+
+    /**
+     * Moves data of the track into the store
+     *
+     * @param trackData track data to store
+     */
+    public synchronized void add(TrackData trackData) {
+        trackData.attach(this);
+    }
+
+    /**
+     * Moves data of the track back to it, so that it can live without the store
+     *
+     * @param trackData track data to release
+     */
+    public synchronized void remove(TrackData trackData) {
+        trackData.detach(this);
+    }
+
+    /**
+     * @return number of tracks in the store
+     */
+    public synchronized int size() {
+        return slotCount - freeSlotCount;
+    }
+
+    /**
+     * @return number of distinct strings in the store
+     */
+    public synchronized int getStringCount() {
+        return ids.size();
+    }
+
+    int allocate() {
+        if (freeSlotCount > 0)
+            return freeSlots[--freeSlotCount];
+
+        if (slotCount == sampleRate.length)
+            resize(slotCount * 2);
+        return slotCount++;
+    }
+
+    void free(int slot) {
+        release(cueLocation[slot]);
+        release(codec[slot]);
+        release(encoder[slot]);
+        setTags(slot, NO_TAGS);
+        location[slot] = null;
+
+        if (freeSlotCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    private void resize(int length) {
+        sampleRate = grow(sampleRate, length);
+        channels = grow(channels, length);
+        bps = grow(bps, length);
+        bitrate = grow(bitrate, length);
+        subsongIndex = grow(subsongIndex, length);
+        startPosition = grow(startPosition, length);
+        totalSamples = grow(totalSamples, length);
+        dateAdded = grow(dateAdded, length);
+        lastModified = grow(lastModified, length);
+        location = location == null ? new String[length] : Arrays.copyOf(location, length);
+        flags = flags == null ? new byte[length] : Arrays.copyOf(flags, length);
+        cueLocation = grow(cueLocation, length);
+        codec = grow(codec, length);
+        encoder = grow(encoder, length);
+        tags = tags == null ? new int[length][] : Arrays.copyOf(tags, length);
+    }
+
+    private static int[] grow(int[] array, int length) {
+        return array == null ? new int[length] : Arrays.copyOf(array, length);
+    }
+
+    private static long[] grow(long[] array, int length) {
+        return array == null ? new long[length] : Arrays.copyOf(array, length);
+    }
+
+    // ------------------- strings ------------------- //
+
+    String getString(int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    /**
+     * Finds or adds the string and counts one more reference to it
+     *
+     * @param value string, may be null
+     * @return id of the string, -1 for null
+     */
+    int reference(String value) {
+        if (value == null)
+            return -1;
+
+        Integer id = ids.get(value);
+        if (id == null) {
+            if (freeIdCount > 0) {
+                id = freeIds[--freeIdCount];
+            } else {
+                id = stringCount++;
+                if (id == strings.length) {
+                    strings = Arrays.copyOf(strings, id * 2);
+                    references = Arrays.copyOf(references, id * 2);
+                }
+            }
+            strings[id] = value;
+            ids.put(value, id);
+        }
+        references[id]++;
+        return id;
+    }
+
+    /**
+     * Forgets one reference to the string, string is dropped
+     * when nothing refers to it
+     *
+     * @param id id of the string, -1 is ignored
+     */
+    void release(int id) {
+        if (id < 0 || --references[id] > 0)
+            return;
+
+        ids.remove(strings[id]);
+        strings[id] = null;
+        if (freeIdCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+        freeIds[freeIdCount++] = id;
+    }
+
+    // ------------------- tags ------------------- //
+
+    String getFirstTag(int slot, FieldKey key) {
+        int[] pairs = tags[slot];
+        int index = getFirstIndex(pairs, key.ordinal());
+        return index == -1 ? null : getString(pairs[index + 1]);
+    }
+
+    private static int getFirstIndex(int[] pairs, int ordinal) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] == ordinal)
+                return i;
+        }
+        return -1;
+    }
+
+    FieldValues getTag(int slot, FieldKey key) {
+        int[] pairs = tags[slot];
+        int ordinal = key.ordinal();
+        FieldValues values = null;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] == ordinal) {
+                if (values == null)
+                    values = new FieldValues();
+                values.add(getString(pairs[i + 1]));
+            }
+        }
+        return values;
+    }
+
+    Map<FieldKey, FieldValues> getTags(int slot) {
+        int[] pairs = tags[slot];
+        LinkedHashMap<FieldKey, FieldValues> map = new LinkedHashMap<FieldKey, FieldValues>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            FieldKey key = KEYS[pairs[i]];
+            FieldValues values = map.get(key);
+            if (values == null) {
+                values = new FieldValues();
+                map.put(key, values);
+            }
+            values.add(getString(pairs[i + 1]));
+        }
+        return map;
+    }
+
+    /**
+     * Replaces values of one field
+     *
+     * @param slot   slot of the track
+     * @param key    field
+     * @param values new values, null or empty removes the field
+     * @return true if the field was there before
+     */
+    boolean setTag(int slot, FieldKey key, FieldValues values) {
+        int[] pairs = tags[slot];
+        int ordinal = key.ordinal();
+        int count = values == null ? 0 : values.size();
+        if (count == 0 && getFirstIndex(pairs, ordinal) == -1)
+            return false;
+
+        int[] result = new int[pairs.length + count * 2];
+        int length = 0;
+        boolean existed = false;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] == ordinal) {
+                release(pairs[i + 1]);
+                existed = true;
+            } else {
+                result[length++] = pairs[i];
+                result[length++] = pairs[i + 1];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            result[length++] = ordinal;
+            result[length++] = reference(values.get(i));
+        }
+        tags[slot] = length == 0 ? NO_TAGS : length == result.length ? result : Arrays.copyOf(result, length);
+        return existed;
+    }
+
+    void setTags(int slot, Map<FieldKey, FieldValues> map) {
+        int count = 0;
+        for (FieldValues values : map.values()) {
+            count += values.size();
+        }
+        int[] pairs = new int[count * 2];
+        int length = 0;
+        for (Map.Entry<FieldKey, FieldValues> entry : map.entrySet()) {
+            FieldValues values = entry.getValue();
+            for (int i = 0; i < values.size(); i++) {
+                pairs[length++] = entry.getKey().ordinal();
+                pairs[length++] = reference(values.get(i));
+            }
+        }
+        setTags(slot, pairs);
+    }
+
+    private void setTags(int slot, int[] pairs) {
+        int[] old = tags[slot];
+        if (old != null) {
+            for (int i = 1; i < old.length; i += 2) {
+                release(old[i]);
+            }
+        }
+        tags[slot] = pairs.length == 0 ? NO_TAGS : pairs;
+    }
+}
@@ -25,13 +25,35 @@ import com.tulskiy.musique.playlist.formatting.tokens.TextExpression;
 import java.util.ArrayList;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @Author: Denis Tulskiy
  * @Date: Feb 6, 2010
  */
 public class Parser {
+    private static final int MAX_CACHED = 1000;
+    private static final ConcurrentHashMap<String, Expression> cache = new ConcurrentHashMap<String, Expression>();
+
+    /**
+     * Returns compiled expression for the format. Expressions are immutable
+     * once parsed, so the same instance is shared by all callers that use
+     * the same format string.
+     */
     public static Expression parse(String text) {
+        Expression expression = cache.get(text);
+        if (expression == null) {
+            if (cache.size() >= MAX_CACHED)
+                cache.clear();
+            expression = compile(text);
+            Expression old = cache.putIfAbsent(text, expression);
+            if (old != null)
+                expression = old;
+        }
+        return expression;
+    }
+
+    private static Expression compile(String text) {
         text = text.replaceAll("\\s*,\\s*", ",");
         StringTokenizer st = new StringTokenizer(text, "$%,\'[])", true);
         MethodExpression root = new MethodExpression("eval");
@@ -19,27 +19,44 @@ package com.tulskiy.musique.playlist.formatting.tokens;
 
 import com.tulskiy.musique.playlist.Track;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Calls one of the functions in {@link Methods}. Like getters in
+ * {@link ParameterExpression}, functions are compiled once per name
+ * into generated classes instead of being invoked by reflection.
+ *
  * @Author: Denis Tulskiy
  * @Date: Feb 6, 2010
  */
 public class MethodExpression implements Expression {
     private static Methods methods = new Methods();
+    private static final ConcurrentHashMap<String, Function> functions = new ConcurrentHashMap<String, Function>();
+
+    public interface Function {
+        Object apply(Methods methods, Track track, ArrayList<Expression> args);
+    }
 
-    private Method method;
+    private String name;
+    private Function function;
     private ArrayList<Expression> expressions;
 
     public MethodExpression(String name) {
-        try {
-            method = Methods.class.getDeclaredMethod(name, Track.class, ArrayList.class);
-            expressions = new ArrayList<Expression>();
-        } catch (NoSuchMethodException e) {
-//            e.printStackTrace();
+        this.name = name;
+        function = functions.get(name);
+        if (function == null) {
+            function = compile(name);
+            if (function != null)
+                functions.putIfAbsent(name, function);
         }
+        if (function != null)
+            expressions = new ArrayList<Expression>();
     }
 
     public void addExpression(Expression expression) {
@@ -51,21 +68,53 @@ public class MethodExpression implements Expression {
     }
 
     public Object eval(Track track) {
+        if (function == null)
+            return null;
         try {
-            if (method != null)
-                return method.invoke(methods, track, expressions);
-        } catch (IllegalAccessException e) {
+            return function.apply(methods, track, expressions);
+        } catch (Exception e) {
+            // same as a failed reflective call, the function has no value
             e.printStackTrace();
-        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private static Function compile(String name) {
+        final Method method;
+        try {
+            method = Methods.class.getDeclaredMethod(name, Track.class, ArrayList.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            return (Function) LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Methods.class, Track.class, ArrayList.class),
+                    handle, handle.type()
+            ).getTarget().invoke();
+        } catch (Throwable e) {
             e.printStackTrace();
+            return new Function() {
+                @Override
+                public Object apply(Methods methods, Track track, ArrayList<Expression> args) {
+                    try {
+                        return method.invoke(methods, track, args);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        return null;
+                    }
+                }
+            };
         }
-        return null;
     }
 
     @Override
     public String toString() {
         return "MethodExpression{" +
-               "method=" + method +
+               "method=" + name +
                '}';
 
     }
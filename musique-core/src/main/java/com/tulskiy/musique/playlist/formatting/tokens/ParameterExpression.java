@@ -21,51 +21,100 @@ import com.tulskiy.musique.gui.model.FieldValues;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.TrackData;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Reads a field of {@link TrackData} through its getter. Getters are
+ * compiled once per name into a generated {@link Getter} class with
+ * {@link LambdaMetafactory}, so evaluation is a plain interface call.
+ *
  * @Author: Denis Tulskiy
  * @Date: Feb 6, 2010
  */
 public class ParameterExpression implements Expression {
-    private Method method;
+    private static final ConcurrentHashMap<String, Getter> getters = new ConcurrentHashMap<String, Getter>();
+    private static final Getter NO_GETTER = new Getter() {
+        @Override
+        public Object get(TrackData trackData) {
+            return null;
+        }
+    };
+
+    public interface Getter {
+        Object get(TrackData trackData);
+    }
+
+    private final String name;
+    private final Getter getter;
 
     public ParameterExpression(String name) {
+        this.name = name;
+        Getter g = getters.get(name);
+        if (g == null) {
+            g = compile(name);
+            getters.putIfAbsent(name, g);
+        }
+        getter = g;
+    }
+
+    public Object eval(Track track) {
+        Object o = getter.get(track.getTrackData());
+        if (o == null)
+            return null;
+        // hack for multi-valued tag fields
+        return o instanceof FieldValues || o instanceof String ? o : o.toString();
+    }
+
+    private static Getter compile(String name) {
+        Method method;
         try {
             method = TrackData.class.getDeclaredMethod("get" + name);
         } catch (NoSuchMethodException e) {
-//            e.printStackTrace();
             try {
                 method = TrackData.class.getDeclaredMethod("is" + name);
             } catch (NoSuchMethodException e1) {
-//                e.printStackTrace();
+                return NO_GETTER;
             }
         }
-    }
 
-    public Object eval(Track track) {
-        if (method == null)
-            return null;
         try {
-            Object o = method.invoke(track.getTrackData());
-            if (o == null)
-                return null;
-            // hack for multi-valued tag fields
-            return o instanceof FieldValues ? o : o.toString();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            Class<?> type = MethodType.methodType(method.getReturnType()).wrap().returnType();
+            return (Getter) LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Getter.class),
+                    MethodType.methodType(Object.class, TrackData.class),
+                    handle, MethodType.methodType(type, TrackData.class)
+            ).getTarget().invoke();
+        } catch (Throwable e) {
             e.printStackTrace();
+            return reflective(method);
         }
+    }
 
-        return null;
+    private static Getter reflective(final Method method) {
+        return new Getter() {
+            @Override
+            public Object get(TrackData trackData) {
+                try {
+                    return method.invoke(trackData);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+        };
     }
 
     @Override
     public String toString() {
         return "ParameterExpression{" +
-               "method=" + method +
+               "name=" + name +
                '}';
     }
 }
@@ -17,9 +17,31 @@
 
 package com.tulskiy.musique.spi;
 
+import com.tulskiy.musique.audio.DecoderFactory;
+import com.tulskiy.musique.system.Codecs;
+
 /**
  * Author: Denis Tulskiy
  * Date: 2/27/11
  */
-public abstract class DecoderPlugin extends Plugin {
+public abstract class DecoderPlugin extends Plugin implements DecoderFactory {
+    /**
+     * @return file extensions that decoders created by this plugin can play
+     */
+    public abstract String[] getFormats();
+
+    @Override
+    public boolean init() {
+        for (String format : getFormats()) {
+            Codecs.registerDecoder(format, this);
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        for (String format : getFormats()) {
+            Codecs.unregisterDecoder(format);
+        }
+    }
 }
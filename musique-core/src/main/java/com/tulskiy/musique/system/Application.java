@@ -23,8 +23,11 @@ package com.tulskiy.musique.system;
 
 import com.tulskiy.musique.audio.AudioFileReader;
 import com.tulskiy.musique.audio.Scrobbler;
+import com.tulskiy.musique.audio.player.Crossfade;
+import com.tulskiy.musique.audio.player.PlaybackMetrics;
 import com.tulskiy.musique.audio.player.Player;
 import com.tulskiy.musique.audio.player.io.AudioOutput;
+import com.tulskiy.musique.audio.player.io.BufferPolicy;
 import com.tulskiy.musique.gui.MainWindow;
 import com.tulskiy.musique.playlist.PlaybackOrder;
 import com.tulskiy.musique.playlist.PlaylistManager;
@@ -34,6 +37,7 @@ import com.tulskiy.musique.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
 import javax.swing.*;
@@ -191,6 +195,61 @@ public class Application {
                 player.getPlaybackOrder().setOrder(PlaybackOrder.Order.values()[index]);
             }
         });
+        PropertyChangeListener outputFormatListener = new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                AudioFormat format = null;
+                if (configuration.getBoolean("player.fixedFormat", false)) {
+                    format = new AudioFormat(configuration.getInt("player.outputRate", 44100),
+                            configuration.getInt("player.outputBits", 16), 2, true, false);
+                }
+                player.getAudioOutput().setOutputFormat(format);
+            }
+        };
+        configuration.addPropertyChangeListener("player.fixedFormat", true, outputFormatListener);
+        configuration.addPropertyChangeListener("player.outputRate", outputFormatListener);
+        configuration.addPropertyChangeListener("player.outputBits", outputFormatListener);
+        configuration.addPropertyChangeListener("player.crossfade", true, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                player.setCrossfade(configuration.getInt(evt.getPropertyName(), 0) * 1000);
+            }
+        });
+        configuration.addPropertyChangeListener("player.crossfadeCurve", true, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                int index = configuration.getInt(evt.getPropertyName(), Crossfade.Curve.EQUAL_POWER.ordinal());
+                player.setCrossfadeCurve(Crossfade.Curve.values()[index]);
+            }
+        });
+        configuration.addPropertyChangeListener("player.metrics", true, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                boolean enabled = configuration.getBoolean(evt.getPropertyName(), false);
+                if (enabled)
+                    PlaybackMetrics.getInstance().register();
+                PlaybackMetrics.getInstance().setEnabled(enabled);
+            }
+        });
+        PropertyChangeListener bufferListener = new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                BufferPolicy policy = player.getBufferPolicy();
+                policy.setLocalMillis(configuration.getInt("player.bufferMillis", BufferPolicy.DEFAULT_LOCAL_MILLIS));
+                policy.setStreamMillis(configuration.getInt("player.streamBufferMillis", BufferPolicy.DEFAULT_STREAM_MILLIS));
+                policy.setMaxSize(configuration.getInt("player.bufferMaxSize", BufferPolicy.DEFAULT_MAX_SIZE >> 20) << 20);
+            }
+        };
+        configuration.addPropertyChangeListener("player.bufferMillis", true, bufferListener);
+        configuration.addPropertyChangeListener("player.streamBufferMillis", bufferListener);
+        configuration.addPropertyChangeListener("player.bufferMaxSize", bufferListener);
+        configuration.addPropertyChangeListener("player.preRoll", true, new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                // seconds before the end of a track to open the next one
+                player.setPreRoll(configuration.getInt(evt.getPropertyName(), 5) * 1000);
+            }
+        });
         UIManager.put("Slider.paintValue", Boolean.FALSE);
         UIManager.put("FileChooser.readOnly", Boolean.TRUE);
         UIManager.put("swing.boldMetal", Boolean.FALSE);
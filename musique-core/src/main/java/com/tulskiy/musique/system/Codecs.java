@@ -18,6 +18,7 @@
 package com.tulskiy.musique.system;
 
 import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.DecoderFactory;
 import com.tulskiy.musique.audio.Encoder;
 import com.tulskiy.musique.audio.IcyInputStream;
 import com.tulskiy.musique.audio.formats.ape.APEDecoder;
@@ -42,40 +43,84 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Author: Denis Tulskiy
  * Date: 24.06.2009
  */
 public class Codecs {
-    private static HashMap<String, Decoder> decoders = new HashMap<String, Decoder>();
-    private static HashMap<String, Encoder> encoders = new HashMap<String, Encoder>();
+    // how many closed decoders of each type to keep for reuse
+    private static final int MAX_IDLE_DECODERS = 4;
+
+    private static Map<String, DecoderPool> decoders = new ConcurrentHashMap<String, DecoderPool>();
+    // pool each decoder class should be returned to
+    private static Map<Class<?>, DecoderPool> pools = new ConcurrentHashMap<Class<?>, DecoderPool>();
+    private static HashMap<String, Class<? extends Encoder>> encoders = new HashMap<String, Class<? extends Encoder>>();
     private static final Logger logger = LoggerFactory.getLogger(Codecs.class.getName());
 
     static {
-        decoders.put("mp3", new MP3Decoder());
-        decoders.put("ogg", new VorbisDecoder());
-        PCMDecoder pcmDecoder = new PCMDecoder();
-        decoders.put("wav", pcmDecoder);
-        decoders.put("au", pcmDecoder);
-        decoders.put("aiff", pcmDecoder);
-        decoders.put("flac", new FLACDecoder());
-        decoders.put("ape", new APEDecoder());
-        decoders.put("wv", new WavPackDecoder());
-        MP4Demuxer mp4Demuxer = new MP4Demuxer();
-        decoders.put("mp4", mp4Demuxer);
-        decoders.put("m4a", mp4Demuxer);
-        decoders.put("tta", new TTADecoder());
-        decoders.put("aac", new AACDecoder());
-
-        encoders.put("wav", new PCMEncoder());
-        encoders.put("ape", new APEEncoder());
-        encoders.put("ogg", new VorbisEncoder());
-        encoders.put("wv", new WavPackEncoder());
-        encoders.put("flac", new FLACEncoder());
+        registerDecoder("mp3", MP3Decoder.class);
+        registerDecoder("ogg", VorbisDecoder.class);
+        registerDecoder("wav", PCMDecoder.class);
+        registerDecoder("au", PCMDecoder.class);
+        registerDecoder("aiff", PCMDecoder.class);
+        registerDecoder("aif", PCMDecoder.class);
+        registerDecoder("aifc", PCMDecoder.class);
+        registerDecoder("flac", FLACDecoder.class);
+        registerDecoder("ape", APEDecoder.class);
+        registerDecoder("wv", WavPackDecoder.class);
+        registerDecoder("mp4", MP4Demuxer.class);
+        registerDecoder("m4a", MP4Demuxer.class);
+        registerDecoder("tta", TTADecoder.class);
+        registerDecoder("aac", AACDecoder.class);
+
+        encoders.put("wav", PCMEncoder.class);
+        encoders.put("ape", APEEncoder.class);
+        encoders.put("ogg", VorbisEncoder.class);
+        encoders.put("wv", WavPackEncoder.class);
+        encoders.put("flac", FLACEncoder.class);
+    }
+
+    public static synchronized void registerDecoder(String format, Class<? extends Decoder> decoderClass) {
+        DecoderPool pool = pools.get(decoderClass);
+        if (pool == null) {
+            pool = new DecoderPool(new ClassFactory(decoderClass));
+            pools.put(decoderClass, pool);
+        }
+        decoders.put(format.toLowerCase(), pool);
     }
 
+    public static synchronized void registerDecoder(String format, DecoderFactory factory) {
+        DecoderPool pool = null;
+        for (DecoderPool p : decoders.values()) {
+            if (p.factory == factory) {
+                pool = p;
+                break;
+            }
+        }
+        if (pool == null)
+            pool = new DecoderPool(factory);
+        decoders.put(format.toLowerCase(), pool);
+    }
+
+    public static void unregisterDecoder(String format) {
+        decoders.remove(format.toLowerCase());
+    }
+
+    /**
+     * Get a decoder for the track. Every call returns an instance that
+     * is not used by anyone else, closed decoders returned with
+     * {@link #releaseDecoder(Decoder)} are reused together with
+     * their internal buffers.
+     *
+     * @param track track to decode
+     * @return decoder or null if format is not supported
+     */
     public static Decoder getDecoder(Track track) {
         URI location = track.getTrackData().getLocation();
         if (location == null) {
@@ -91,40 +136,109 @@ public class Codecs {
             }
 
             if ("audio/mpeg".equals(contentType)) {
-                return decoders.get("mp3");
+                return getDecoder("mp3");
             }
 
             if ("application/ogg".equals(contentType)) {
-                return decoders.get("ogg");
+                return getDecoder("ogg");
             }
 
             if ("audio/aac".equals(contentType)) {
-                return decoders.get("aac");
+                return getDecoder("aac");
             }
             logger.warn("Unsupported ContentType: " + contentType);
             return null;
         }
         String ext = Util.getFileExt(location.toString()).toLowerCase();
-        return decoders.get(ext);
+        return getDecoder(ext);
     }
 
-    public static Decoder getNewDecoder(Track track) {
-        try {
-            return getDecoder(track).getClass().newInstance();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+    private static Decoder getDecoder(String format) {
+        DecoderPool pool = decoders.get(format);
+        if (pool == null) {
+            return null;
         }
+        return pool.get();
+    }
 
-        return null;
+    /**
+     * Return closed decoder so it can be handed out again
+     *
+     * @param decoder decoder that is not used anymore
+     */
+    public static void releaseDecoder(Decoder decoder) {
+        if (decoder == null)
+            return;
+        DecoderPool pool = pools.get(decoder.getClass());
+        if (pool != null)
+            pool.idle.offer(decoder);
     }
 
+    /**
+     * @deprecated every call to {@link #getDecoder(Track)} returns new instance now
+     */
+    @Deprecated
+    public static Decoder getNewDecoder(Track track) {
+        return getDecoder(track);
+    }
+
+    /**
+     * Create new encoder for the format. Encoders are never shared,
+     * so several tracks can be encoded at the same time
+     *
+     * @param format file extension of the output format
+     * @return new encoder or null if format is not supported
+     */
     public static Encoder getEncoder(String format) {
-        return encoders.get(format);
+        Class<? extends Encoder> encoderClass = encoders.get(format);
+        if (encoderClass == null)
+            return null;
+        try {
+            return encoderClass.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            logger.warn("Could not create encoder " + encoderClass, e);
+            return null;
+        }
     }
 
     public static Set<String> getFormats() {
         return decoders.keySet();
     }
+
+    private static class DecoderPool {
+        private final DecoderFactory factory;
+        private final Queue<Decoder> idle = new ArrayBlockingQueue<Decoder>(MAX_IDLE_DECODERS);
+
+        DecoderPool(DecoderFactory factory) {
+            this.factory = factory;
+        }
+
+        Decoder get() {
+            Decoder decoder = idle.poll();
+            if (decoder == null) {
+                decoder = factory.newDecoder();
+                if (decoder != null && !pools.containsKey(decoder.getClass()))
+                    pools.put(decoder.getClass(), this);
+            }
+            return decoder;
+        }
+    }
+
+    private static class ClassFactory implements DecoderFactory {
+        private final Class<? extends Decoder> decoderClass;
+
+        ClassFactory(Class<? extends Decoder> decoderClass) {
+            this.decoderClass = decoderClass;
+        }
+
+        @Override
+        public Decoder newDecoder() {
+            try {
+                return decoderClass.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                logger.warn("Could not create decoder " + decoderClass, e);
+                return null;
+            }
+        }
+    }
 }
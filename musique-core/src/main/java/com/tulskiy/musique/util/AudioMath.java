@@ -64,4 +64,91 @@ public class AudioMath {
     public static int millisToSamples(int millis, int sampleRate) {
         return millis / 1000 * sampleRate;
     }
+
+    /**
+     * Unpack PCM bytes to interleaved float samples normalized to [-1, 1).
+     * Supports 8, 16, 24 and 32 bit signed or unsigned PCM of either endianness
+     *
+     * @param input  pcm data
+     * @param off    offset in input
+     * @param len    length of pcm data in bytes
+     * @param output buffer for samples, must hold len / (bps / 8) samples
+     * @param fmt    format of pcm data
+     * @return number of samples written
+     */
+    public static int toFloat(byte[] input, int off, int len, float[] output, AudioFormat fmt) {
+        int bps = fmt.getSampleSizeInBits() / 8;
+        boolean bigEndian = fmt.isBigEndian();
+        boolean unsigned = fmt.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        float scale = 1f / (1L << (fmt.getSampleSizeInBits() - 1));
+        int count = len / bps;
+        int i = off;
+        for (int j = 0; j < count; j++) {
+            int v = 0;
+            if (bigEndian) {
+                for (int b = 0; b < bps; b++) {
+                    v = (v << 8) | (input[i + b] & 0xFF);
+                }
+            } else {
+                for (int b = bps - 1; b >= 0; b--) {
+                    v = (v << 8) | (input[i + b] & 0xFF);
+                }
+            }
+            if (unsigned) {
+                v -= 1 << (bps * 8 - 1);
+            } else if (bps < 4) {
+                // sign extend
+                int shift = 32 - bps * 8;
+                v = v << shift >> shift;
+            }
+            output[j] = v * scale;
+            i += bps;
+        }
+        return count;
+    }
+
+    /**
+     * Pack float samples to PCM bytes, clipping values out of range.
+     * Reverse of {@link #toFloat(byte[], int, int, float[], AudioFormat)}
+     *
+     * @param input  samples normalized to [-1, 1)
+     * @param count  number of samples
+     * @param output buffer for pcm data
+     * @param off    offset in output
+     * @param fmt    format of pcm data
+     * @return number of bytes written
+     */
+    public static int toPCM(float[] input, int count, byte[] output, int off, AudioFormat fmt) {
+        int bps = fmt.getSampleSizeInBits() / 8;
+        boolean bigEndian = fmt.isBigEndian();
+        boolean unsigned = fmt.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+        double scale = 1L << (fmt.getSampleSizeInBits() - 1);
+        double max = scale - 1;
+        int i = off;
+        for (int j = 0; j < count; j++) {
+            double d = Math.rint(input[j] * scale);
+            if (d > max) {
+                d = max;
+            } else if (d < -scale) {
+                d = -scale;
+            }
+            int v = (int) d;
+            if (unsigned) {
+                v += 1 << (bps * 8 - 1);
+            }
+            if (bigEndian) {
+                for (int b = bps - 1; b >= 0; b--) {
+                    output[i + b] = (byte) v;
+                    v >>= 8;
+                }
+            } else {
+                for (int b = 0; b < bps; b++) {
+                    output[i + b] = (byte) v;
+                    v >>= 8;
+                }
+            }
+            i += bps;
+        }
+        return i - off;
+    }
 }
@@ -27,11 +27,17 @@ import com.tulskiy.musique.audio.formats.uncompressed.PCMFileReader;
 import com.tulskiy.musique.audio.formats.wavpack.WavPackFileReader;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.system.Codecs;
+import com.tulskiy.musique.util.AudioMath;
 import org.junit.Test;
 
 import java.io.File;
 import java.net.URISyntaxException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Author: Denis Tulskiy
  * Date: 15.07.2009
@@ -108,6 +114,56 @@ public class DecoderTest {
         test(new TTAFileReader(), "testfiles/tta/sample.tta");
     }
 
+    @Test
+    public void testDecoderPool() throws URISyntaxException {
+        File file = new File(getClass().getClassLoader().getResource("testfiles/flac/sample.flac").toURI());
+        Track track = new FLACFileReader().read(file);
+        Decoder first = Codecs.getDecoder(track);
+        Decoder second = Codecs.getDecoder(track);
+        assertNotSame(first, second);
+
+        Codecs.releaseDecoder(first);
+        assertSame(first, Codecs.getDecoder(track));
+    }
+
+    @Test
+    public void testFloatDecode() throws URISyntaxException {
+        testFloat(new FLACFileReader(), "testfiles/flac/sample.flac");
+        testFloat(new WavPackFileReader(), "testfiles/wavpack/sample.wv");
+        testFloat(new PCMFileReader(), "testfiles/uncompressed/sample.wav");
+        testFloat(new PCMFileReader(), "testfiles/uncompressed/sample.aiff");
+    }
+
+    private void testFloat(AudioFileReader reader, String fileName) throws URISyntaxException {
+        File file = new File(getClass().getClassLoader().getResource(fileName).toURI());
+        Track track = reader.read(file);
+        Decoder byteDecoder = Codecs.getDecoder(track);
+        FloatDecoder floatDecoder = (FloatDecoder) Codecs.getDecoder(track);
+        assertTrue(byteDecoder.open(track));
+        assertTrue(floatDecoder.open(track));
+
+        byte[] buf = new byte[65536];
+        float[] expected = new float[65536];
+        float[] samples = new float[65536];
+        long total = 0;
+        while (true) {
+            int len = byteDecoder.decode(buf);
+            int count = floatDecoder.decode(samples);
+            if (len == -1) {
+                assertEquals(-1, count);
+                break;
+            }
+            assertEquals(AudioMath.toFloat(buf, 0, len, expected, byteDecoder.getAudioFormat()), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected[i], samples[i], 0);
+            }
+            total += count;
+        }
+        assertTrue(total > 0);
+        byteDecoder.close();
+        floatDecoder.close();
+    }
+
     private void test(AudioFileReader reader, String fileName) {
         try {
             Track file = reader.read(new File(getClass().getClassLoader().getResource(fileName).toURI()));
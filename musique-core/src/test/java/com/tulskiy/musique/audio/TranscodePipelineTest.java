@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TranscodePipelineTest {
+    private static final int CHUNKS = 20;
+
+    private static class Pipeline extends TranscodePipeline {
+        final AtomicReference<Thread> decoderThread = new AtomicReference<Thread>();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int decoded;
+
+        @Override
+        int decode(byte[] buf) {
+            decoderThread.set(Thread.currentThread());
+            if (decoded == CHUNKS)
+                return -1;
+            buf[0] = (byte) decoded++;
+            return 1;
+        }
+
+        @Override
+        void encode(byte[] buf, int len) {
+            output.write(buf, 0, len);
+        }
+
+        @Override
+        boolean isStopped() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        pipeline.run();
+
+        byte[] out = pipeline.output.toByteArray();
+        assertEquals(CHUNKS, out.length);
+        for (int i = 0; i < CHUNKS; i++) {
+            assertEquals(i, out[i]);
+        }
+        assertFalse(pipeline.decoderThread.get().isAlive());
+    }
+
+    @Test
+    public void testEncoderFailure() throws Exception {
+        Pipeline pipeline = new Pipeline() {
+            @Override
+            void encode(byte[] buf, int len) {
+                throw new IllegalStateException("encoder");
+            }
+        };
+        try {
+            pipeline.run();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("encoder", e.getMessage());
+        }
+        Thread thread = pipeline.decoderThread.get();
+        assertTrue(thread.isDaemon());
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testDecoderFailure() throws Exception {
+        Pipeline pipeline = new Pipeline() {
+            @Override
+            int decode(byte[] buf) {
+                if (decoded == 2)
+                    throw new IllegalStateException("decoder");
+                return super.decode(buf);
+            }
+        };
+        try {
+            pipeline.run();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("decoder", e.getMessage());
+        }
+        assertEquals(2, pipeline.output.size());
+        assertFalse(pipeline.decoderThread.get().isAlive());
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        Pipeline pipeline = new Pipeline() {
+            @Override
+            int decode(byte[] buf) {
+                decoderThread.set(Thread.currentThread());
+                // busy decoder that ignores interrupts for a while
+                long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end) {
+                    Thread.yield();
+                }
+                return 1;
+            }
+
+            @Override
+            void encode(byte[] buf, int len) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            pipeline.run();
+            fail();
+        } catch (InterruptedException ignored) {
+        }
+        assertFalse(pipeline.decoderThread.get().isAlive());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.formats.mp3;
+
+import javazoom.jl.decoder.Bitstream;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class SeekTableTest {
+    private File getSample() throws Exception {
+        return new File(getClass().getClassLoader().getResource("testfiles/mp3/sample.mp3").toURI());
+    }
+
+    private SeekTable createTable() throws Exception {
+        File file = File.createTempFile("seek", ".mp3");
+        file.deleteOnExit();
+        return new SeekTable(file, 0);
+    }
+
+    @Test
+    public void testOffsets() throws Exception {
+        SeekTable table = createTable();
+        // first frame after a 4000 byte tag, then 128 kbps frames with padding
+        assertTrue(table.add(4000));
+        assertTrue(table.add(4417));
+        assertTrue(table.add(4835));
+        assertTrue(table.add(5253));
+
+        assertEquals(4, table.getFrameCount());
+        assertEquals(4000, table.getOffset(0));
+        assertEquals(4417, table.getOffset(1));
+        assertEquals(4835, table.getOffset(2));
+        assertEquals(5253, table.getOffset(3));
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        SeekTable table = createTable();
+        for (int i = 0; i < SeekTable.CHECKPOINT + 2; i++) {
+            assertTrue(table.add(1000 + 418L * i));
+        }
+        assertEquals(1000 + 418L * (SeekTable.CHECKPOINT - 1), table.getOffset(SeekTable.CHECKPOINT - 1));
+        assertEquals(1000 + 418L * SeekTable.CHECKPOINT, table.getOffset(SeekTable.CHECKPOINT));
+        assertEquals(1000 + 418L * (SeekTable.CHECKPOINT + 1), table.getOffset(SeekTable.CHECKPOINT + 1));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        SeekTable table = createTable();
+        // first frame can be anywhere, next ones only within a char away
+        assertTrue(table.add(5000000000L));
+        assertFalse(table.add(4999999999L));
+        assertFalse(table.add(5000000000L + Character.MAX_VALUE + 1));
+        assertTrue(table.add(5000000000L + Character.MAX_VALUE));
+        assertEquals(2, table.getFrameCount());
+        assertEquals(5000000000L + Character.MAX_VALUE, table.getOffset(1));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        File file = getSample();
+        SeekTable table = new SeekTable(file, 0);
+        table.build();
+        assertTrue(table.isComplete());
+        assertTrue(table.getFrameCount() > 10);
+
+        // reading a frame from its offset ends at the next one
+        for (int i = 0; i < table.getFrameCount() - 1; i++) {
+            FileInputStream fis = new FileInputStream(file);
+            assertEquals(table.getOffset(i), fis.skip(table.getOffset(i)));
+            Bitstream bitstream = new Bitstream(fis);
+            assertNotNull(bitstream.readFrame());
+            bitstream.closeFrame();
+            assertEquals(table.getOffset(i + 1), file.length() - bitstream.getPosition());
+            bitstream.close();
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File dir = Files.createTempDirectory("seektables").toFile();
+        File file = File.createTempFile("seek", ".mp3");
+        Files.copy(getSample().toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        SeekTable table = new SeekTableCache(dir).get(file, 0);
+        for (int i = 0; i < 100 && !table.isComplete(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(table.isComplete());
+        for (int i = 0; i < 100 && dir.list().length == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, dir.list().length);
+
+        // new session reads the saved table
+        SeekTable loaded = new SeekTableCache(dir).get(file, 0);
+        assertTrue(loaded.isComplete());
+        assertEquals(table.getFrameCount(), loaded.getFrameCount());
+        for (int i = 0; i < table.getFrameCount(); i++) {
+            assertEquals(table.getOffset(i), loaded.getOffset(i));
+        }
+
+        // file changed, saved table is ignored
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        File index = dir.listFiles()[0];
+        assertNull(SeekTable.load(index, file));
+
+        file.delete();
+        index.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.formats.uncompressed;
+
+import com.tulskiy.musique.playlist.Track;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.*;
+
+public class PCMDecoderTest {
+    private static final int SAMPLES = 50000;
+
+    private File getSample(String name) throws Exception {
+        return new File(getClass().getClassLoader().getResource("testfiles/uncompressed/" + name).toURI());
+    }
+
+    /**
+     * Value of channel 0 at the sample, channel 1 is negated
+     */
+    private float value(int sample) {
+        return (float) Math.sin(sample / 20.0) * 0.5f;
+    }
+
+    /**
+     * Writes stereo WAV with the test signal
+     *
+     * @param tag  format tag, 0xFFFE for extensible
+     * @param bits bits per sample
+     */
+    private File writeWave(int tag, int bits) throws Exception {
+        boolean floating = tag == 3;
+        int bps = bits / 8;
+        int fmtSize = tag == 0xFFFE ? 40 : 16;
+        ByteBuffer buf = ByteBuffer.allocate(12 + 8 + fmtSize + 8 + SAMPLES * 2 * bps).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("RIFF".getBytes()).putInt(buf.capacity() - 8).put("WAVE".getBytes());
+        buf.put("fmt ".getBytes()).putInt(fmtSize).putShort((short) tag).putShort((short) 2)
+                .putInt(44100).putInt(44100 * 2 * bps).putShort((short) (2 * bps)).putShort((short) bits);
+        if (tag == 0xFFFE) {
+            // extensible PCM subformat
+            buf.putShort((short) 22).putShort((short) bits).putInt(3).putShort((short) 1).put(new byte[14]);
+        }
+        buf.put("data".getBytes()).putInt(SAMPLES * 2 * bps);
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int c = 0; c < 2; c++) {
+                float v = c == 0 ? value(i) : -value(i);
+                if (floating) {
+                    buf.putFloat(v);
+                } else {
+                    int s = (int) Math.rint(v * (1L << (bits - 1)));
+                    for (int b = 0; b < bps; b++) {
+                        buf.put((byte) (s >> (b * 8)));
+                    }
+                }
+            }
+        }
+
+        File file = File.createTempFile("pcm", ".wav");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(buf.array());
+        fos.close();
+        return file;
+    }
+
+    private void testSignal(File file, float delta) {
+        Track track = new PCMFileReader().read(file);
+        assertEquals(SAMPLES, track.getTrackData().getTotalSamples());
+
+        PCMDecoder decoder = new PCMDecoder();
+        assertTrue(decoder.open(track));
+        float[] samples = new float[4096];
+        int sample = 0;
+        int count;
+        while ((count = decoder.decode(samples)) != -1) {
+            for (int i = 0; i < count; i += 2) {
+                assertEquals(value(sample), samples[i], delta);
+                assertEquals(-value(sample), samples[i + 1], delta);
+                sample++;
+            }
+        }
+        assertEquals(SAMPLES, sample);
+
+        int[] targets = {SAMPLES - 1, 0, 31337, SAMPLES / 2};
+        for (int target : targets) {
+            decoder.seekSample(target);
+            assertTrue(decoder.decode(samples) > 0);
+            assertEquals(value(target), samples[0], delta);
+        }
+        decoder.seekSample(SAMPLES);
+        assertEquals(-1, decoder.decode(samples));
+        decoder.close();
+    }
+
+    @Test
+    public void testFormats() throws Exception {
+        testSignal(writeWave(1, 16), 1e-4f);
+        testSignal(writeWave(1, 24), 1e-6f);
+        testSignal(writeWave(1, 32), 1e-6f);
+        testSignal(writeWave(0xFFFE, 24), 1e-6f);
+        testSignal(writeWave(3, 32), 0);
+    }
+
+    @Test
+    public void testFloatOutput() throws Exception {
+        File file = writeWave(3, 32);
+        PCMDecoder decoder = new PCMDecoder();
+        assertTrue(decoder.open(new PCMFileReader().read(file)));
+        assertEquals(24, decoder.getAudioFormat().getSampleSizeInBits());
+        byte[] buf = new byte[6 * 100];
+        assertEquals(buf.length, decoder.decode(buf));
+        for (int i = 0; i < 100; i++) {
+            int s = (buf[i * 6] & 0xFF) | (buf[i * 6 + 1] & 0xFF) << 8 | buf[i * 6 + 2] << 16;
+            assertEquals(value(i), s / (float) (1 << 23), 1e-6f);
+        }
+        decoder.close();
+    }
+
+    @Test
+    public void testHeaders() throws Exception {
+        String[] names = {"sample.wav", "sample.aiff", "sample.au"};
+        for (String name : names) {
+            File file = getSample(name);
+            AudioFileFormat expected = AudioSystem.getAudioFileFormat(file);
+            Track track = new PCMFileReader().read(file);
+            assertEquals(expected.getFrameLength(), track.getTrackData().getTotalSamples());
+            assertEquals((int) expected.getFormat().getSampleRate(), track.getTrackData().getSampleRate());
+            assertEquals(expected.getFormat().getChannels(), track.getTrackData().getChannels());
+
+            // same samples as java sound
+            PCMDecoder decoder = new PCMDecoder();
+            assertTrue(decoder.open(track));
+            byte[] buf = new byte[4000];
+            byte[] reference = new byte[4000];
+            javax.sound.sampled.AudioInputStream stream = AudioSystem.getAudioInputStream(
+                    decoder.getAudioFormat(), AudioSystem.getAudioInputStream(file));
+            decoder.seekSample(1000);
+            assertEquals(1000 * 4, stream.skip(1000 * 4));
+            int len = decoder.decode(buf);
+            assertEquals(len, stream.read(reference));
+            assertArrayEquals(reference, buf);
+            stream.close();
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void testReadError() throws Exception {
+        PCMDecoder decoder = new PCMDecoder();
+        assertTrue(decoder.open(new PCMFileReader().read(writeWave(1, 16))));
+        float[] samples = new float[4096];
+        assertTrue(decoder.decode(samples) > 0);
+
+        // failed read ends the stream, later calls do not try again
+        Field field = PCMDecoder.class.getDeclaredField("channel");
+        field.setAccessible(true);
+        ((FileChannel) field.get(decoder)).close();
+        assertEquals(-1, decoder.decode(samples));
+        assertEquals(-1, decoder.decode(new byte[4096]));
+        decoder.close();
+    }
+}
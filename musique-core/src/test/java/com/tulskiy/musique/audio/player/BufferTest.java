@@ -18,6 +18,8 @@
 package com.tulskiy.musique.audio.player;
 
 import com.tulskiy.musique.audio.player.io.Buffer;
+import com.tulskiy.musique.audio.player.io.BufferPolicy;
+import com.tulskiy.musique.audio.player.io.RingBuffer;
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.util.AudioMath;
 import org.junit.Test;
@@ -27,6 +29,8 @@ import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Author: Denis Tulskiy
@@ -134,4 +138,240 @@ public class BufferTest {
                 0xFFEFCDAB, 0x3412AB, 0x127856, 0x785634,
         }, output);
     }
+
+    @Test
+    public void testRingBufferWrap() {
+        RingBuffer r = new RingBuffer(9);
+        byte[] b = "ABCDEFG".getBytes();
+        byte[] g = new byte[9];
+        for (int i = 0; i < 10; i++) {
+            r.put(b, 0, 7);
+            assertEquals(7, r.getAvailable());
+            assertEquals(2, r.putAvailable());
+            assertEquals(4, r.get(g, 0, 4));
+            assertEquals("ABCD", new String(g, 0, 4));
+            assertEquals(3, r.get(g, 0, 9));
+            assertEquals("EFG", new String(g, 0, 3));
+        }
+
+        r.put(b, 0, 7);
+        r.removeTail(3);
+        assertEquals(4, r.get(g, 0, 9));
+        assertEquals("ABCD", new String(g, 0, 4));
+    }
+
+    @Test
+    public void testRingBufferEmpty() throws InterruptedException {
+        final RingBuffer r = new RingBuffer(16);
+        byte[] b = new byte[10];
+        r.put(b, 0, b.length);
+        r.empty();
+        assertTrue(r.isEOF());
+        assertEquals(0, r.getAvailable());
+        assertEquals(-1, r.get(b, 0, b.length));
+
+        r.setEOF(false);
+        final int[] result = new int[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = r.get(new byte[10], 0, 10);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        // blocked reader should wake up and see eof
+        r.empty();
+        consumer.join(500);
+        assertEquals(-1, result[0]);
+    }
+
+    @Test
+    public void testRingBufferConcurrent() throws InterruptedException {
+        final RingBuffer r = new RingBuffer(1000);
+        final int total = 1 << 22;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[777];
+                int written = 0;
+                while (written < total) {
+                    int len = Math.min(chunk.length, total - written);
+                    for (int i = 0; i < len; i++) {
+                        chunk[i] = (byte) (written + i);
+                    }
+                    r.put(chunk, 0, len);
+                    written += len;
+                }
+            }
+        });
+        producer.start();
+
+        byte[] buf = new byte[513];
+        int read = 0;
+        while (read < total) {
+            int len = r.get(buf, 0, buf.length);
+            for (int i = 0; i < len; i++) {
+                assertEquals((byte) (read + i), buf[i]);
+            }
+            read += len;
+        }
+        producer.join();
+        assertEquals(0, r.getAvailable());
+    }
+
+    @Test
+    public void testRingBufferResize() {
+        RingBuffer r = new RingBuffer(9);
+        byte[] b = "ABCDEFG".getBytes();
+        byte[] g = new byte[20];
+        r.put(b, 0, 7);
+        r.get(g, 0, 4);
+        // wraps around
+        r.put(b, 0, 5);
+        r.resize(20);
+        assertEquals(20, r.size());
+        assertEquals(8, r.getAvailable());
+        r.put(b, 0, 7);
+        assertEquals(15, r.get(g, 0, 20));
+        assertEquals("EFGABCDEABCDEFG", new String(g, 0, 15));
+
+        // does not drop data when shrinking
+        r.put(b, 0, 7);
+        r.resize(4);
+        assertEquals(7, r.size());
+        assertEquals(7, r.get(g, 0, 20));
+        assertEquals("ABCDEFG", new String(g, 0, 7));
+        r.resize(4);
+        assertEquals(4, r.size());
+    }
+
+    @Test
+    public void testRingBufferConcurrentResize() throws InterruptedException {
+        final RingBuffer r = new RingBuffer(1000);
+        final int total = 1 << 22;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[777];
+                int[] sizes = {100, 5000, 300, 1000, 65536};
+                int written = 0;
+                int count = 0;
+                while (written < total) {
+                    int len = Math.min(chunk.length, total - written);
+                    for (int i = 0; i < len; i++) {
+                        chunk[i] = (byte) (written + i);
+                    }
+                    r.put(chunk, 0, len);
+                    written += len;
+                    if (++count % 10 == 0)
+                        r.resize(sizes[count / 10 % sizes.length]);
+                }
+            }
+        });
+        producer.start();
+
+        byte[] buf = new byte[513];
+        int read = 0;
+        while (read < total) {
+            int len = r.get(buf, 0, buf.length);
+            for (int i = 0; i < len; i++) {
+                assertEquals((byte) (read + i), buf[i]);
+            }
+            read += len;
+        }
+        producer.join();
+        assertEquals(0, r.getAvailable());
+    }
+
+    @Test
+    public void testUnderruns() throws InterruptedException {
+        final Buffer buffer = new Buffer(1000);
+        buffer.addNextTrack(null, null, -1, false);
+        buffer.pollNextTrack();
+        byte[] buf = new byte[100];
+        // waiting for the first data is fine
+        buffer.write(buf, 0, 100);
+        assertEquals(100, buffer.read(buf, 0, 100));
+        assertEquals(0, buffer.getUnderruns());
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                buffer.write(new byte[100], 0, 100);
+            }
+        });
+        producer.start();
+        assertEquals(100, buffer.read(buf, 0, 100));
+        producer.join();
+        assertEquals(1, buffer.getUnderruns());
+
+        buffer.flush();
+        buffer.resize(5000);
+        assertEquals(5000, buffer.size());
+    }
+
+    @Test
+    public void testBufferPolicy() {
+        BufferPolicy policy = new BufferPolicy();
+        AudioFormat cd = new AudioFormat(44100, 16, 2, true, false);
+        AudioFormat hires = new AudioFormat(192000, 24, 2, true, false);
+        assertEquals(66150 * 4, policy.getSize(cd, false));
+        assertEquals(441000 * 4, policy.getSize(cd, true));
+        assertEquals(288000 * 6, policy.getSize(hires, false));
+
+        policy.setLocalMillis(10);
+        assertEquals(BufferPolicy.IDLE_SIZE, policy.getSize(cd, false));
+        policy.setLocalMillis(BufferPolicy.DEFAULT_LOCAL_MILLIS);
+
+        assertTrue(policy.grow());
+        assertEquals(66150 * 8, policy.getSize(cd, false));
+        for (int i = 1; i < BufferPolicy.MAX_GROWTH; i++) {
+            assertTrue(policy.grow());
+        }
+        assertFalse(policy.grow());
+        // capped, whole frames
+        int size = policy.getSize(hires, true);
+        assertTrue(size <= BufferPolicy.DEFAULT_MAX_SIZE);
+        assertEquals(0, size % 6);
+
+        policy.reset();
+        assertEquals(66150 * 4, policy.getSize(cd, false));
+    }
+
+    @Test
+    public void testFloatConvert() {
+        float[] samples = {0f, 0.5f, -0.5f, -1f, 0.999f, 1.5f, -1.5f, 0.25f};
+        float[] output = new float[samples.length];
+        byte[] pcm = new byte[samples.length * 4];
+
+        AudioFormat[] formats = {
+                new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100, 8, 1, 1, 44100, false),
+                new AudioFormat(44100, 16, 2, true, false),
+                new AudioFormat(44100, 16, 2, true, true),
+                new AudioFormat(44100, 24, 2, true, false),
+                new AudioFormat(44100, 24, 2, true, true),
+                new AudioFormat(44100, 32, 2, true, false),
+        };
+        for (AudioFormat fmt : formats) {
+            int bps = fmt.getSampleSizeInBits();
+            assertEquals(samples.length * bps / 8, AudioMath.toPCM(samples, samples.length, pcm, 0, fmt));
+            assertEquals(samples.length, AudioMath.toFloat(pcm, 0, samples.length * bps / 8, output, fmt));
+            float eps = 1f / (1L << (bps - 1));
+            for (int i = 0; i < samples.length; i++) {
+                float expected = Math.max(-1, Math.min(1 - eps, samples[i]));
+                assertEquals(fmt.toString(), expected, output[i], eps);
+            }
+        }
+
+        // 24 bit little endian sample, same as in testConvert
+        AudioFormat fmt = new AudioFormat(44100, 24, 1, true, false);
+        pcm = new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF};
+        AudioMath.toFloat(pcm, 0, 3, output, fmt);
+        assertEquals(0xFFEFCDAB / (float) (1 << 23), output[0], 0);
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.FloatDecoder;
+import com.tulskiy.musique.playlist.Track;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CrossfadeTest {
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    /**
+     * Outputs constant samples in chunks of odd size
+     */
+    static class ConstantDecoder implements FloatDecoder {
+        private long left;
+        private boolean closed;
+
+        ConstantDecoder(long frames) {
+            left = frames * 2;
+        }
+
+        public int decode(float[] samples) {
+            if (left <= 0)
+                return -1;
+            int count = (int) Math.min(left, 1234);
+            Arrays.fill(samples, 0, count, 1f);
+            left -= count;
+            return count;
+        }
+
+        public boolean open(Track track) {
+            return true;
+        }
+
+        public AudioFormat getAudioFormat() {
+            return FORMAT;
+        }
+
+        public void seekSample(long sample) {
+        }
+
+        public int decode(byte[] buf) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Mixes silence of the incoming track, returns gains of the outgoing one
+     */
+    private float[] fadeOut(Crossfade crossfade, ConstantDecoder decoder, int frames, int total) {
+        crossfade.start(decoder, frames);
+        float[] result = new float[total * 2];
+        float[] chunk = new float[1000];
+        for (int off = 0; off < result.length; off += chunk.length) {
+            Arrays.fill(chunk, 0);
+            int count = Math.min(chunk.length, result.length - off);
+            crossfade.mix(chunk, count);
+            System.arraycopy(chunk, 0, result, off, count);
+        }
+        return result;
+    }
+
+    @Test
+    public void testCurves() {
+        int frames = 10000;
+        for (Crossfade.Curve curve : Crossfade.Curve.values()) {
+            Crossfade crossfade = new Crossfade();
+            crossfade.setCurve(curve);
+            ConstantDecoder decoder = new ConstantDecoder(frames * 2);
+            float[] out = fadeOut(crossfade, decoder, frames, frames + 500);
+            assertFalse(crossfade.isActive());
+            assertTrue(decoder.closed);
+
+            assertEquals(1, out[0], 1e-6);
+            for (int i = 1; i < frames; i++) {
+                float gain = out[i * 2];
+                assertTrue(gain <= out[i * 2 - 2]);
+                assertEquals(gain, out[i * 2 + 1], 0);
+
+                // incoming gain mirrors the outgoing one
+                float in = out[(frames - i) * 2];
+                if (curve == Crossfade.Curve.EQUAL_POWER)
+                    assertEquals(1, gain * gain + in * in, 1e-4);
+                else
+                    assertEquals(1, gain + in, 1e-4);
+            }
+            // only the overlap is taken from the outgoing track
+            for (int i = frames * 2; i < out.length; i++) {
+                assertEquals(0, out[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testIncoming() {
+        Crossfade crossfade = new Crossfade();
+        crossfade.setCurve(Crossfade.Curve.LINEAR);
+        crossfade.start(new ConstantDecoder(1000), 1000);
+        float[] samples = new float[4000];
+        Arrays.fill(samples, 0.5f);
+        crossfade.mix(samples, samples.length);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0.5f + 0.5f * (1 - i / 1000f), samples[i * 2], 1e-6);
+        }
+        for (int i = 2000; i < samples.length; i++) {
+            assertEquals(0.5f, samples[i], 0);
+        }
+    }
+
+    @Test
+    public void testShortOutgoing() {
+        // the outgoing track ends before the overlap does
+        Crossfade crossfade = new Crossfade();
+        ConstantDecoder decoder = new ConstantDecoder(3000);
+        float[] out = fadeOut(crossfade, decoder, 5000, 6000);
+        assertFalse(crossfade.isActive());
+        assertTrue(out[2999 * 2] > 0);
+        for (int i = 3000 * 2; i < out.length; i++) {
+            assertEquals(0, out[i], 0);
+        }
+
+        crossfade.start(new ConstantDecoder(3000), 3000);
+        crossfade.stop();
+        assertFalse(crossfade.isActive());
+        assertTrue(crossfade.canMix(FORMAT, new AudioFormat(44100, 24, 2, true, false)));
+        assertFalse(crossfade.canMix(FORMAT, new AudioFormat(48000, 16, 2, true, false)));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.player.io.Buffer;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class PlaybackMetricsTest {
+    private PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+
+    @After
+    public void tearDown() {
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(metrics.isEnabled());
+        long time = metrics.start();
+        assertEquals(0, time);
+        metrics.decoded(new CrossfadeTest.ConstantDecoder(1), time, 100);
+        metrics.opened(time);
+        metrics.underrun();
+        metrics.bufferFill(10, 100);
+        assertEquals(0, metrics.getDecodeStats().length);
+        assertEquals(0, metrics.getOpenCount());
+        assertEquals(0, metrics.getUnderruns());
+        assertArrayEquals(new long[PlaybackMetrics.FILL_BUCKETS], metrics.getBufferFillHistogram());
+    }
+
+    @Test
+    public void testRecording() throws Exception {
+        metrics.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            long time = metrics.start();
+            Thread.sleep(2);
+            metrics.decoded(new CrossfadeTest.ConstantDecoder(1), time, 1000);
+        }
+        PlaybackMetrics.Stat stat = metrics.getDecodeStatMap().get("ConstantDecoder");
+        assertEquals(3, stat.getCount());
+        assertEquals(3000, stat.getBytes());
+        assertTrue(stat.getAverageMillis() >= 2);
+        assertTrue(stat.getMaxMillis() >= stat.getAverageMillis());
+        assertTrue(stat.getBytesPerSecond() > 0);
+        assertTrue(metrics.getDecodeStats()[0].startsWith("ConstantDecoder: 3 calls"));
+
+        // fill level is sampled on every read
+        Buffer buffer = new Buffer(1000);
+        buffer.addNextTrack(null, null, -1, false);
+        buffer.pollNextTrack();
+        byte[] data = new byte[1000];
+        buffer.write(data, 0, 950);
+        buffer.read(data, 0, 500);
+        buffer.read(data, 0, 500);
+        long[] histogram = metrics.getBufferFillHistogram();
+        assertEquals(1, histogram[9]);
+        assertEquals(1, histogram[4]);
+
+        metrics.reset();
+        assertEquals(0, metrics.getDecodeStats().length);
+        assertEquals(0, metrics.getBufferFillHistogram()[9]);
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        metrics.register();
+        metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PlaybackMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertEquals(false, server.getAttribute(name, "Enabled"));
+        metrics.setEnabled(true);
+        metrics.underrun();
+        assertEquals(1L, server.getAttribute(name, "Underruns"));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.Decoder;
+import com.tulskiy.musique.audio.formats.flac.FLACFileReader;
+import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.system.Codecs;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PreRollTest {
+    private Track read(String name) throws Exception {
+        File file = new File(getClass().getClassLoader().getResource(name).toURI());
+        return new FLACFileReader().read(file);
+    }
+
+    @Test
+    public void testTake() throws Exception {
+        Track track = read("testfiles/flac/sample.flac");
+        PreRoll preRoll = new PreRoll();
+        assertFalse(preRoll.isResolved());
+
+        preRoll.prepare(track);
+        assertTrue(preRoll.isResolved());
+        assertSame(track, preRoll.getTrack());
+        Decoder decoder = preRoll.take(track);
+        assertNotNull(decoder);
+        assertFalse(preRoll.isResolved());
+
+        // starts at the beginning, same as a freshly opened decoder
+        Decoder reference = Codecs.getDecoder(track);
+        assertTrue(reference.open(track));
+        byte[] expected = new byte[65536];
+        byte[] actual = new byte[65536];
+        int len = reference.decode(expected);
+        assertEquals(len, decoder.decode(actual));
+        assertTrue(Arrays.equals(expected, actual));
+        reference.close();
+        decoder.close();
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        Track track = read("testfiles/flac/sample.flac");
+        PreRoll preRoll = new PreRoll();
+        preRoll.prepare(track);
+        assertNull(preRoll.take(new Track()));
+        assertFalse(preRoll.isResolved());
+
+        // end of playlist is resolved too
+        preRoll.prepare(null);
+        assertTrue(preRoll.isResolved());
+        assertNull(preRoll.getTrack());
+        preRoll.cancel();
+        assertFalse(preRoll.isResolved());
+
+        Track missing = new Track(track.getTrackData().copy());
+        missing.getTrackData().setLocation(new File("/no/such/file.flac").toURI().toString());
+        preRoll.prepare(missing);
+        assertNull(preRoll.take(missing));
+    }
+}
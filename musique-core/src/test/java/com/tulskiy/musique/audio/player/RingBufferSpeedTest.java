@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.audio.player;
+
+import com.tulskiy.musique.audio.player.io.AudioOutput;
+import com.tulskiy.musique.audio.player.io.RingBuffer;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the lock-free RingBuffer against the old monitor based one.
+ * Run manually, prints throughput and wake up latency.
+ */
+@Ignore("benchmark, run manually")
+public class RingBufferSpeedTest {
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final int CHUNK = AudioOutput.BUFFER_SIZE;
+    private static final long TOTAL = 1L << 30;
+    private static final int WAKE_UPS = 2000;
+
+    interface Ring {
+        void put(byte[] data, int offset, int len);
+
+        int get(byte[] data, int offset, int len);
+    }
+
+    @Test
+    public void testThroughput() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            report("monitor", throughput(monitor()));
+            report("lock-free", throughput(lockFree()));
+        }
+    }
+
+    @Test
+    public void testWakeUpLatency() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            printLatency("monitor", wakeUpLatency(monitor()));
+            printLatency("lock-free", wakeUpLatency(lockFree()));
+        }
+    }
+
+    private void report(String name, long nanos) {
+        System.out.printf("%-10s throughput: %8.1f MB/s%n", name, TOTAL / 1048576.0 / (nanos / 1e9));
+    }
+
+    private void printLatency(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-10s wake up latency: median %6d ns, 99%% %8d ns%n", name,
+                latencies[latencies.length / 2], latencies[latencies.length * 99 / 100]);
+    }
+
+    private long throughput(final Ring ring) throws InterruptedException {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buf = new byte[CHUNK];
+                for (long written = 0; written < TOTAL; written += CHUNK) {
+                    ring.put(buf, 0, CHUNK);
+                }
+            }
+        });
+        byte[] buf = new byte[CHUNK];
+        long time = System.nanoTime();
+        producer.start();
+        long read = 0;
+        while (read < TOTAL) {
+            read += ring.get(buf, 0, CHUNK);
+        }
+        producer.join();
+        return System.nanoTime() - time;
+    }
+
+    private long[] wakeUpLatency(final Ring ring) throws InterruptedException {
+        final long[] sent = new long[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buf = new byte[4];
+                for (int i = 0; i < WAKE_UPS; i++) {
+                    // let the consumer block on empty buffer
+                    LockSupport.parkNanos(200000);
+                    sent[0] = System.nanoTime();
+                    ring.put(buf, 0, buf.length);
+                }
+            }
+        });
+        producer.start();
+        long[] latencies = new long[WAKE_UPS];
+        byte[] buf = new byte[4];
+        for (int i = 0; i < WAKE_UPS; i++) {
+            int read = 0;
+            while (read < buf.length) {
+                read += ring.get(buf, read, buf.length - read);
+            }
+            latencies[i] = System.nanoTime() - sent[0];
+        }
+        producer.join();
+        return latencies;
+    }
+
+    private Ring lockFree() {
+        final RingBuffer buffer = new RingBuffer(BUFFER_SIZE);
+        return new Ring() {
+            @Override
+            public void put(byte[] data, int offset, int len) {
+                buffer.put(data, offset, len);
+            }
+
+            @Override
+            public int get(byte[] data, int offset, int len) {
+                return buffer.get(data, offset, len);
+            }
+        };
+    }
+
+    private Ring monitor() {
+        return new MonitorRingBuffer(BUFFER_SIZE);
+    }
+
+    /**
+     * The old implementation, guarded by a monitor with wait/notify
+     */
+    static class MonitorRingBuffer implements Ring {
+        private int bufferSize;
+        private byte[] buffer;
+        private volatile int putHere = 0;
+        private volatile int getHere = 0;
+        private volatile boolean eof = false;
+        private final Object signal = new Object();
+
+        MonitorRingBuffer(int size) {
+            bufferSize = size;
+            buffer = new byte[size];
+        }
+
+        int putAvailable() {
+            if (putHere == getHere) return bufferSize - 1;
+            if (putHere < getHere) return getHere - putHere - 1;
+            return bufferSize - (putHere - getHere) - 1;
+        }
+
+        int getAvailable() {
+            if (putHere == getHere) return 0;
+            if (putHere < getHere) return bufferSize - (getHere - putHere);
+            return putHere - getHere;
+        }
+
+        public void put(byte[] data, int offset, int len) {
+            if (len == 0) return;
+            eof = false;
+
+            synchronized (signal) {
+                while (putAvailable() < len) {
+                    try {
+                        signal.wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+
+                if (putHere >= getHere) {
+                    int l = Math.min(len, bufferSize - putHere);
+                    System.arraycopy(data, offset, buffer, putHere, l);
+                    putHere += l;
+                    if (putHere >= bufferSize) putHere = 0;
+                    if (len > l) put(data, offset + l, len - l);
+                } else {
+                    int l = Math.min(len, getHere - putHere - 1);
+                    System.arraycopy(data, offset, buffer, putHere, l);
+                    putHere += l;
+                    if (putHere >= bufferSize) putHere = 0;
+                }
+                signal.notify();
+            }
+        }
+
+        public int get(byte[] data, int offset, int len) {
+            if (len == 0) return 0;
+            int dataLen;
+
+            synchronized (signal) {
+                while (getAvailable() <= 0) {
+                    if (eof) return (-1);
+                    try {
+                        signal.wait(1000);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                len = Math.min(len, getAvailable());
+
+                if (getHere < putHere) {
+                    int l = Math.min(len, putHere - getHere);
+                    System.arraycopy(buffer, getHere, data, offset, l);
+                    getHere += l;
+                    if (getHere >= bufferSize) getHere = 0;
+                    dataLen = l;
+                } else {
+                    int l = Math.min(len, bufferSize - getHere);
+                    System.arraycopy(buffer, getHere, data, offset, l);
+                    getHere += l;
+                    if (getHere >= bufferSize) getHere = 0;
+                    dataLen = l;
+                    if (len > l) dataLen += get(data, offset + l, len - l);
+                }
+                signal.notify();
+            }
+
+            return dataLen;
+        }
+    }
+}
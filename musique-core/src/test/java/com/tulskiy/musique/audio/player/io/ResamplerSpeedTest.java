@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player.io;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Measures resampler throughput in samples per second on one thread
+ * for common rate pairs. Run manually.
+ */
+@Ignore("benchmark, run manually")
+public class ResamplerSpeedTest {
+    private static final int CHANNELS = 2;
+    private static final int BLOCK = 4096;
+    private static final int SECONDS = 60;
+    private static final int[][] RATES = {
+            {44100, 48000},
+            {48000, 44100},
+            {96000, 48000},
+            {88200, 44100},
+            {44100, 96000},
+    };
+
+    @Test
+    public void testThroughput() {
+        for (int i = 0; i < 3; i++) {
+            for (int[] rates : RATES) {
+                report(rates[0], rates[1], throughput(rates[0], rates[1]));
+            }
+        }
+    }
+
+    private void report(int inRate, int outRate, long nanos) {
+        double samples = (double) inRate * SECONDS * CHANNELS;
+        System.out.printf("%6d -> %6d: %7.2f M samples/s, %6.1fx realtime%n", inRate, outRate,
+                samples / 1e6 / (nanos / 1e9), SECONDS / (nanos / 1e9));
+    }
+
+    private long throughput(int inRate, int outRate) {
+        Resampler resampler = new Resampler(inRate, outRate, CHANNELS);
+        float[] input = new float[BLOCK * CHANNELS];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) Math.sin(i / 10.0);
+        }
+        float[] output = new float[resampler.getMaxOutput(BLOCK) * CHANNELS];
+        long total = (long) inRate * SECONDS;
+        long time = System.nanoTime();
+        for (long read = 0; read < total; read += BLOCK) {
+            resampler.process(input, BLOCK, output);
+        }
+        return System.nanoTime() - time;
+    }
+}
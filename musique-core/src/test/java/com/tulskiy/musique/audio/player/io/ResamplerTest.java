@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.audio.player.io;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+
+import static org.junit.Assert.*;
+
+public class ResamplerTest {
+    private static final double FREQUENCY = 1000;
+
+    private float[] sine(int rate, int frames, int channels) {
+        float[] data = new float[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                data[i * channels + c] = (float) (0.5 * Math.sin(2 * Math.PI * FREQUENCY * i / rate));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Feeds the input in uneven blocks and flushes at the end
+     */
+    private float[] resample(Resampler resampler, float[] input, int frames) {
+        int channels = resampler.getChannels();
+        float[] result = new float[resampler.getMaxOutput(frames) * channels];
+        float[] block = new float[1200 * channels];
+        float[] out = new float[resampler.getMaxOutput(1200) * channels];
+        int written = 0;
+        int read = 0;
+        int size = 1;
+        while (read < frames) {
+            int len = Math.min(size, frames - read);
+            System.arraycopy(input, read * channels, block, 0, len * channels);
+            int count = resampler.process(block, len, out);
+            System.arraycopy(out, 0, result, written * channels, count * channels);
+            written += count;
+            read += len;
+            size = size % 997 + 113;
+        }
+        int count = resampler.flush(out);
+        System.arraycopy(out, 0, result, written * channels, count * channels);
+        written += count;
+        float[] trimmed = new float[written * channels];
+        System.arraycopy(result, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    private void testRatio(int inRate, int outRate) {
+        int frames = inRate / 2;
+        Resampler resampler = new Resampler(inRate, outRate, 2);
+        float[] output = resample(resampler, sine(inRate, frames, 2), frames);
+
+        assertEquals((long) frames * outRate / inRate, output.length / 2, 1);
+        // away from the edges output is the same sine at the new rate
+        float[] expected = sine(outRate, output.length / 2, 2);
+        for (int i = outRate / 100; i < output.length / 2 - outRate / 100; i++) {
+            assertEquals(expected[i * 2], output[i * 2], 1e-3);
+            assertEquals(output[i * 2], output[i * 2 + 1], 0);
+        }
+    }
+
+    @Test
+    public void testRatios() {
+        testRatio(44100, 48000);
+        testRatio(48000, 44100);
+        testRatio(96000, 48000);
+        testRatio(88200, 44100);
+        testRatio(44100, 96000);
+        testRatio(8000, 44100);
+    }
+
+    @Test
+    public void testAliasing() {
+        // above output nyquist, must be filtered out
+        int frames = 48000;
+        float[] input = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            input[i] = (float) (0.5 * Math.sin(2 * Math.PI * 30000 * i / 96000));
+        }
+        float[] output = resample(new Resampler(96000, 48000, 1), input, frames);
+        for (int i = 1000; i < output.length - 1000; i++) {
+            assertEquals(0, output[i], 1e-3);
+        }
+    }
+
+    @Test
+    public void testConverter() {
+        AudioFormat out = new AudioFormat(48000, 16, 2, true, false);
+        FormatConverter converter = new FormatConverter(out);
+        converter.setInputFormat(new AudioFormat(48000, 16, 2, true, false));
+        assertTrue(converter.isPassThrough());
+
+        // 24 bit mono to 16 bit stereo, fed in chunks that split frames
+        AudioFormat in = new AudioFormat(44100, 24, 1, true, false);
+        converter.setInputFormat(in);
+        assertFalse(converter.isPassThrough());
+        int frames = 44100;
+        byte[] data = new byte[frames * 3];
+        for (int i = 0; i < frames; i++) {
+            int s = (int) (0.5 * Math.sin(2 * Math.PI * FREQUENCY * i / 44100) * (1 << 23));
+            data[i * 3] = (byte) s;
+            data[i * 3 + 1] = (byte) (s >> 8);
+            data[i * 3 + 2] = (byte) (s >> 16);
+        }
+        byte[] result = new byte[frames * 8];
+        int len = 0;
+        for (int off = 0; off < data.length; off += 1000) {
+            int count = converter.convert(data, off, Math.min(1000, data.length - off));
+            System.arraycopy(converter.getBuffer(), 0, result, len, count);
+            len += count;
+        }
+        int count = converter.drain();
+        System.arraycopy(converter.getBuffer(), 0, result, len, count);
+        len += count;
+
+        assertEquals(48000 * 4, len, 8);
+        for (int i = 500; i < len / 4 - 500; i++) {
+            short left = (short) ((result[i * 4] & 0xFF) | result[i * 4 + 1] << 8);
+            short right = (short) ((result[i * 4 + 2] & 0xFF) | result[i * 4 + 3] << 8);
+            double expected = 0.5 * Math.sin(2 * Math.PI * FREQUENCY * i / 48000) * 32768;
+            // filter error plus dither
+            assertEquals(expected, left, 40);
+            assertEquals(left, right, 2);
+        }
+    }
+
+    @Test
+    public void testSilence() {
+        // dither of silence stays within one LSB
+        FormatConverter converter = new FormatConverter(new AudioFormat(44100, 16, 2, true, false));
+        converter.setInputFormat(new AudioFormat(44100, 24, 2, true, false));
+        byte[] silence = new byte[6 * 10000];
+        int len = converter.convert(silence, 0, silence.length);
+        assertEquals(4 * 10000, len);
+        byte[] buf = converter.getBuffer();
+        for (int i = 0; i < len; i += 2) {
+            short s = (short) ((buf[i] & 0xFF) | buf[i + 1] << 8);
+            assertTrue(Math.abs(s) <= 1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.library;
+
+import com.tulskiy.musique.library.FileStateIndex.FileState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FileStateIndexTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("library", ".idx");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void testSaveLoad() {
+        Map<String, Map<String, FileState>> directories = new HashMap<String, Map<String, FileState>>();
+        HashMap<String, FileState> album = new HashMap<String, FileState>();
+        album.put("01 - Intro.flac", new FileState(1234, 1300000000000L));
+        album.put("album.cue", new FileState(512, 1300000001000L));
+        directories.put("/music/Album", album);
+        directories.put("/music/Empty", new HashMap<String, FileState>());
+
+        FileStateIndex index = new FileStateIndex(file);
+        index.replace(directories);
+        index.save();
+
+        FileStateIndex loaded = new FileStateIndex(file);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        assertEquals(album, loaded.get("/music/Album"));
+        assertTrue(loaded.get("/music/Empty").isEmpty());
+        assertNull(loaded.get("/music/Other"));
+        assertFalse(new FileState(1234, 1300000000001L).equals(loaded.get("/music/Album").get("01 - Intro.flac")));
+    }
+
+    @Test
+    public void testLoadMissing() {
+        FileStateIndex index = new FileStateIndex(file);
+        index.load();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testLoadUnknownFormat() throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("not an index".getBytes("UTF-8"));
+        fos.close();
+
+        FileStateIndex index = new FileStateIndex(file);
+        index.load();
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.library;
+
+import com.tulskiy.musique.playlist.Playlist;
+import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.system.Application;
+import com.tulskiy.musique.system.configuration.Configuration;
+import com.tulskiy.musique.system.configuration.LibraryConfiguration;
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LibraryTest {
+    private Configuration oldConfig;
+    private File oldHome;
+    private File home;
+    private File dir;
+    private Library library;
+    private int inserted;
+    private int removed;
+
+    private static Field configField() throws Exception {
+        Field field = Application.class.getDeclaredField("configuration");
+        field.setAccessible(true);
+        return field;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        oldConfig = (Configuration) configField().get(Application.getInstance());
+        configField().set(Application.getInstance(), new Configuration());
+        oldHome = Application.getInstance().CONFIG_HOME;
+        home = createTempDir();
+        Application.getInstance().CONFIG_HOME = home;
+
+        dir = createTempDir();
+        LibraryConfiguration.setFolders(Collections.singletonList(dir.getPath()));
+        library = new Library(new Playlist());
+        library.getTreeModel().addTreeModelListener(new TreeModelListener() {
+            @Override
+            public void treeNodesChanged(TreeModelEvent e) {
+            }
+
+            @Override
+            public void treeNodesInserted(TreeModelEvent e) {
+                inserted += e.getChildren().length;
+            }
+
+            @Override
+            public void treeNodesRemoved(TreeModelEvent e) {
+                removed += e.getChildren().length;
+            }
+
+            @Override
+            public void treeStructureChanged(TreeModelEvent e) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        configField().set(Application.getInstance(), oldConfig);
+        Application.getInstance().CONFIG_HOME = oldHome;
+        delete(dir);
+        delete(home);
+    }
+
+    private File createTempDir() throws IOException {
+        File file = File.createTempFile("musique", "");
+        assertTrue(file.delete() && file.mkdir());
+        return file;
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        assertTrue(file.delete());
+    }
+
+    private File copySample(String path) throws IOException {
+        File file = new File(dir, path);
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        File sample = new File("src/test/resources/testfiles/flac/sample.flac");
+        Files.copy(sample.toPath(), file.toPath());
+        return file;
+    }
+
+    private File writeCue(File folder) throws IOException {
+        File cue = new File(folder, "album.cue");
+        FileWriter writer = new FileWriter(cue);
+        writer.write("PERFORMER \"Artist\"\n" +
+                "TITLE \"Album\"\n" +
+                "FILE \"album.flac\" WAVE\n" +
+                "  TRACK 01 AUDIO\n" +
+                "    TITLE \"One\"\n" +
+                "    INDEX 01 00:00:00\n" +
+                "  TRACK 02 AUDIO\n" +
+                "    TITLE \"Two\"\n" +
+                "    INDEX 01 00:01:00\n");
+        writer.close();
+        return cue;
+    }
+
+    private List<Track> treeTracks() {
+        ArrayList<Track> tracks = new ArrayList<Track>();
+        for (MappedTreeNode node : ((MappedTreeNode) library.getRootNode()).iterate()) {
+            if (node instanceof TrackNode)
+                tracks.add(((TrackNode) node).getTrack());
+        }
+        return tracks;
+    }
+
+    private void assertLibrary(int size) {
+        Playlist data = library.getData();
+        assertEquals(size, data.size());
+        List<Track> tracks = treeTracks();
+        assertEquals(size, tracks.size());
+        assertTrue(data.containsAll(tracks));
+    }
+
+    @Test
+    public void testCreateModifyDelete() throws Exception {
+        File file = copySample("Artist/Album/track.flac");
+        library.update(Collections.singletonList(file), Collections.<File>emptyList());
+        assertLibrary(1);
+        Track track = library.getData().get(0);
+        assertEquals(file, track.getTrackData().getFile());
+        assertEquals(1, inserted);
+
+        // modified file is read again and takes the place of the old track
+        library.update(Collections.singletonList(file), Collections.<File>emptyList());
+        assertLibrary(1);
+        assertNotSame(track, library.getData().get(0));
+        assertEquals(1, removed);
+        assertEquals(2, inserted);
+
+        assertTrue(file.delete());
+        library.update(Collections.<File>emptyList(), Collections.singletonList(file));
+        assertLibrary(0);
+        assertEquals(0, library.getRootNode().getChildCount());
+        assertEquals(2, removed);
+    }
+
+    @Test
+    public void testRemoveDirectory() throws Exception {
+        File one = copySample("Album/one.flac");
+        File two = copySample("Album/two.flac");
+        File other = copySample("Other/three.flac");
+        library.update(Arrays.asList(one, two, other), Collections.<File>emptyList());
+        assertLibrary(3);
+
+        File album = one.getParentFile();
+        assertTrue(one.delete() && two.delete() && album.delete());
+        library.update(Collections.<File>emptyList(), Collections.singletonList(album));
+        assertLibrary(1);
+        assertEquals(other, library.getData().get(0).getTrackData().getFile());
+    }
+
+    @Test
+    public void testCueReplacesStandalone() throws Exception {
+        File audio = copySample("Album/album.flac");
+        library.update(Collections.singletonList(audio), Collections.<File>emptyList());
+        assertLibrary(1);
+
+        File cue = writeCue(audio.getParentFile());
+        library.update(Collections.singletonList(cue), Collections.<File>emptyList());
+        assertLibrary(2);
+        for (Track track : library.getData()) {
+            assertEquals(cue.getAbsolutePath(), track.getTrackData().getCueLocation());
+            assertTrue(track.getTrackData().getSubsongIndex() > 0);
+        }
+
+        // without the cue sheet the audio file is a single track again
+        assertTrue(cue.delete());
+        library.update(Collections.<File>emptyList(), Collections.singletonList(cue));
+        assertLibrary(1);
+        assertEquals(0, library.getData().get(0).getTrackData().getSubsongIndex());
+    }
+
+    private TrackNode findNode(Track track) {
+        for (MappedTreeNode node : ((MappedTreeNode) library.getRootNode()).iterate()) {
+            if (node instanceof TrackNode && ((TrackNode) node).getTrack() == track)
+                return (TrackNode) node;
+        }
+        return null;
+    }
+
+    @Test
+    public void testUpdateTracks() throws Exception {
+        File file = copySample("Album/track.flac");
+        library.update(Collections.singletonList(file), Collections.<File>emptyList());
+        Track track = library.getData().get(0);
+
+        track.getTrackData().setTagFieldValues(FieldKey.ALBUM, "Renamed");
+        library.updateTracks(Collections.singletonList(track));
+        assertLibrary(1);
+        // the old album branch is gone, artist keeps only the new one
+        MappedTreeNode artist = (MappedTreeNode) library.getRootNode().getChildAt(0);
+        assertEquals(1, library.getRootNode().getChildCount());
+        assertEquals(1, artist.getChildCount());
+        assertTrue(((MappedTreeNode) artist.getChildAt(0)).getName().endsWith("Renamed"));
+        assertNotNull(findNode(track));
+
+        // tracks of other playlists stay out of the library
+        Track other = new Track(track);
+        library.updateTracks(Collections.singletonList(other));
+        assertLibrary(1);
+        assertNull(findNode(other));
+    }
+
+    @Test
+    public void testRescanKeepsUnchanged() throws Exception {
+        copySample("Album/track.flac");
+        library.rescan(null);
+        assertLibrary(1);
+        assertTrue(new File(home, "library.idx").exists());
+
+        // tags in memory survive, the file is not opened again
+        Track track = library.getData().get(0);
+        track.getTrackData().setTagFieldValues(FieldKey.ALBUM, "Stale");
+        library.rescan(null);
+        assertLibrary(1);
+        assertSame(track, library.getData().get(0));
+        assertEquals("Stale", track.getTrackData().getAlbum());
+    }
+
+    @Test
+    public void testRescanReadsModified() throws Exception {
+        File file = copySample("Album/track.flac");
+        library.rescan(null);
+        Track track = library.getData().get(0);
+        String album = track.getTrackData().getAlbum();
+        track.getTrackData().setTagFieldValues(FieldKey.ALBUM, "Stale");
+
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        library.rescan(null);
+        assertLibrary(1);
+        assertSame(track, library.getData().get(0));
+        assertEquals(album, track.getTrackData().getAlbum());
+    }
+
+    @Test
+    public void testRescanCueSibling() throws Exception {
+        File audio = copySample("Album/album.flac");
+        File cue = writeCue(audio.getParentFile());
+        library.rescan(null);
+        assertLibrary(2);
+        for (Track track : library.getData()) {
+            assertEquals(cue.getAbsolutePath(), track.getTrackData().getCueLocation());
+        }
+    }
+
+    @Test
+    public void testRescanAborted() throws Exception {
+        copySample("Album/one.flac");
+        Map<String, Object> progress = new HashMap<String, Object>();
+        progress.put("processing.stop", true);
+        library.rescan(progress);
+        assertLibrary(0);
+        File index = new File(home, "library.idx");
+        assertFalse(index.exists());
+
+        library.rescan(null);
+        assertLibrary(1);
+        byte[] saved = Files.readAllBytes(index.toPath());
+
+        copySample("Album/two.flac");
+        library.rescan(progress);
+        assertLibrary(1);
+        assertArrayEquals(saved, Files.readAllBytes(index.toPath()));
+
+        // the new file is still found by the next complete scan
+        library.rescan(null);
+        assertLibrary(2);
+    }
+}
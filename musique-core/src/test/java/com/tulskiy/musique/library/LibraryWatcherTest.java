@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.library;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LibraryWatcherTest {
+    private static class Watcher extends LibraryWatcher {
+        final LinkedBlockingQueue<List<File>> updates = new LinkedBlockingQueue<List<File>>();
+
+        Watcher(File dir) {
+            super(null, Collections.singletonList(dir.getPath()), 100);
+        }
+
+        @Override
+        void update(List<File> changed, List<File> removed) {
+            updates.add(new ArrayList<File>(changed));
+        }
+
+        @Override
+        WatchKey watch(Path dir) throws IOException {
+            // same as a folder that is deleted right after it was created
+            if (dir.getFileName().toString().equals("gone"))
+                throw new NoSuchFileException(dir.toString());
+            return super.watch(dir);
+        }
+
+        List<File> nextUpdate() throws InterruptedException {
+            List<File> files = updates.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no update from watcher", files);
+            return files;
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testFolderFailure() throws Exception {
+        File dir = File.createTempFile("musique", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        Watcher watcher = new Watcher(dir);
+        try {
+            watcher.start();
+            // give the watcher time to register the root
+            Thread.sleep(200);
+
+            File gone = new File(dir, "gone");
+            assertTrue(gone.mkdir());
+            File album = new File(dir, "album");
+            assertTrue(album.mkdir());
+            File file = new File(album, "track.flac");
+            assertTrue(file.createNewFile());
+
+            // events may be split between batches on a slow machine
+            List<File> files = watcher.nextUpdate();
+            while (!files.contains(file)) {
+                files = watcher.nextUpdate();
+            }
+            assertTrue(watcher.isAlive());
+
+            // watcher still works after the failed folder
+            File next = new File(album, "next.flac");
+            assertTrue(next.createNewFile());
+            assertEquals(Collections.singletonList(next), watcher.nextUpdate());
+        } finally {
+            watcher.stopWatching();
+            watcher.join();
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.library;
+
+import com.tulskiy.musique.playlist.Track;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappedTreeNodeTest {
+    @Test
+    public void testOrder() {
+        MappedTreeNode root = new MappedTreeNode("root");
+        String[] names = {"Metallica", "ABBA", "Queen", "Bjork", "Nirvana"};
+        for (String name : names) {
+            root.get(name);
+        }
+        assertSame(root.get("Queen"), root.find("Queen"));
+        assertNull(root.find("Muse"));
+        assertEquals(5, root.getChildCount());
+
+        String[] sorted = {"ABBA", "Bjork", "Metallica", "Nirvana", "Queen"};
+        for (int i = 0; i < sorted.length; i++) {
+            MappedTreeNode child = (MappedTreeNode) root.getChildAt(i);
+            assertEquals(sorted[i], child.getName());
+            assertEquals(i, root.getIndex(child));
+            assertSame(root, child.getParent());
+        }
+
+        MappedTreeNode queen = root.find("Queen");
+        root.remove(queen);
+        assertNull(queen.getParent());
+        assertEquals(-1, root.getIndex(queen));
+        assertEquals(4, root.getChildCount());
+        assertEquals(3, root.getIndex(root.find("Nirvana")));
+    }
+
+    @Test
+    public void testDuplicateTracks() {
+        MappedTreeNode album = new MappedTreeNode("album");
+        TrackNode first = new TrackNode(new Track(), "01. Intro");
+        TrackNode second = new TrackNode(new Track(), "01. Intro");
+        TrackNode third = new TrackNode(new Track(), "02. Outro");
+        album.add(third);
+        album.add(first);
+        album.add(second);
+
+        assertEquals(3, album.getChildCount());
+        assertSame(third, album.getChildAt(2));
+        assertEquals(2, album.getIndex(third));
+        assertTrue(album.getIndex(first) >= 0);
+        assertTrue(album.getIndex(second) >= 0);
+
+        album.remove(first);
+        assertEquals(2, album.getChildCount());
+        assertEquals(-1, album.getIndex(first));
+        assertSame(second, album.getChildAt(0));
+        assertEquals(2, album.iterate().size());
+    }
+}
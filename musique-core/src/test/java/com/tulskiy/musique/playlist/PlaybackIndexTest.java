@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.playlist.formatting.Parser;
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class PlaybackIndexTest {
+    private Expression album = Parser.parse("%album%");
+    private Playlist playlist;
+    private PlaybackIndex index;
+
+    private Track createTrack(String artist, String album, String title) {
+        TrackData trackData = new TrackData(new File("/music/" + album + "/" + title + ".flac").toURI(), 0);
+        trackData.addArtist(artist);
+        trackData.addAlbum(album);
+        trackData.addTitle(title);
+        return new Track(trackData);
+    }
+
+    @Before
+    public void setUp() {
+        // track without location can't be played
+        Track broken = new Track();
+        broken.getTrackData().addArtist("The Doors");
+        broken.getTrackData().addAlbum("Morrison Hotel");
+
+        playlist = new Playlist();
+        playlist.addAll(Arrays.asList(
+                createTrack("The Beatles", "Abbey Road", "Come Together"),
+                createTrack("The Beatles", "Abbey Road", "Something"),
+                createTrack("The Beatles", "Let It Be", "Get Back"),
+                createTrack("The Doors", "Morrison Hotel", "Roadhouse Blues"),
+                broken,
+                createTrack("The Doors", "Morrison Hotel", "Peace Frog")));
+        playlist.setGroupBy("%artist%");
+        index = playlist.getPlaybackIndex();
+    }
+
+    @Test
+    public void testNextPrev() {
+        assertEquals(0, index.next(-1));
+        assertEquals(1, index.next(0));
+        assertEquals(5, index.next(3));
+        assertEquals(5, index.next(4));
+        assertEquals(-1, index.next(5));
+
+        assertEquals(-1, index.prev(0));
+        assertEquals(3, index.prev(5));
+        assertEquals(3, index.prev(4));
+    }
+
+    @Test
+    public void testIndexOf() {
+        for (int i = 0; i < playlist.size(); i++) {
+            assertEquals(i, index.indexOf(playlist.get(i)));
+        }
+        assertEquals(-1, index.indexOf(new Track()));
+
+        // first one of the same track twice
+        Track something = playlist.get(1);
+        playlist.add(something);
+        assertEquals(1, index.indexOf(something));
+
+        playlist.remove(0);
+        assertEquals(0, index.indexOf(something));
+        assertEquals(4, index.indexOf(playlist.get(4)));
+
+        // reordering does not touch modCount of ArrayList
+        Collections.reverse(playlist);
+        assertEquals(0, index.indexOf(something));
+        assertEquals(4, index.indexOf(playlist.get(4)));
+        assertEquals(0, index.next(-1));
+    }
+
+    @Test
+    public void testGroups() {
+        assertEquals(0, index.groupHead(1));
+        assertEquals(2, index.groupTail(0));
+        assertEquals(3, index.groupHead(5));
+        assertEquals(5, index.groupTail(3));
+
+        assertEquals(3, index.shuffleGroup(0, 1));
+        assertEquals(0, index.shuffleGroup(3, 1));
+        assertEquals(3, index.shuffleGroup(0, -1));
+
+        // whole playlist is one group once grouping is off
+        playlist.setGroupBy("");
+        assertEquals(0, index.groupHead(5));
+        assertEquals(5, index.groupTail(0));
+        assertEquals(0, index.shuffleGroup(0, 1));
+    }
+
+    @Test
+    public void testAlbums() {
+        assertEquals(0, index.albumHead(1, album));
+        assertEquals(1, index.albumTail(0, album));
+        assertEquals(2, index.albumHead(2, album));
+        assertEquals(2, index.albumTail(2, album));
+        // track that can't be played does not split the album
+        assertEquals(3, index.albumHead(5, album));
+        assertEquals(5, index.albumTail(3, album));
+
+        // changing tags splits the album
+        playlist.get(1).getTrackData().setTagFieldValues(FieldKey.ALBUM, "Something");
+        assertEquals(0, index.albumTail(0, album));
+        assertEquals(1, index.albumHead(1, album));
+
+        // tags of tracks outside of the playlist do not matter
+        createTrack("The Beatles", "Abbey Road", "Because").getTrackData()
+                .setTagFieldValues(FieldKey.ALBUM, "Help");
+        assertEquals(0, index.albumTail(0, album));
+    }
+
+    @Test
+    public void testShuffle() {
+        HashSet<Integer> visited = new HashSet<Integer>();
+        int first = index.next(-1);
+        int current = first;
+        do {
+            assertTrue(visited.add(current));
+            int next = index.shuffleTrack(current, 1);
+            assertEquals(current, index.shuffleTrack(next, -1));
+            current = next;
+        } while (current != first);
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 5)), visited);
+
+        visited.clear();
+        current = first;
+        do {
+            assertTrue(visited.add(current));
+            current = index.shuffleAlbum(current, 1, album);
+        } while (current != first);
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 2, 3)), visited);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.model.FieldValues;
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PlaylistFileTest {
+    private Playlist createPlaylist(File dir) {
+        Playlist playlist = new Playlist();
+        for (int i = 0; i < 100; i++) {
+            TrackData trackData = new TrackData(new File(dir, "track " + i + ".flac").toURI(), i % 3);
+            trackData.setStartPosition(i * 1000L);
+            trackData.setTotalSamples(i * 44100L);
+            trackData.setSampleRate(44100);
+            trackData.setChannels(2);
+            trackData.setBps(16);
+            trackData.setBitrate(i);
+            trackData.setDateAdded(i);
+            trackData.setLastModified(-i);
+            trackData.setCodec("FLAC");
+            if (i % 3 == 1) {
+                trackData.setCueEmbedded(true);
+            } else if (i % 3 == 2) {
+                trackData.setCueLocation(new File(dir, "album.cue").getAbsolutePath());
+            }
+            if (i % 10 != 0) {
+                trackData.addArtist("Artist " + i % 7);
+                trackData.addGenre("Rock");
+                trackData.addGenre("Блюз");
+                trackData.setTrack(i);
+                trackData.addTitle("Title " + i);
+            }
+            playlist.add(new Track(trackData));
+        }
+        return playlist;
+    }
+
+    private void assertTracksEqual(Playlist expected, Playlist actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TrackData e = expected.get(i).getTrackData();
+            TrackData a = actual.get(i).getTrackData();
+            assertEquals(e.getLocation(), a.getLocation());
+            assertEquals(e.getSubsongIndex(), a.getSubsongIndex());
+            assertEquals(e.getStartPosition(), a.getStartPosition());
+            assertEquals(e.getTotalSamples(), a.getTotalSamples());
+            assertEquals(e.getSampleRate(), a.getSampleRate());
+            assertEquals(e.getChannels(), a.getChannels());
+            assertEquals(e.getBps(), a.getBps());
+            assertEquals(e.getBitrate(), a.getBitrate());
+            assertEquals(e.getDateAdded(), a.getDateAdded());
+            assertEquals(e.getLastModified(), a.getLastModified());
+            assertEquals(e.getCodec(), a.getCodec());
+            assertEquals(e.isCueEmbedded(), a.isCueEmbedded());
+            assertEquals(e.getCueLocation(), a.getCueLocation());
+            assertEquals(e.getTrackNumber(), a.getTrackNumber());
+            for (FieldKey key : FieldKey.values()) {
+                FieldValues values = e.getTagFieldValues(key);
+                assertEquals(values == null ? null : values.toString(),
+                        a.getTagFieldValues(key) == null ? null : a.getTagFieldValues(key).toString());
+            }
+        }
+    }
+
+    private File createDir() throws IOException {
+        File dir = File.createTempFile("musique", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        return dir;
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        File dir = createDir();
+        File file = new File(dir, "0.mus");
+        try {
+            Playlist playlist = createPlaylist(dir);
+            playlist.save(file);
+
+            Playlist loaded = new Playlist();
+            loaded.load(file);
+            assertTracksEqual(playlist, loaded);
+        } finally {
+            assertTrue(file.delete() && dir.delete());
+        }
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        File dir = createDir();
+        File file = new File(dir, "0.mus");
+        try {
+            createPlaylist(dir).save(file);
+            Playlist loaded = new Playlist();
+            loaded.load(file);
+
+            // tags that were not read yet are still there after the file is replaced
+            new Playlist().save(file);
+            assertTracksEqual(createPlaylist(dir), loaded);
+            // file is replaced, no temporary files are left behind
+            assertArrayEquals(new String[]{"0.mus"}, dir.list());
+
+            Playlist empty = new Playlist();
+            empty.load(file);
+            assertEquals(0, empty.size());
+        } finally {
+            assertTrue(file.delete() && dir.delete());
+        }
+    }
+}
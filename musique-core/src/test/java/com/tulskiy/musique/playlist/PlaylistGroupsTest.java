@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.gui.playlist.SeparatorTrack;
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class PlaylistGroupsTest {
+    private Playlist playlist;
+
+    private void add(String album, String title) {
+        TrackData trackData = new TrackData(new File("/music/" + title + ".mp3").toURI(), 0);
+        if (album != null)
+            trackData.addAlbum(album);
+        trackData.addTitle(title);
+        playlist.add(new Track(trackData));
+    }
+
+    @Before
+    public void setUp() {
+        playlist = new Playlist();
+        add("Abbey Road", "Come Together");
+        add("abbey road", "Something");
+        add("Help!", "Yesterday");
+        add("", "Untitled");
+        add(null, "Unknown");
+        add("Help!", "Ticket to Ride");
+    }
+
+    private void assertSeparator(PlaylistGroups groups, int row, String name, int size, int start) {
+        assertTrue(groups.isSeparator(row));
+        SeparatorTrack separator = groups.getSeparator(row);
+        assertEquals(name, separator.getGroupName());
+        assertEquals(size, separator.getGroupSize());
+        assertEquals(start, groups.getIndexAt(row));
+    }
+
+    private void assertTrack(PlaylistGroups groups, int row, int index) {
+        assertFalse(groups.isSeparator(row));
+        assertNull(groups.getSeparator(row));
+        assertEquals(index, groups.getIndexAt(row));
+        assertEquals(row, groups.getRowOf(index));
+    }
+
+    @Test
+    public void testNotGrouped() {
+        PlaylistGroups groups = playlist.getGroups();
+        assertEquals(0, groups.getGroupCount());
+        assertEquals(6, groups.getRowCount());
+        for (int i = 0; i < 6; i++) {
+            assertTrack(groups, i, i);
+            assertEquals(-1, groups.getGroupOf(i));
+        }
+    }
+
+    @Test
+    public void testGroups() {
+        playlist.setGroupBy("%album%");
+        PlaylistGroups groups = playlist.getGroups();
+        assertEquals(4, groups.getGroupCount());
+        assertEquals(10, groups.getRowCount());
+
+        // case is ignored, the first track names the group
+        assertSeparator(groups, 0, "Abbey Road", 2, 0);
+        assertTrack(groups, 1, 0);
+        assertTrack(groups, 2, 1);
+        assertSeparator(groups, 3, "Help!", 1, 2);
+        assertTrack(groups, 4, 2);
+        // empty and missing values are both unknown
+        assertSeparator(groups, 5, "?", 2, 3);
+        assertTrack(groups, 6, 3);
+        assertTrack(groups, 7, 4);
+        // same album further down is a group of its own
+        assertSeparator(groups, 8, "Help!", 1, 5);
+        assertTrack(groups, 9, 5);
+
+        assertEquals(0, groups.getGroupOf(1));
+        assertEquals(2, groups.getGroupOf(4));
+        assertEquals(5, groups.getGroupStart(3));
+        // one past the last track maps past the last row
+        assertEquals(10, groups.getRowOf(6));
+        assertEquals(6, groups.getIndexAt(10));
+    }
+
+    @Test
+    public void testPlaylistChanges() {
+        playlist.setGroupBy("%album%");
+        playlist.remove(2);
+        PlaylistGroups groups = playlist.getGroups();
+        assertEquals(3, groups.getGroupCount());
+        assertSeparator(groups, 0, "Abbey Road", 2, 0);
+        assertSeparator(groups, 3, "?", 2, 2);
+        assertSeparator(groups, 6, "Help!", 1, 4);
+
+        playlist.add(2, playlist.get(4));
+        groups = playlist.getGroups();
+        assertSeparator(groups, 3, "Help!", 1, 2);
+        assertSeparator(groups, 5, "?", 2, 3);
+    }
+
+    @Test
+    public void testTagChanges() {
+        playlist.setGroupBy("%album%");
+        playlist.get(2).getTrackData().setTagFieldValues(FieldKey.ALBUM, "Abbey Road");
+        playlist.regroup();
+        PlaylistGroups groups = playlist.getGroups();
+        assertEquals(3, groups.getGroupCount());
+        assertSeparator(groups, 0, "Abbey Road", 3, 0);
+        assertSeparator(groups, 4, "?", 2, 3);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.audio.AudioFileReader;
+import com.tulskiy.musique.system.TrackIO;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class PlaylistInsertTest {
+    // reads the folder on the calling thread, sorted by name
+    private int read(File dir, ArrayList<Track> tracks) {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        int count = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                count += read(file, tracks);
+            } else {
+                AudioFileReader reader = TrackIO.getAudioFileReader(file.getName());
+                if (reader != null) {
+                    reader.read(file, tracks);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testInsert() throws Exception {
+        File dir = new File(getClass().getClassLoader().getResource("testfiles").toURI());
+        ArrayList<Track> expected = new ArrayList<Track>();
+        int files = read(dir, expected);
+        assertTrue(expected.size() > 10);
+
+        Playlist playlist = new Playlist();
+        Track first = new Track(new TrackData(new File("/music/first.mp3").toURI(), 0));
+        Track last = new Track(new TrackData(new File("/music/last.mp3").toURI(), 0));
+        playlist.add(first);
+        playlist.add(last);
+
+        HashMap<String, Object> progress = new HashMap<String, Object>();
+        assertEquals(expected.size(), playlist.insertItem(dir.getPath(), 1, true, progress));
+        assertEquals(files, progress.get("processing.count"));
+
+        assertEquals(expected.size() + 2, playlist.size());
+        assertSame(first, playlist.get(0));
+        assertSame(last, playlist.get(playlist.size() - 1));
+        for (int i = 0; i < expected.size(); i++) {
+            TrackData e = expected.get(i).getTrackData();
+            TrackData a = playlist.get(i + 1).getTrackData();
+            assertEquals(e.getLocation(), a.getLocation());
+            assertEquals(e.getSubsongIndex(), a.getSubsongIndex());
+            assertEquals(e.getTotalSamples(), a.getTotalSamples());
+            assertEquals(e.getTitle(), a.getTitle());
+        }
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        File dir = new File(getClass().getClassLoader().getResource("testfiles").toURI());
+        HashMap<String, Object> progress = new HashMap<String, Object>();
+        progress.put("processing.stop", true);
+        Playlist playlist = new Playlist();
+        assertEquals(0, playlist.insertItem(dir.getPath(), -1, true, progress));
+        assertEquals(0, playlist.size());
+    }
+}
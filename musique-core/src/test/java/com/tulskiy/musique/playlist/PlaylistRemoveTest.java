@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class PlaylistRemoveTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("musique", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(dir.delete());
+    }
+
+    private Track createTrack(String name, int subsong) {
+        return new Track(new TrackData(new File(dir, name).toURI(), subsong));
+    }
+
+    private Track createFile(String name, int subsong) throws IOException {
+        File file = new File(dir, name);
+        assertTrue(file.exists() || file.createNewFile());
+        return createTrack(name, subsong);
+    }
+
+    @Test
+    public void testRemoveDuplicates() {
+        Track one = createTrack("one.flac", 0);
+        Track two = createTrack("two.flac", 0);
+        Track first = createTrack("album.flac", 1);
+        Track second = createTrack("album.flac", 2);
+        // tracks without location are never duplicates
+        Track empty = new Track();
+        Track otherEmpty = new Track();
+
+        Playlist playlist = new Playlist();
+        playlist.addAll(Arrays.asList(one, two, createTrack("one.flac", 0), first, second,
+                createTrack("album.flac", 1), empty, one, otherEmpty));
+
+        assertEquals(3, playlist.removeDuplicates(null));
+        assertEquals(Arrays.asList(one, two, first, second, empty, otherEmpty), playlist);
+        assertEquals(0, playlist.removeDuplicates(null));
+    }
+
+    @Test
+    public void testRemoveDeadItems() throws IOException {
+        Track one = createFile("one.flac", 0);
+        Track first = createFile("album.flac", 1);
+        Track second = createFile("album.flac", 2);
+        Track stream = new Track(new TrackData(URI.create("http://radio.example.com:8000/stream"), 0));
+        Track empty = new Track();
+
+        Playlist playlist = new Playlist();
+        playlist.addAll(Arrays.asList(createTrack("gone.flac", 0), one, first,
+                createTrack("gone.ape", 1), second, stream, createTrack("gone.ape", 2), empty));
+
+        HashMap<String, Object> progress = new HashMap<String, Object>();
+        assertEquals(3, playlist.removeDeadItems(progress));
+        assertEquals(Arrays.asList(one, first, second, stream, empty), playlist);
+    }
+
+    @Test
+    public void testAbort() throws IOException {
+        Track one = createFile("one.flac", 0);
+        Track gone = createTrack("gone.flac", 0);
+        Playlist playlist = new Playlist();
+        playlist.addAll(Arrays.asList(one, gone));
+
+        HashMap<String, Object> progress = new HashMap<String, Object>();
+        progress.put("processing.stop", true);
+        assertEquals(0, playlist.removeDeadItems(progress));
+        assertEquals(0, playlist.removeDuplicates(progress));
+        assertEquals(Arrays.asList(one, gone), playlist);
+    }
+}
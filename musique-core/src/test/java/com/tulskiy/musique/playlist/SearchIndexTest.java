@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+    private Playlist playlist;
+    private Track abbeyRoad;
+    private Track letItBe;
+    private Track roadhouse;
+
+    private Track createTrack(String artist, String album, String title) {
+        Track track = new Track();
+        track.getTrackData().addArtist(artist);
+        track.getTrackData().addAlbum(album);
+        track.getTrackData().addTitle(title);
+        return track;
+    }
+
+    @Before
+    public void setUp() {
+        abbeyRoad = createTrack("The Beatles", "Abbey Road", "Come Together");
+        letItBe = createTrack("The Beatles", "Let It Be", "Get Back");
+        roadhouse = createTrack("The Doors", "Morrison Hotel", "Roadhouse\tBlues");
+        playlist = new Playlist();
+        playlist.addAll(Arrays.asList(abbeyRoad, letItBe, roadhouse));
+    }
+
+    private void assertFound(String query, Integer... expected) {
+        assertEquals(query, Arrays.asList(expected), playlist.getSearchIndex().search(query));
+    }
+
+    @Test
+    public void testPrefix() {
+        assertFound("beat", 0, 1);
+        assertFound("road", 0, 2);
+        assertFound("blues", 2);
+        assertFound("oad");
+        assertFound("zeppelin");
+    }
+
+    @Test
+    public void testCaseAndSpaces() {
+        assertFound("ROAD", 0, 2);
+        assertFound("  the\tDOORS ", 2);
+        assertFound("");
+        assertFound(" \t ");
+    }
+
+    @Test
+    public void testAllWords() {
+        // words may come from different fields
+        assertFound("beatles road", 0);
+        assertFound("the back", 1);
+        assertFound("doors abbey");
+    }
+
+    @Test
+    public void testPlaylistChanges() {
+        assertFound("the", 0, 1, 2);
+
+        playlist.remove(abbeyRoad);
+        assertFound("road", 1);
+
+        Track hey = createTrack("The Beatles", "Hey Jude", "Revolution");
+        playlist.add(0, hey);
+        assertFound("beatles", 0, 1);
+
+        // same track twice shows up twice
+        playlist.add(roadhouse);
+        assertFound("road", 2, 3);
+
+        Collections.reverse(playlist);
+        assertFound("road", 0, 1);
+
+        playlist.clear();
+        assertFound("the");
+        assertEquals(0, playlist.getSearchIndex().getWordCount());
+    }
+
+    @Test
+    public void testTagChanges() {
+        assertFound("together", 0);
+
+        abbeyRoad.getTrackData().setTagFieldValues(FieldKey.TITLE, "Something");
+        assertFound("together");
+        assertFound("some", 0);
+
+        letItBe.getTrackData().removeTagField(FieldKey.ARTIST);
+        assertFound("beatles", 0);
+
+        // tags of tracks outside of the playlist do not matter
+        createTrack("The Beatles", "Help", "Yesterday");
+        assertFound("beatles", 0);
+    }
+}
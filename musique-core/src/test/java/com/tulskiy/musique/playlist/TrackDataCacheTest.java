@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class TrackDataCacheTest {
+    private static final String[] FILES = {"/music/Abbey Road/01 Come Together.flac",
+            "/music/Abbey Road/02 Something.flac", "/music/Let It Be/album.flac"};
+
+    private Track createTrack(String file, int subsong) {
+        return new Track(new TrackData(new File(file).toURI(), subsong));
+    }
+
+    @Test
+    public void testCache() {
+        TrackDataCache cache = new TrackDataCache();
+        Track first = createTrack(FILES[0], 0);
+        Track same = createTrack(FILES[0], 0);
+        Track other = createTrack(FILES[1], 0);
+        cache.cache(first);
+        cache.cache(same);
+        cache.cache(other);
+
+        assertSame(first.getTrackData(), same.getTrackData());
+        assertNotSame(first.getTrackData(), other.getTrackData());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSubsongs() {
+        TrackDataCache cache = new TrackDataCache();
+        Track one = createTrack(FILES[2], 1);
+        Track two = createTrack(FILES[2], 2);
+        Track again = createTrack(FILES[2], 2);
+        cache.cache(one);
+        cache.cache(two);
+        cache.cache(again);
+
+        assertNotSame(one.getTrackData(), two.getTrackData());
+        assertSame(two.getTrackData(), again.getTrackData());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFirstDataWins() {
+        TrackDataCache cache = new TrackDataCache();
+        Track first = createTrack(FILES[0], 0);
+        first.getTrackData().addTitle("Come Together");
+        cache.cache(first);
+
+        Track second = createTrack(FILES[0], 0);
+        second.getTrackData().addTitle("Something");
+        cache.cache(second);
+        assertEquals("Come Together", second.getTrackData().getTitle());
+    }
+
+    @Test
+    public void testRelease() throws InterruptedException {
+        TrackDataCache cache = new TrackDataCache();
+        Track kept = createTrack(FILES[0], 0);
+        cache.cache(kept);
+        cache.cache(createTrack(FILES[1], 0));
+        for (int i = 0; i < 50 && cache.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.size());
+
+        // data of the dropped track is created again, kept one is shared
+        cache.cache(createTrack(FILES[1], 0));
+        Track track = createTrack(FILES[0], 0);
+        cache.cache(track);
+        assertSame(kept.getTrackData(), track.getTrackData());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final TrackDataCache cache = new TrackDataCache();
+        final int threads = 4;
+        final int rounds = 1000;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Track[]>> results = new ArrayList<Future<Track[]>>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(new Callable<Track[]>() {
+                @Override
+                public Track[] call() throws Exception {
+                    Track[] tracks = new Track[FILES.length];
+                    barrier.await();
+                    for (int i = 0; i < rounds; i++) {
+                        for (int j = 0; j < FILES.length; j++) {
+                            Track track = createTrack(FILES[j], 0);
+                            cache.cache(track);
+                            if (tracks[j] == null)
+                                tracks[j] = track;
+                            assertSame(tracks[j].getTrackData(), track.getTrackData());
+                        }
+                    }
+                    return tracks;
+                }
+            }));
+        }
+
+        Track[] first = results.get(0).get();
+        for (Future<Track[]> result : results) {
+            Track[] tracks = result.get();
+            for (int j = 0; j < FILES.length; j++) {
+                assertSame(first[j].getTrackData(), tracks[j].getTrackData());
+            }
+        }
+        executor.shutdown();
+        assertEquals(FILES.length, cache.getMissCount());
+        assertEquals(FILES.length * (threads * rounds - 1), cache.getHitCount());
+    }
+}
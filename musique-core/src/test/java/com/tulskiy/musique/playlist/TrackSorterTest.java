@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import com.tulskiy.musique.playlist.formatting.Parser;
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackSorterTest {
+    private Expression title = Parser.parse("%title%");
+
+    private List<Track> createTracks(String... titles) {
+        ArrayList<Track> tracks = new ArrayList<Track>();
+        for (int i = 0; i < titles.length; i++) {
+            Track track = new Track();
+            track.getTrackData().addTitle(titles[i]);
+            track.getTrackData().addAlbum(String.valueOf(i));
+            tracks.add(track);
+        }
+        return tracks;
+    }
+
+    private String albums(List<Track> tracks) {
+        StringBuilder sb = new StringBuilder();
+        for (Track track : tracks) {
+            sb.append(track.getTrackData().getAlbum()).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        List<Track> tracks = createTracks("zebra", "Abba", "Zed", "abba", "ABBA");
+        TrackSorter.sort(tracks, title, true);
+        // equal titles keep their order
+        assertEquals("1 3 4 0 2", albums(tracks));
+
+        TrackSorter.sort(tracks, title, false);
+        assertEquals("2 0 1 3 4", albums(tracks));
+    }
+
+    @Test
+    public void testFolding() {
+        // same as compareToIgnoreCase: umlauts and title case letters fold,
+        // sharp s does not turn into ss
+        List<Track> tracks = createTracks("äpfel", "ǆemal", "Äpfel", "ǅemal", "STRASSE", "straße");
+        TrackSorter.sort(tracks, title, true);
+        assertEquals("4 5 0 2 1 3", albums(tracks));
+    }
+
+    @Test
+    public void testStrings() {
+        List<Track> tracks = createTracks("9", "10", "", "1");
+        TrackSorter.sort(tracks, title, true);
+        assertEquals("2 3 1 0", albums(tracks));
+    }
+
+    @Test
+    public void testLargeList() {
+        // big enough to be sorted in parallel, every title is there twice
+        String[] titles = new String[20000];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = String.format("Title %05d", (i * 7) % 10000);
+        }
+        List<Track> tracks = createTracks(titles);
+        TrackSorter.sort(tracks, title, true);
+        for (int i = 0; i < tracks.size(); i++) {
+            TrackData trackData = tracks.get(i).getTrackData();
+            assertEquals(String.format("Title %05d", i / 2), trackData.getTitle());
+            if (i % 2 == 1) {
+                int first = Integer.parseInt(tracks.get(i - 1).getTrackData().getAlbum());
+                assertTrue(first < Integer.parseInt(trackData.getAlbum()));
+            }
+        }
+    }
+}
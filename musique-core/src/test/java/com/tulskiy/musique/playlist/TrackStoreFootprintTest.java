@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Measures heap used by a library of 12 track albums, six albums per
+ * artist, with and without {@link TrackStore}. Run manually with enough
+ * heap, prints bytes per track.
+ */
+@Ignore("benchmark, run manually")
+public class TrackStoreFootprintTest {
+    private static final int TRACKS = 300000;
+
+    private Playlist createLibrary() {
+        Playlist library = new Playlist();
+        for (int i = 0; i < TRACKS; i++) {
+            int album = i / 12;
+            int artist = album / 6;
+            TrackData trackData = new TrackData(new File("/home/user/Music/Artist " + artist +
+                    "/Album " + album + "/" + (i % 12 + 1) + " - Title " + i + ".mp3").toURI(), 0);
+            trackData.setSampleRate(44100);
+            trackData.setChannels(2);
+            trackData.setBps(16);
+            trackData.setBitrate(320);
+            trackData.setTotalSamples(44100L * (120 + i % 300));
+            trackData.setDateAdded(System.currentTimeMillis());
+            trackData.setCodec("MP3");
+            trackData.setEncoder("LAME3.99r");
+            trackData.addArtist("Artist " + artist);
+            trackData.addAlbumArtist("Artist " + artist);
+            trackData.addAlbum("Album " + album);
+            trackData.addTitle("Title " + i);
+            trackData.setTrack(i % 12 + 1);
+            trackData.setTrackTotal(12);
+            trackData.addYear(String.valueOf(1960 + album % 60));
+            trackData.addGenre("Genre " + album % 50);
+            trackData.addComment("Ripped with EAC");
+            library.add(new Track(trackData));
+        }
+        return library;
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testFootprint() {
+        long empty = usedHeap();
+        Playlist library = createLibrary();
+        long plain = usedHeap() - empty;
+        System.out.printf("plain TrackData: %d MB, %d bytes per track%n", plain >> 20, plain / TRACKS);
+
+        TrackStore store = new TrackStore();
+        for (Track track : library) {
+            store.add(track.getTrackData());
+        }
+        long stored = usedHeap() - empty;
+        System.out.printf("TrackStore: %d MB, %d bytes per track, %d strings%n",
+                stored >> 20, stored / TRACKS, store.getStringCount());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2008, 2009, 2010, 2011 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.tulskiy.musique.playlist;
+
+import org.jaudiotagger.tag.FieldKey;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TrackStoreTest {
+    private TrackData createTrackData(String title) {
+        TrackData trackData = new TrackData(new File("/music/Abbey Road/album.flac").toURI(), 1);
+        trackData.setCueLocation("/music/Abbey Road/album.cue");
+        trackData.setSampleRate(44100);
+        trackData.setChannels(2);
+        trackData.setBps(16);
+        trackData.setBitrate(900);
+        trackData.setStartPosition(44100L * 60);
+        trackData.setTotalSamples(44100L * 259);
+        trackData.setCodec("FLAC");
+        trackData.addArtist("The Beatles");
+        trackData.addGenre("Rock");
+        trackData.addGenre("Pop");
+        trackData.addTitle(title);
+        return trackData;
+    }
+
+    private void assertAbbeyRoad(TrackData trackData, String title) {
+        assertEquals(new File("/music/Abbey Road/album.flac"), trackData.getFile());
+        assertEquals(1, trackData.getSubsongIndex());
+        assertEquals("/music/Abbey Road/album.cue", trackData.getCueLocation());
+        assertFalse(trackData.isCueEmbedded());
+        assertEquals(44100, trackData.getSampleRate());
+        assertEquals(2, trackData.getChannels());
+        assertEquals(16, trackData.getBps());
+        assertEquals(900, trackData.getBitrate());
+        assertEquals(44100L * 60, trackData.getStartPosition());
+        assertEquals(44100L * 259, trackData.getTotalSamples());
+        assertEquals("FLAC", trackData.getCodec());
+        assertEquals("The Beatles", trackData.getArtist());
+        assertEquals("[Rock, Pop]", trackData.getTagFieldValues(FieldKey.GENRE).toString());
+        assertEquals(title, trackData.getTitle());
+    }
+
+    @Test
+    public void testAdd() {
+        TrackStore store = new TrackStore();
+        TrackData trackData = createTrackData("Come Together");
+        store.add(trackData);
+        assertEquals(1, store.size());
+        assertAbbeyRoad(trackData, "Come Together");
+        assertEquals(createTrackData("Come Together"), trackData);
+    }
+
+    @Test
+    public void testSharedStrings() {
+        TrackStore store = new TrackStore();
+        TrackData first = createTrackData("Come Together");
+        TrackData second = createTrackData("Something");
+        store.add(first);
+        store.add(second);
+        // cue, codec, artist, two genres and two titles
+        assertEquals(7, store.getStringCount());
+
+        store.remove(first);
+        assertEquals(1, store.size());
+        assertEquals(6, store.getStringCount());
+        assertAbbeyRoad(first, "Come Together");
+        assertAbbeyRoad(second, "Something");
+
+        store.remove(second);
+        assertEquals(0, store.size());
+        assertEquals(0, store.getStringCount());
+        assertAbbeyRoad(second, "Something");
+    }
+
+    @Test
+    public void testChanges() {
+        TrackStore store = new TrackStore();
+        TrackData trackData = createTrackData("Come Together");
+        store.add(trackData);
+
+        trackData.setSampleRate(48000);
+        trackData.setCodec("MP3");
+        trackData.addGenre("Blues");
+        trackData.setTagFieldValues(FieldKey.TITLE, "");
+        trackData.removeEmptyTagFields();
+        trackData.removeTagField(FieldKey.ARTIST);
+
+        assertEquals(48000, trackData.getSampleRate());
+        assertEquals("MP3", trackData.getCodec());
+        assertEquals("[Rock, Pop, Blues]", trackData.getTagFieldValues(FieldKey.GENRE).toString());
+        assertNull(trackData.getTagFieldValues(FieldKey.TITLE));
+        assertNull(trackData.getTagFieldValues(FieldKey.ARTIST));
+        // cue, codec and three genres, old values are released
+        assertEquals(5, store.getStringCount());
+
+        TrackData copy = trackData.copy();
+        assertEquals("MP3", copy.getCodec());
+        assertEquals("[Rock, Pop, Blues]", copy.getTagFieldValues(FieldKey.GENRE).toString());
+    }
+
+    @Test
+    public void testSlotReuse() {
+        TrackStore store = new TrackStore();
+        TrackData first = createTrackData("Come Together");
+        store.add(first);
+        store.remove(first);
+
+        TrackData second = createTrackData("Something");
+        second.setSampleRate(96000);
+        store.add(second);
+        assertEquals(1, store.size());
+        assertAbbeyRoad(first, "Come Together");
+        assertEquals(96000, second.getSampleRate());
+        assertEquals("Something", second.getTitle());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final TrackStore store = new TrackStore();
+        final TrackData trackData = createTrackData("Come Together");
+        store.add(trackData);
+
+        // writer grows the store and keeps replacing strings, so that
+        // their ids are released and reused by other strings
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i < 2000; i++) {
+                    store.add(createTrackData("Title " + i));
+                    trackData.setTagFieldValues(FieldKey.ARTIST, "Artist " + i);
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) {
+            assertEquals(44100, trackData.getSampleRate());
+            assertEquals("Come Together", trackData.getTitle());
+            String artist = trackData.getArtist();
+            assertTrue(artist, artist.startsWith("Artist ") || artist.equals("The Beatles"));
+        }
+        writer.join();
+        assertEquals("Artist 1999", trackData.getArtist());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2008, 2009, 2010 Denis Tulskiy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * version 3 along with this work.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tulskiy.musique.playlist.formatting;
+
+import com.tulskiy.musique.playlist.Track;
+import com.tulskiy.musique.playlist.TrackData;
+import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+/**
+ * Evaluates default playlist columns and the library view over a large
+ * playlist. Run manually, prints time per evaluation.
+ */
+@Ignore("benchmark, run manually")
+public class ExpressionSpeedTest {
+    private static final int TRACKS = 100000;
+    private static final String[] FORMATS = {
+            "[%artist% - ]%title%",
+            "%length%",
+            "%album%",
+            "%year%",
+            "$if3(%albumArtist%,'?')|$if1(%album%,[[%year% - ]%album%],'?')$if1($greater(%discTotal%,1),[|Disc %disc%],'')|[%trackNumber%. ]%title%"
+    };
+
+    private ArrayList<Track> createTracks() {
+        ArrayList<Track> tracks = new ArrayList<Track>(TRACKS);
+        for (int i = 0; i < TRACKS; i++) {
+            Track track = new Track();
+            TrackData data = track.getTrackData();
+            data.setLocation(new File("/music/artist" + i / 100 + "/album" + i / 10 + "/" + i + ".flac").toURI().toString());
+            data.addArtist("Artist " + i / 100);
+            data.addAlbumArtist("Artist " + i / 100);
+            data.addAlbum("Album " + i / 10);
+            data.addTitle("Title " + i);
+            data.addYear(String.valueOf(1960 + i % 50));
+            data.addTrack(i % 10 + 1);
+            data.setSampleRate(44100);
+            data.setTotalSamples(44100L * (120 + i % 300));
+            tracks.add(track);
+        }
+        return tracks;
+    }
+
+    @Test
+    public void testEval() throws Exception {
+        ArrayList<Track> tracks = createTracks();
+        for (int run = 0; run < 5; run++) {
+            System.out.println("run " + run);
+            for (String format : FORMATS) {
+                Expression expression = Parser.parse(format);
+                long time = System.nanoTime();
+                int hash = 0;
+                for (Track track : tracks) {
+                    Object val = expression.eval(track);
+                    if (val != null)
+                        hash += val.hashCode();
+                }
+                report(format, System.nanoTime() - time, hash);
+            }
+
+            // what ParameterExpression used to do for every %title%
+            Method method = TrackData.class.getDeclaredMethod("getTitle");
+            long time = System.nanoTime();
+            int hash = 0;
+            for (Track track : tracks) {
+                Object val = method.invoke(track.getTrackData());
+                if (val != null)
+                    hash += val.toString().hashCode();
+            }
+            report("reflective %title%", System.nanoTime() - time, hash);
+            time = System.nanoTime();
+            hash = 0;
+            Expression title = Parser.parse("%title%");
+            for (Track track : tracks) {
+                Object val = title.eval(track);
+                if (val != null)
+                    hash += val.hashCode();
+            }
+            report("compiled %title%", System.nanoTime() - time, hash);
+        }
+    }
+
+    private void report(String name, long nanos, int hash) {
+        System.out.printf("%8.1f ns/eval  %s (%d)%n", (double) nanos / TRACKS, name, hash);
+    }
+}
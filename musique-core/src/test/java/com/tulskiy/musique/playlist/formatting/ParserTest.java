@@ -19,13 +19,16 @@ package com.tulskiy.musique.playlist.formatting;
 
 import com.tulskiy.musique.playlist.Track;
 import com.tulskiy.musique.playlist.formatting.tokens.Expression;
+import com.tulskiy.musique.playlist.formatting.tokens.Methods;
 import org.jaudiotagger.tag.FieldKey;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * @Author: Denis Tulskiy
@@ -113,4 +116,60 @@ public class ParserTest {
 
 //        System.out.println(t.eval(s));
     }
+
+    @Test
+    public void testFailingFunction() {
+        // functions that throw give no value, like the reflective calls did
+        Expression t = Parser.parse("$strcmp(%comment%,x)");
+        assertNull(t.eval(s));
+        t = Parser.parse("[$strcmp(%comment%,x) - ]%title%");
+        s.getTrackData().addTitle("title");
+        assertEquals("title", t.eval(s));
+
+        t = Parser.parse("$if3(%genres%,'?')");
+        assertNull(t.eval(s));
+        t = Parser.parse("$if1($if3(%genres%,'?'),yes,no)");
+        assertEquals("no", t.eval(s));
+    }
+
+    @Test
+    public void testCache() {
+        String format = "$if1($strcmp(%albumArtist%,%artist%),%artist%,$if3(%album%,Unknown))";
+        Expression t = Parser.parse(format);
+        assertSame(t, Parser.parse(format));
+
+        // one shared expression evaluates each track on its own
+        Track other = new Track();
+        other.getTrackData().setLocation(new File("testfiles/ogg/sample.ogg").toURI().toString());
+        s.getTrackData().addArtist("artist");
+        s.getTrackData().addAlbumArtist("artist");
+        other.getTrackData().addArtist("artist");
+        other.getTrackData().addAlbumArtist("album artist");
+        other.getTrackData().addAlbum("album");
+        assertEquals("artist", t.eval(s));
+        assertEquals("album", t.eval(other));
+        other.getTrackData().removeTagField(FieldKey.ALBUM);
+        assertEquals("Unknown", t.eval(other));
+        assertEquals("artist", Parser.parse(format).eval(s));
+    }
+
+    @Test
+    public void testCompiledCalls() throws Exception {
+        // compiled functions return the same as calling Methods directly
+        s.getTrackData().addArtist("artist");
+        s.getTrackData().addTitle("title");
+        s.getTrackData().addDiscTotal("2");
+        Methods methods = new Methods();
+        String[] names = {"if1", "if3", "strcmp", "greater"};
+        String[] args = {"%artist%,%title%,x", "%album%,%title%", "%artist%,artist", "%discTotal%,1"};
+        for (int i = 0; i < names.length; i++) {
+            Expression t = Parser.parse("$" + names[i] + "(" + args[i] + ")");
+            ArrayList<Expression> list = new ArrayList<Expression>();
+            for (String arg : args[i].split(",")) {
+                list.add(Parser.parse(arg));
+            }
+            Method method = Methods.class.getDeclaredMethod(names[i], Track.class, ArrayList.class);
+            assertEquals(names[i], method.invoke(methods, s, list), t.eval(s));
+        }
+    }
 }